@@ -0,0 +1,71 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.Lists;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Job;
+
+/**
+ * Measures DAGNode.setSuccessors, which workflow runtimes call for every node when building the
+ * DAG they send to Ambrose.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class DAGNodeBenchmark {
+  /**
+   * Number of successors set.
+   */
+  @Param({ "1", "10", "100" })
+  public int fanOut;
+
+  private DAGNode<Job> node;
+  private List<DAGNode<? extends Job>> successors;
+
+  @Setup
+  public void setUp() {
+    node = new DAGNode<Job>("scope-0", null);
+    successors = Lists.newArrayListWithCapacity(fanOut);
+    for (int i = 1; i <= fanOut; i++) {
+      successors.add(new DAGNode<Job>("scope-" + i, null));
+    }
+  }
+
+  @Benchmark
+  public DAGNode<Job> setSuccessors() {
+    node.setSuccessors(successors);
+    return node;
+  }
+}
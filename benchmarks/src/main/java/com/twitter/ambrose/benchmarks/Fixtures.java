@@ -0,0 +1,178 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closeables;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.CounterId;
+import com.twitter.ambrose.model.hadoop.CounterInfo;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Benchmark inputs, built from the sample data served by the demo web UI under
+ * {@value #DATA_PATH}.
+ */
+final class Fixtures {
+  static final String DATA_PATH = "/com/twitter/ambrose/server/web/data/";
+
+  private Fixtures() { }
+
+  /**
+   * @return contents of a sample data file.
+   */
+  static String readData(String fileName) throws IOException {
+    InputStream in = Fixtures.class.getResourceAsStream(DATA_PATH + fileName);
+    if (in == null) {
+      throw new IOException("Could not find " + DATA_PATH + fileName + " on the classpath");
+    }
+    try {
+      return CharStreams.toString(new InputStreamReader(in, Charsets.UTF_8));
+    } finally {
+      Closeables.closeQuietly(in);
+    }
+  }
+
+  /**
+   * @return the sample DAG, in the order its nodes are listed.
+   */
+  static List<DAGNode<Job>> readDag() throws IOException {
+    return JSONUtil.toObject(readData("jobs.json"), new TypeReference<List<DAGNode<Job>>>() { });
+  }
+
+  /**
+   * @return the sample events, which cover one run of the sample DAG.
+   */
+  static List<Event> readEvents() throws IOException {
+    return JSONUtil.toObject(readData("events.json"), new TypeReference<List<Event>>() { });
+  }
+
+  /**
+   * Builds a DAG of copies of the sample DAG, where each copy's sinks feed the next copy's
+   * sources. Nodes of copy i are named "i:name".
+   *
+   * @param copies number of copies of the sample DAG.
+   * @return nodes with their successors set, in topological order of copies.
+   */
+  static List<DAGNode<Job>> largeDag(int copies) throws IOException {
+    List<DAGNode<Job>> nodes = Lists.newArrayList();
+    List<DAGNode<Job>> previousSinks = ImmutableList.of();
+    for (int copy = 0; copy < copies; copy++) {
+      List<DAGNode<Job>> sample = readDag();
+      Map<String, DAGNode<Job>> copyByName = Maps.newLinkedHashMap();
+      for (DAGNode<Job> node : sample) {
+        String name = copy + ":" + node.getName();
+        copyByName.put(node.getName(), new DAGNode<Job>(name, node.getJob()));
+      }
+      List<DAGNode<Job>> sources = Lists.newArrayList(copyByName.values());
+      List<DAGNode<Job>> sinks = Lists.newArrayList();
+      for (DAGNode<Job> node : sample) {
+        List<DAGNode<? extends Job>> successors = Lists.newArrayList();
+        for (String successorName : node.getSuccessorNames()) {
+          DAGNode<Job> successor = copyByName.get(successorName);
+          successors.add(successor);
+          sources.remove(successor);
+        }
+        copyByName.get(node.getName()).setSuccessors(successors);
+        if (successors.isEmpty()) {
+          sinks.add(copyByName.get(node.getName()));
+        }
+      }
+      for (DAGNode<Job> sink : previousSinks) {
+        sink.setSuccessors(ImmutableList.<DAGNode<? extends Job>>copyOf(sources));
+      }
+      nodes.addAll(copyByName.values());
+      previousSinks = sinks;
+    }
+    return nodes;
+  }
+
+  /**
+   * Builds a stream of events by repeating the sample events with increasing ids.
+   *
+   * @param size number of events.
+   */
+  static List<Event> eventStream(int size) throws IOException {
+    List<Map<String, Object>> sample = JSONUtil.toObject(readData("events.json"),
+        new TypeReference<List<Map<String, Object>>>() { });
+    List<Event> events = Lists.newArrayListWithCapacity(size);
+    while (events.size() < size) {
+      for (Map<String, Object> json : sample) {
+        if (events.size() == size) {
+          break;
+        }
+        json.put("id", events.size() + 1);
+        events.add(Event.fromJson(JSONUtil.toJson(json)));
+      }
+    }
+    return events;
+  }
+
+  /**
+   * @return counter groups holding one counter for each CounterId, as a running job reports them.
+   */
+  static Map<String, CounterGroup> counterGroups() {
+    Map<String, Map<String, CounterInfo>> counterInfoMaps = Maps.newLinkedHashMap();
+    long value = 0;
+    for (CounterId counterId : CounterId.values()) {
+      String groupName = counterId.counterGroupId.groupNames.get(0);
+      Map<String, CounterInfo> counterInfoMap = counterInfoMaps.get(groupName);
+      if (counterInfoMap == null) {
+        counterInfoMap = Maps.newLinkedHashMap();
+        counterInfoMaps.put(groupName, counterInfoMap);
+      }
+      counterInfoMap.put(counterId.name(), new CounterInfo(counterId.name(), null, value++));
+    }
+    Map<String, CounterGroup> counterGroups = Maps.newLinkedHashMap();
+    for (Map.Entry<String, Map<String, CounterInfo>> entry : counterInfoMaps.entrySet()) {
+      counterGroups.put(entry.getKey(),
+          new CounterGroup(entry.getKey(), null, entry.getValue()));
+    }
+    return counterGroups;
+  }
+
+  /**
+   * @return state of a running job.
+   */
+  static MapReduceJobState jobState() {
+    MapReduceJobState state = new MapReduceJobState();
+    state.setJobId("job_201401010000_0001");
+    state.setJobName("PigLatin:benchmark.pig");
+    state.setMapProgress(0.5f);
+    state.setReduceProgress(0.25f);
+    state.setJobStartTime(1388534400000L);
+    state.setTotalMappers(100);
+    state.setFinishedMappersCount(50);
+    state.setTotalReducers(10);
+    state.setFinishedReducersCount(2);
+    return state;
+  }
+}
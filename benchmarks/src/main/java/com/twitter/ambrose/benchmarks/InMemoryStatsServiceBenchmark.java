@@ -0,0 +1,117 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.benchmarks;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.impl.InMemoryStatsService;
+import com.twitter.ambrose.service.impl.RingBufferEventStore;
+
+/**
+ * Measures InMemoryStatsService while one thread pushes events, as a running workflow does, and
+ * several others read them, as viewers polling /events do.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class InMemoryStatsServiceBenchmark {
+  private static final String WORKFLOW_ID = "benchmark";
+  private static final int STORE_CAPACITY = 10000;
+
+  /**
+   * Number of events each viewer asks for, counting back from the last event pushed.
+   */
+  @Param({ "10", "100" })
+  public int window;
+
+  private InMemoryStatsService<Job> service;
+  private List<DAGNode<Job>> nodes;
+  private int nextNode;
+  private volatile int lastEventId;
+
+  @Setup
+  public void setUp() throws IOException {
+    service = new InMemoryStatsService<Job>(new RingBufferEventStore(
+        STORE_CAPACITY, RingBufferEventStore.MAX_BYTES_DEFAULT));
+    nodes = Fixtures.largeDag(10);
+    // fill the store, so that reads are as costly from the first iteration on
+    for (int i = 0; i < STORE_CAPACITY; i++) {
+      push();
+    }
+  }
+
+  /**
+   * Pushes a progress event for the next node. Only called by the single pushing thread.
+   */
+  private void push() throws IOException {
+    DAGNode<Job> node = nodes.get(nextNode++ % nodes.size());
+    Event event = new Event.JobProgressEvent(node);
+    service.pushEvent(WORKFLOW_ID, event);
+    lastEventId = event.getId();
+  }
+
+  @Benchmark
+  @Group("pushAndRead")
+  @GroupThreads(1)
+  public void pushEvent() throws IOException {
+    push();
+  }
+
+  @Benchmark
+  @Group("pushAndRead")
+  @GroupThreads(3)
+  public Collection<Event> getEventsSinceId() throws IOException {
+    return service.getEventsSinceId(WORKFLOW_ID, lastEventId - window);
+  }
+
+  @Benchmark
+  @Group("pushAndReadEncoded")
+  @GroupThreads(1)
+  public void pushEventWithEncodedReaders() throws IOException {
+    push();
+  }
+
+  @Benchmark
+  @Group("pushAndReadEncoded")
+  @GroupThreads(3)
+  public Collection<EncodedEvent> getEncodedEventsSinceId() throws IOException {
+    return service.getEncodedEventsSinceId(WORKFLOW_ID, lastEventId - window, -1);
+  }
+}
@@ -0,0 +1,106 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.benchmarks;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Measures JSONUtil serialization and deserialization of large DAGs and event streams, as sent to
+ * and read back by the web UI.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class JSONUtilBenchmark {
+  /**
+   * Number of copies of the sample DAG, which has 10 nodes.
+   */
+  @Param({ "10", "100" })
+  public int dagCopies;
+
+  /**
+   * Number of events in the stream.
+   */
+  @Param({ "1000" })
+  public int eventCount;
+
+  // arrays, as APIHandler sends them, so that serialization includes type ids
+  private DAGNode[] dag;
+  private String dagJson;
+  private Event[] events;
+  private String eventsJson;
+
+  @Setup
+  public void setUp() throws IOException {
+    List<DAGNode<Job>> nodes = Fixtures.largeDag(dagCopies);
+    dag = nodes.toArray(new DAGNode[nodes.size()]);
+    dagJson = JSONUtil.toJson(dag);
+    List<Event> eventList = Fixtures.eventStream(eventCount);
+    events = eventList.toArray(new Event[eventList.size()]);
+    eventsJson = JSONUtil.toJson(events);
+  }
+
+  @Benchmark
+  public String dagToJson() throws IOException {
+    return JSONUtil.toJson(dag);
+  }
+
+  @Benchmark
+  public List<DAGNode<Job>> dagToObject() throws IOException {
+    return JSONUtil.toObject(dagJson, new TypeReference<List<DAGNode<Job>>>() { });
+  }
+
+  @Benchmark
+  public String eventsToJson() throws IOException {
+    return JSONUtil.toJson(events);
+  }
+
+  @Benchmark
+  public StringWriter eventsToCompactJson() throws IOException {
+    StringWriter writer = new StringWriter();
+    JSONUtil.writeCompactJson(writer, events);
+    return writer;
+  }
+
+  @Benchmark
+  public List<Event> eventsToObject() throws IOException {
+    return JSONUtil.toObject(eventsJson, new TypeReference<List<Event>>() { });
+  }
+}
@@ -0,0 +1,75 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.benchmarks;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.CounterId;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+/**
+ * Measures MapReduceJob's metrics update, which runs each time a job's counters or state are
+ * polled. updateMetrics is protected, so it's reached through the setters which call it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class MapReduceJobBenchmark {
+  private Map<String, CounterGroup> counterGroups;
+  private MapReduceJobState jobState;
+  private MapReduceJob job;
+
+  @Setup
+  public void setUp() {
+    counterGroups = Fixtures.counterGroups();
+    jobState = Fixtures.jobState();
+    job = new MapReduceJob(jobState, counterGroups);
+  }
+
+  @Benchmark
+  public MapReduceJob updateMetricsFromCounters() {
+    job.setCounterGroupMap(counterGroups);
+    return job;
+  }
+
+  @Benchmark
+  public MapReduceJob updateMetricsFromState() {
+    job.setMapReduceJobState(jobState);
+    return job;
+  }
+
+  @Benchmark
+  public Long getCounterValue() {
+    return job.getCounterValue(CounterId.HDFS_BYTES_READ);
+  }
+}
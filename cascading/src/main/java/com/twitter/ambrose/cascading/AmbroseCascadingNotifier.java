@@ -29,8 +29,10 @@ import org.apache.commons.logging.LogFactory;
 
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.hadoop.JobStatePoller;
 import com.twitter.ambrose.model.hadoop.MapReduceHelper;
 import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.impl.AsyncStatsWriteService;
 import com.twitter.ambrose.util.AmbroseUtils;
 
 import cascading.flow.Flow;
@@ -54,7 +56,11 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
 
   private static final Log LOG = LogFactory.getLog(AmbroseCascadingNotifier.class);
   private final MapReduceHelper mapReduceHelper = new MapReduceHelper();
-  private final StatsWriteService statsWriteService;
+  /** polls the jobs of the running flow, created by its first step and closed once it completes */
+  private JobStatePoller jobStatePoller;
+  private final StatsWriteService delegate;
+  /** writes stats of the running flow, wrapped per flow if asynchronous writes are enabled */
+  private volatile StatsWriteService statsWriteService;
   private final Map<String, DAGNode<CascadingJob>> nodesByName = Maps.newTreeMap();
   private final Set<String> completedStepNames = Sets.newHashSet();
   private int totalNumberOfJobs;
@@ -62,11 +68,14 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   private String currentFlowId;
 
   /**
-   * Constructs new instance.
+   * Constructs new instance. If asynchronous writes are enabled, the service is wrapped in an
+   * {@link AsyncStatsWriteService} for each flow, which is closed once the flow completes, so that
+   * a notifier attached to many flows writes all of them asynchronously.
    *
    * @param statsWriteService ambrose stats write service to which stats are written.
    */
   public AmbroseCascadingNotifier(StatsWriteService statsWriteService) {
+    this.delegate = statsWriteService;
     this.statsWriteService = statsWriteService;
   }
 
@@ -90,7 +99,8 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   }
 
   /**
-   * Retrieves and updates ambrose node associated with the given flow step.
+   * Retrieves and updates ambrose node associated with the given flow step, querying the
+   * jobtracker for the state of its job.
    *
    * @param step step with which to update ambrose node state.
    * @return node associated with step.
@@ -105,6 +115,20 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     return node;
   }
 
+  private synchronized JobStatePoller getJobStatePoller() {
+    if (jobStatePoller == null) {
+      jobStatePoller = new JobStatePoller();
+    }
+    return jobStatePoller;
+  }
+
+  private synchronized void closeJobStatePoller() {
+    if (jobStatePoller != null) {
+      jobStatePoller.close();
+      jobStatePoller = null;
+    }
+  }
+
   /**
    * The onStarting event is fired when a Flow instance receives the start() message. A Flow is cut
    * down into executing units called stepFlow. A stepFlow contains a stepFlowJob which represents
@@ -120,6 +144,7 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     List<FlowStep> steps = flow.getFlowSteps();
     totalNumberOfJobs = steps.size();
     currentFlowId = flow.getID();
+    statsWriteService = AsyncStatsWriteService.wrapIfEnabled(delegate);
 
     Properties props = new Properties();
     props.putAll(flow.getConfigAsProperties());
@@ -171,6 +196,12 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   public void onCompleted(Flow flow) {
     // ensure workflow progress reflects completion
     AmbroseUtils.pushWorkflowProgressEvent(statsWriteService, currentFlowId, 100);
+    closeJobStatePoller();
+    if (statsWriteService != delegate) {
+      // stops the writer thread of this flow's asynchronous service once its writes are flushed
+      AmbroseUtils.close(statsWriteService);
+      statsWriteService = delegate;
+    }
   }
 
   /**
@@ -199,6 +230,7 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   public void onStepCompleted(FlowStep step) {
     try {
       DAGNode<CascadingJob> node = updateNode(step);
+      unwatch(step, node);
       AmbroseUtils.pushEvent(statsWriteService, currentFlowId, new Event.JobFinishedEvent(node));
     } catch (Exception e) {
       LOG.error("Failed to handle onStepCompleted event", e);
@@ -216,6 +248,7 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   public boolean onStepThrowable(FlowStep step, Throwable throwable) {
     try {
       DAGNode<CascadingJob> node = updateNode(step);
+      unwatch(step, node);
       AmbroseUtils.pushEvent(statsWriteService, currentFlowId, new Event.JobFailedEvent(node));
     } catch (Exception e) {
       LOG.error("Failed to handle onStepThrowable event", e);
@@ -240,10 +273,20 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     }
 
     try {
-      // update node
-      DAGNode<CascadingJob> node = updateNode(step);
+      // update node from the state and counters polled in the background, rather than reading
+      // counters from the step stats, which queries the jobtracker on every callback
+      DAGNode<CascadingJob> node = getNode(step);
+      CascadingJob job = node.getJob();
+      HadoopStepStats stats = (HadoopStepStats) step.getFlowStepStats();
+      job.setId(stats.getJobID());
+      if (job.getId() == null) {
+        return;
+      }
+      JobStatePoller poller = getJobStatePoller();
+      poller.watch(job.getId(), mapReduceHelper.newJobStateSource(stats.getJobClient()));
 
-      if (node.getJob().getMapReduceJobState() != null) {
+      // only report the state when it has changed
+      if (mapReduceHelper.setPolledMapReduceJobState(job, poller)) {
         AmbroseUtils.pushEvent(statsWriteService, currentFlowId, new Event.JobProgressEvent(node));
 
         if (node.getJob().getMapReduceJobState().isComplete()) {
@@ -255,6 +298,17 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     }
   }
 
+  /**
+   * Stops polling the job of a step which has completed or failed, and stops reporting its
+   * progress.
+   */
+  private void unwatch(FlowStep step, DAGNode<CascadingJob> node) {
+    completedStepNames.add(step.getName());
+    if (node.getJob().getId() != null) {
+      getJobStatePoller().unwatch(node.getJob().getId());
+    }
+  }
+
   @Override
   public void onStepStopping(FlowStep step) {
   }
@@ -24,7 +24,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.mapred.Counters;
 
-import com.twitter.ambrose.model.hadoop.CounterGroup;
 import com.twitter.ambrose.model.hadoop.MapReduceJob;
 
 import cascading.stats.hadoop.HadoopStepStats;
@@ -71,6 +70,6 @@ public class CascadingJob extends MapReduceJob {
         counters.findCounter(groupName, counterName).setValue(counterValue);
       }
     }
-    setCounterGroupMap(CounterGroup.counterGroupsByName(counters));
+    setCounters(counters);
   }
 }
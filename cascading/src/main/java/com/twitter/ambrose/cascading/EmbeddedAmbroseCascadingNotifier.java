@@ -52,8 +52,12 @@ public class EmbeddedAmbroseCascadingNotifier extends AmbroseCascadingNotifier {
   private final int sleepTimeSeconds;
 
   public EmbeddedAmbroseCascadingNotifier() {
-    super(new InMemoryStatsService<Job>());
-    this.service = (InMemoryStatsService<Job>) getStatsWriteService();
+    this(new InMemoryStatsService<Job>());
+  }
+
+  private EmbeddedAmbroseCascadingNotifier(InMemoryStatsService<Job> service) {
+    super(service);
+    this.service = service;
     this.server = new ScriptStatusServer(service, service);
     this.server.start();
     this.sleepTimeSeconds = getSleepTimeSeconds();
@@ -33,8 +33,10 @@ import org.jgrapht.graph.DefaultDirectedGraph;
 
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.hadoop.JobStatePoller;
 import com.twitter.ambrose.model.hadoop.MapReduceHelper;
 import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.impl.AsyncStatsWriteService;
 import com.twitter.ambrose.util.AmbroseUtils;
 
 import cascading.flow.Flow;
@@ -61,7 +63,10 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
 
   private static final Log LOG = LogFactory.getLog(AmbroseCascadingNotifier.class);
   private final MapReduceHelper mapReduceHelper = new MapReduceHelper();
-  private final StatsWriteService statsWriteService;
+  private final JobStatePoller jobStatePoller = new JobStatePoller();
+  private final StatsWriteService delegate;
+  /** writes stats of the running flow, wrapped per flow if asynchronous writes are enabled */
+  private volatile StatsWriteService statsWriteService;
   private final Map<String, DAGNode<CascadingJob>> nodesByName = Maps.newTreeMap();
   private final Set<String> completedStepNames = Sets.newHashSet();
   private int totalNumberOfJobs;
@@ -80,11 +85,14 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   }
 
   /**
-   * Constructs new instance.
+   * Constructs new instance. If asynchronous writes are enabled, the service is wrapped in an
+   * {@link AsyncStatsWriteService} for each flow, which is closed once the flow completes, so that
+   * a notifier attached to many flows writes all of them asynchronously.
    *
    * @param statsWriteService ambrose stats write service to which stats are written.
    */
   public AmbroseCascadingNotifier(StatsWriteService statsWriteService) {
+    this.delegate = statsWriteService;
     this.statsWriteService = statsWriteService;
   }
 
@@ -108,18 +116,32 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   }
 
   /**
-   * Retrieves and updates ambrose node associated with the given flow step.
+   * Retrieves and updates ambrose node associated with the given flow step, querying the
+   * jobtracker for the state of its job.
    *
    * @param step step with which to update ambrose node state.
    * @return node associated with step.
    */
   private DAGNode<CascadingJob> updateNode(FlowStep step) {
+    DAGNode<CascadingJob> node = updateNodeStats(step);
+    HadoopStepStats stats = (HadoopStepStats) step.getFlowStepStats();
+    mapReduceHelper.addMapReduceJobState(node.getJob(), stats.getJobClient());
+    return node;
+  }
+
+  /**
+   * Retrieves ambrose node associated with the given flow step and updates its stats, without
+   * querying the jobtracker.
+   *
+   * @param step step with which to update ambrose node state.
+   * @return node associated with step.
+   */
+  private DAGNode<CascadingJob> updateNodeStats(FlowStep step) {
     DAGNode<CascadingJob> node = getNode(step);
     CascadingJob job = node.getJob();
     HadoopStepStats stats = (HadoopStepStats) step.getFlowStepStats();
     job.setId(stats.getProcessStepID());
     job.setJobStats(stats);
-    mapReduceHelper.addMapReduceJobState(job, stats.getJobClient());
     return node;
   }
 
@@ -138,6 +160,7 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     List<FlowStep> steps = flow.getFlowSteps();
     totalNumberOfJobs = steps.size();
     currentFlowId = flow.getID();
+    statsWriteService = AsyncStatsWriteService.wrapIfEnabled(delegate);
 
     Properties props = new Properties();
     props.putAll(flow.getConfigAsProperties());
@@ -206,6 +229,11 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   public void onCompleted(Flow flow) {
     // ensure workflow progress reflects completion
     AmbroseUtils.pushWorkflowProgressEvent(statsWriteService, currentFlowId, 100);
+    if (statsWriteService != delegate) {
+      // stops the writer thread of this flow's asynchronous service once its writes are flushed
+      AmbroseUtils.close(statsWriteService);
+      statsWriteService = delegate;
+    }
   }
 
   /**
@@ -234,6 +262,7 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   public void onStepCompleted(FlowStep step) {
     try {
       DAGNode<CascadingJob> node = updateNode(step);
+      unwatch(step, node);
       AmbroseUtils.pushEvent(statsWriteService, currentFlowId, new Event.JobFinishedEvent(node));
     } catch (Exception e) {
       LOG.error("Failed to handle onStepCompleted event", e);
@@ -251,6 +280,7 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
   public boolean onStepThrowable(FlowStep step, Throwable throwable) {
     try {
       DAGNode<CascadingJob> node = updateNode(step);
+      unwatch(step, node);
       AmbroseUtils.pushEvent(statsWriteService, currentFlowId, new Event.JobFailedEvent(node));
     } catch (Exception e) {
       LOG.error("Failed to handle onStepThrowable event", e);
@@ -275,10 +305,17 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     }
 
     try {
-      // update node
-      DAGNode<CascadingJob> node = updateNode(step);
+      // update node, reading the state polled in the background
+      DAGNode<CascadingJob> node = updateNodeStats(step);
+      CascadingJob job = node.getJob();
+      if (job.getId() == null) {
+        return;
+      }
+      HadoopStepStats stats = (HadoopStepStats) step.getFlowStepStats();
+      jobStatePoller.watch(job.getId(), mapReduceHelper.newJobStateSource(stats.getJobClient()));
 
-      if (node.getJob().getMapReduceJobState() != null) {
+      // only report the state when it has changed
+      if (mapReduceHelper.setPolledMapReduceJobState(job, jobStatePoller)) {
         AmbroseUtils.pushEvent(statsWriteService, currentFlowId, new Event.JobProgressEvent(node));
 
         if (node.getJob().getMapReduceJobState().isComplete()) {
@@ -290,6 +327,17 @@ public class AmbroseCascadingNotifier implements FlowListener, FlowStepListener
     }
   }
 
+  /**
+   * Stops polling the job of a step which has completed or failed, and stops reporting its
+   * progress.
+   */
+  private void unwatch(FlowStep step, DAGNode<CascadingJob> node) {
+    completedStepNames.add(step.getName());
+    if (node.getJob().getId() != null) {
+      jobStatePoller.unwatch(node.getJob().getId());
+    }
+  }
+
   @Override
   public void onStepStopping(FlowStep step) {
   }
@@ -0,0 +1,123 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.util.List;
+
+/**
+ * Critical path analysis of a workflow, computed from the DAG and the start and finish times of its
+ * jobs.
+ * <p/>
+ * The makespan is the time the workflow would take if every job started as soon as all of its
+ * predecessors finished, which is the total duration of the jobs on the critical path. Slack is
+ * how long a job could be delayed without delaying the workflow. Jobs on the critical path have no
+ * slack. Times are in milliseconds. Jobs which haven't started yet take no time.
+ */
+public class CriticalPath {
+  /**
+   * Timing of one job of the workflow.
+   */
+  public static class Node {
+    private final String name;
+    private final long duration;
+    private final long earliestStart;
+    private final long latestStart;
+    private final boolean critical;
+
+    public Node(String name, long duration, long earliestStart, long latestStart,
+        boolean critical) {
+      this.name = name;
+      this.duration = duration;
+      this.earliestStart = earliestStart;
+      this.latestStart = latestStart;
+      this.critical = critical;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return time the job ran, or has been running for.
+     */
+    public long getDuration() {
+      return duration;
+    }
+
+    /**
+     * @return time from the start of the workflow by which all predecessors of the job can finish.
+     */
+    public long getEarliestStart() {
+      return earliestStart;
+    }
+
+    /**
+     * @return latest time from the start of the workflow at which the job can start without
+     * delaying the workflow.
+     */
+    public long getLatestStart() {
+      return latestStart;
+    }
+
+    public long getSlack() {
+      return latestStart - earliestStart;
+    }
+
+    public boolean isCritical() {
+      return critical;
+    }
+  }
+
+  private final long makespan;
+  private final long elapsed;
+  private final List<String> path;
+  private final List<Node> nodes;
+
+  public CriticalPath(long makespan, long elapsed, List<String> path, List<Node> nodes) {
+    this.makespan = makespan;
+    this.elapsed = elapsed;
+    this.path = path;
+    this.nodes = nodes;
+  }
+
+  /**
+   * @return achievable run time of the workflow, given the durations of its jobs.
+   */
+  public long getMakespan() {
+    return makespan;
+  }
+
+  /**
+   * @return time from the start of the first job to the last finish of any job.
+   */
+  public long getElapsed() {
+    return elapsed;
+  }
+
+  /**
+   * @return names of the jobs on the critical path, from source to sink.
+   */
+  public List<String> getPath() {
+    return path;
+  }
+
+  /**
+   * @return timings of all jobs, in topological order.
+   */
+  public List<Node> getNodes() {
+    return nodes;
+  }
+}
@@ -0,0 +1,173 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import com.twitter.ambrose.util.ConfigurationStore;
+import com.twitter.ambrose.util.JSONUtil;
+
+/**
+ * Immutable, pre-serialized form of an {@link Event}. The event is encoded to compact UTF-8 JSON
+ * once, when the event is created or received, which freezes its payload in the state it had at
+ * that time. Serving the event again only copies the stored bytes.
+ */
+public final class EncodedEvent {
+  private final int id;
+  private final Event.Type type;
+  private final String nodeName;
+  private final byte[] json;
+  private final List<String> configurationHashes;
+
+  /**
+   * Creates an EncodedEvent from already encoded JSON.
+   *
+   * @param id event id.
+   * @param type event type, or null if not known.
+   * @param nodeName name of the DAGNode the event refers to, or null for workflow events or if not
+   * known.
+   * @param json UTF-8 encoded JSON of the event. Must not be modified after this call.
+   */
+  public EncodedEvent(int id, Event.Type type, String nodeName, byte[] json) {
+    this(id, type, nodeName, json, Collections.<String>emptyList());
+  }
+
+  private EncodedEvent(int id, Event.Type type, String nodeName, byte[] json,
+      List<String> configurationHashes) {
+    this.id = id;
+    this.type = type;
+    this.nodeName = nodeName;
+    this.json = json;
+    this.configurationHashes = configurationHashes;
+  }
+
+  /**
+   * Encodes an event.
+   *
+   * @param event event to encode.
+   * @return encoded form of event, reflecting the state of its payload at the time of this call.
+   * @throws IOException if event can't be serialized.
+   */
+  public static EncodedEvent encode(Event<?> event) throws IOException {
+    Object payload = event.getPayload();
+    String nodeName = payload instanceof DAGNode ? ((DAGNode<?>) payload).getName() : null;
+    return new EncodedEvent(event.getId(), event.getType(), nodeName, JSONUtil.toJsonBytes(event));
+  }
+
+  /**
+   * Encodes an event, writing the configurations of jobs as references into store. The
+   * configurations referenced are pinned in store once, on behalf of the caller, which must
+   * {@link ConfigurationStore#release release} each of {@link #getConfigurationHashes} when it no
+   * longer serves the event.
+   *
+   * @param event event to encode.
+   * @param store store into which job configurations are written.
+   * @return encoded form of event, reflecting the state of its payload at the time of this call.
+   * @throws IOException if event can't be serialized.
+   */
+  public static EncodedEvent encode(Event<?> event, ConfigurationStore store) throws IOException {
+    Object payload = event.getPayload();
+    String nodeName = payload instanceof DAGNode ? ((DAGNode<?>) payload).getName() : null;
+    List<String> hashes = Lists.newArrayList();
+    byte[] json;
+    try {
+      json = JSONUtil.toJsonBytes(event, store, hashes);
+    } catch (IOException e) {
+      for (String hash : hashes) {
+        store.release(hash);
+      }
+      throw e;
+    }
+    return new EncodedEvent(
+        event.getId(), event.getType(), nodeName, json, ImmutableList.copyOf(hashes));
+  }
+
+  public int getId() { return id; }
+  public Event.Type getType() { return type; }
+  public String getNodeName() { return nodeName; }
+
+  /**
+   * @return hashes of the {@link ConfigurationStore} configurations the event references, empty
+   * unless the event was encoded with a store.
+   */
+  public List<String> getConfigurationHashes() {
+    return configurationHashes;
+  }
+
+  /**
+   * @return size in bytes of the encoded event.
+   */
+  public int getLength() {
+    return json.length;
+  }
+
+  /**
+   * Checks that the encoded event is a JSON object by its first and last non-whitespace bytes,
+   * without decoding it.
+   *
+   * @return true if the encoded event starts with '{' and ends with '}'.
+   */
+  public boolean isJsonObject() {
+    int start = 0;
+    int end = json.length - 1;
+    while (start <= end && isWhitespace(json[start])) {
+      start++;
+    }
+    while (end > start && isWhitespace(json[end])) {
+      end--;
+    }
+    return start < end && json[start] == '{' && json[end] == '}';
+  }
+
+  private static boolean isWhitespace(byte b) {
+    // bytes of multi-byte UTF-8 sequences are negative
+    return b >= 0 && b <= ' ';
+  }
+
+  /**
+   * Writes the encoded event to a stream.
+   *
+   * @param out stream to write to.
+   * @throws IOException if the stream can't be written to.
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(json);
+  }
+
+  /**
+   * @return the encoded event as a JSON string.
+   */
+  public String toJson() {
+    return new String(json, Charsets.UTF_8);
+  }
+
+  /**
+   * Decodes this event.
+   *
+   * @return a new Event equivalent to the one this was encoded from.
+   * @throws IOException if the JSON can't be parsed.
+   */
+  public Event<?> toEvent() throws IOException {
+    return Event.fromJson(toJson());
+  }
+}
@@ -0,0 +1,223 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Immutable, int indexed view of the DAG of a workflow, built once from its DAG node map.
+ * <p/>
+ * Nodes are identified by ids from 0 to {@link #size()} - 1, assigned in the iteration order of the
+ * map. Successors and predecessors of all nodes are held in two flat arrays each, in compressed
+ * sparse row form: the successors of node i are the ids at indices
+ * <code>successorOffsets[i]</code> to <code>successorOffsets[i + 1] - 1</code> of
+ * <code>successorIds</code>. This takes a few ints per node and edge, and needs no locking to
+ * traverse, unlike following {@link DAGNode#getSuccessors()}.
+ * <p/>
+ * Jobs are held by reference, so a graph reflects later updates of the jobs of the nodes it was
+ * built from. A graph serializes to the same JSON as the array of those nodes.
+ *
+ * @param <T> type of job.
+ */
+public final class WorkflowGraph<T extends Job> {
+  private final String[] names;
+  private final Object[] jobs;
+  private final ImmutableMap<String, Integer> idsByName;
+  private final int[] successorOffsets;
+  private final int[] successorIds;
+  private final int[] predecessorOffsets;
+  private final int[] predecessorIds;
+  /** nodes whose successors were set, which are the nodes DAGNode serializes successors of */
+  private final BitSet successorsSet;
+
+  private WorkflowGraph(String[] names, Object[] jobs, ImmutableMap<String, Integer> idsByName,
+      int[] successorOffsets, int[] successorIds, BitSet successorsSet) {
+    this.names = names;
+    this.jobs = jobs;
+    this.idsByName = idsByName;
+    this.successorOffsets = successorOffsets;
+    this.successorIds = successorIds;
+    this.successorsSet = successorsSet;
+
+    // predecessors are the transpose of successors
+    int size = names.length;
+    predecessorOffsets = new int[size + 1];
+    for (int successorId : successorIds) {
+      predecessorOffsets[successorId + 1]++;
+    }
+    for (int id = 0; id < size; id++) {
+      predecessorOffsets[id + 1] += predecessorOffsets[id];
+    }
+    predecessorIds = new int[successorIds.length];
+    int[] next = Arrays.copyOf(predecessorOffsets, size);
+    for (int id = 0; id < size; id++) {
+      for (int i = successorOffsets[id]; i < successorOffsets[id + 1]; i++) {
+        predecessorIds[next[successorIds[i]]++] = id;
+      }
+    }
+  }
+
+  /**
+   * Builds the graph of the given nodes. Successor names of a node which aren't keys of the map are
+   * ignored.
+   *
+   * @param dagNodeNameMap nodes keyed by their names.
+   * @return graph of the nodes, with ids in the iteration order of the map.
+   */
+  public static <T extends Job> WorkflowGraph<T> of(Map<String, DAGNode<T>> dagNodeNameMap) {
+    Preconditions.checkNotNull(dagNodeNameMap);
+    int size = dagNodeNameMap.size();
+    String[] names = new String[size];
+    Object[] jobs = new Object[size];
+    ImmutableMap.Builder<String, Integer> idsByName = ImmutableMap.builder();
+    int id = 0;
+    for (Map.Entry<String, DAGNode<T>> entry : dagNodeNameMap.entrySet()) {
+      names[id] = entry.getKey();
+      jobs[id] = entry.getValue().getJob();
+      idsByName.put(entry.getKey(), id);
+      id++;
+    }
+    ImmutableMap<String, Integer> ids = idsByName.build();
+
+    int[] successorOffsets = new int[size + 1];
+    int[] successorIds = new int[size];
+    BitSet successorsSet = new BitSet(size);
+    int edges = 0;
+    id = 0;
+    for (DAGNode<T> node : dagNodeNameMap.values()) {
+      Collection<String> successorNames = node.getSuccessorNames();
+      if (successorNames != null) {
+        successorsSet.set(id);
+        for (String successorName : successorNames) {
+          Integer successorId = ids.get(successorName);
+          if (successorId == null) {
+            continue;
+          }
+          if (edges == successorIds.length) {
+            successorIds = Arrays.copyOf(successorIds, edges * 2 + 1);
+          }
+          successorIds[edges++] = successorId;
+        }
+      }
+      successorOffsets[++id] = edges;
+    }
+    return new WorkflowGraph<T>(names, jobs, ids, successorOffsets,
+        Arrays.copyOf(successorIds, edges), successorsSet);
+  }
+
+  /**
+   * @return number of nodes.
+   */
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * @return number of edges.
+   */
+  public int getEdgeCount() {
+    return successorIds.length;
+  }
+
+  /**
+   * @return id of the node with the given name, or -1 if there is none.
+   */
+  public int getId(String name) {
+    Integer id = idsByName.get(name);
+    return id == null ? -1 : id;
+  }
+
+  public String getName(int id) {
+    return names[id];
+  }
+
+  @SuppressWarnings("unchecked")
+  public T getJob(int id) {
+    return (T) jobs[id];
+  }
+
+  public int getSuccessorCount(int id) {
+    return successorOffsets[id + 1] - successorOffsets[id];
+  }
+
+  /**
+   * @param id id of a node.
+   * @param index index of a successor of that node, from 0 to its successor count - 1.
+   * @return id of the successor.
+   */
+  public int getSuccessor(int id, int index) {
+    Preconditions.checkElementIndex(index, getSuccessorCount(id));
+    return successorIds[successorOffsets[id] + index];
+  }
+
+  public int getPredecessorCount(int id) {
+    return predecessorOffsets[id + 1] - predecessorOffsets[id];
+  }
+
+  /**
+   * @param id id of a node.
+   * @param index index of a predecessor of that node, from 0 to its predecessor count - 1.
+   * @return id of the predecessor.
+   */
+  public int getPredecessor(int id, int index) {
+    Preconditions.checkElementIndex(index, getPredecessorCount(id));
+    return predecessorIds[predecessorOffsets[id] + index];
+  }
+
+  /**
+   * @return whether the successors of a node were set, in which case its JSON includes their names.
+   */
+  public boolean hasSuccessorNames(int id) {
+    return successorsSet.get(id);
+  }
+
+  /**
+   * Orders nodes so that each node comes after all of its predecessors.
+   *
+   * @return ids of all nodes in topological order.
+   * @throws IllegalStateException if the graph has a cycle.
+   */
+  public int[] getTopologicalOrder() {
+    int size = size();
+    int[] pending = new int[size];
+    int[] order = new int[size];
+    int tail = 0;
+    for (int id = 0; id < size; id++) {
+      pending[id] = getPredecessorCount(id);
+      if (pending[id] == 0) {
+        order[tail++] = id;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int id = order[head];
+      for (int i = successorOffsets[id]; i < successorOffsets[id + 1]; i++) {
+        if (--pending[successorIds[i]] == 0) {
+          order[tail++] = successorIds[i];
+        }
+      }
+    }
+    if (tail < size) {
+      throw new IllegalStateException("Workflow graph has a cycle");
+    }
+    return order;
+  }
+}
@@ -0,0 +1,94 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.util.List;
+
+/**
+ * Current state of a workflow, folded from its events: the latest event of each job and of the
+ * workflow's progress, and the id of the last event folded in. A client can render the workflow
+ * from this state and then request only the events after {@link #getLastEventId()}, rather than
+ * replaying all events of the workflow.
+ */
+public class WorkflowState {
+  /**
+   * Status of a job, as of its latest event.
+   */
+  public enum JobStatus {
+    RUNNING, COMPLETE, FAILED
+  }
+
+  /**
+   * State of one job of the workflow.
+   */
+  public static class Node {
+    private final String name;
+    private final JobStatus status;
+    private final EncodedEvent event;
+
+    public Node(String name, JobStatus status, EncodedEvent event) {
+      this.name = name;
+      this.status = status;
+      this.event = event;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public JobStatus getStatus() {
+      return status;
+    }
+
+    /**
+     * @return latest event of the job, whose payload holds the job's current state.
+     */
+    public EncodedEvent getEvent() {
+      return event;
+    }
+  }
+
+  private final int lastEventId;
+  private final EncodedEvent workflowProgress;
+  private final List<Node> nodes;
+
+  public WorkflowState(int lastEventId, EncodedEvent workflowProgress, List<Node> nodes) {
+    this.lastEventId = lastEventId;
+    this.workflowProgress = workflowProgress;
+    this.nodes = nodes;
+  }
+
+  /**
+   * @return id of the last event folded into this state, or -1 if there were none.
+   */
+  public int getLastEventId() {
+    return lastEventId;
+  }
+
+  /**
+   * @return latest workflow progress event, or null if there were none.
+   */
+  public EncodedEvent getWorkflowProgress() {
+    return workflowProgress;
+  }
+
+  /**
+   * @return state of each job which had events, in order of the job's first event.
+   */
+  public List<Node> getNodes() {
+    return nodes;
+  }
+}
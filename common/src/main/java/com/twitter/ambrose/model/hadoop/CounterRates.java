@@ -0,0 +1,69 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model.hadoop;
+
+import java.util.Map;
+
+/**
+ * Per second rates of a job's counters over time, computed from samples of the counters taken as
+ * the job progressed.
+ * <p/>
+ * Rates are given for each interval between consecutive samples. The interval ending at
+ * {@code getTimes()[i]} started at {@code getTimes()[i - 1]}, or at {@link #getStartTime()} for
+ * the first interval. Times are in epoch milliseconds. Only counters the job reported are
+ * included.
+ */
+public class CounterRates {
+  private final String jobName;
+  private final long startTime;
+  private final long[] times;
+  private final Map<String, double[]> rates;
+
+  public CounterRates(String jobName, long startTime, long[] times, Map<String, double[]> rates) {
+    this.jobName = jobName;
+    this.startTime = startTime;
+    this.times = times;
+    this.rates = rates;
+  }
+
+  /**
+   * @return name of the DAG node of the job.
+   */
+  public String getJobName() {
+    return jobName;
+  }
+
+  /**
+   * @return time of the first sample.
+   */
+  public long getStartTime() {
+    return startTime;
+  }
+
+  /**
+   * @return end time of each interval.
+   */
+  public long[] getTimes() {
+    return times;
+  }
+
+  /**
+   * @return rate of each interval, keyed by {@link CounterId} name.
+   */
+  public Map<String, double[]> getRates() {
+    return rates;
+  }
+}
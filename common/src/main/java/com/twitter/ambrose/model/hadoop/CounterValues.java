@@ -0,0 +1,186 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model.hadoop;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.ImmutableMap;
+
+import org.apache.hadoop.mapred.Counters;
+
+/**
+ * Values of the common Hadoop counters listed by {@link CounterId}, held in a {@code long[]}
+ * indexed by {@link CounterId#ordinal()} with a bit set recording which counters were reported.
+ * Filled in one pass over a job's counter groups, so reading all common counters doesn't take a
+ * lookup per counter and group name. Other counters are only held by the job's counter groups.
+ * <p>
+ * As with {@link MapReduceJob#getCounterValue(CounterId)} before this class existed, the values of
+ * a {@link CounterGroupId} are read from the first of its group names which was reported.
+ */
+@SuppressWarnings("deprecation")
+public final class CounterValues {
+  private static final CounterId[] COUNTER_IDS = CounterId.values();
+  private static final Map<String, CounterGroupId> COUNTER_GROUP_IDS_BY_NAME;
+  private static final Map<String, CounterId> COUNTER_IDS_BY_NAME;
+
+  static {
+    ImmutableMap.Builder<String, CounterGroupId> counterGroupIds = ImmutableMap.builder();
+    for (CounterGroupId counterGroupId : CounterGroupId.values()) {
+      for (String groupName : counterGroupId.groupNames) {
+        counterGroupIds.put(groupName, counterGroupId);
+      }
+    }
+    COUNTER_GROUP_IDS_BY_NAME = counterGroupIds.build();
+    ImmutableMap.Builder<String, CounterId> counterIds = ImmutableMap.builder();
+    for (CounterId counterId : COUNTER_IDS) {
+      counterIds.put(counterId.name(), counterId);
+    }
+    COUNTER_IDS_BY_NAME = counterIds.build();
+  }
+
+  /**
+   * Values of a job which reported no counters.
+   */
+  public static final CounterValues EMPTY = new CounterValues();
+
+  /**
+   * Reads the common counters of the given counter groups.
+   *
+   * @param counterGroupMap counter groups by name. May be null.
+   * @return counter values.
+   */
+  public static CounterValues of(@Nullable Map<String, CounterGroup> counterGroupMap) {
+    CounterValues counterValues = new CounterValues();
+    if (counterGroupMap != null) {
+      for (CounterGroup counterGroup : counterGroupMap.values()) {
+        Map<String, CounterInfo> counterInfoMap = counterGroup.getCounterInfoMap();
+        if (counterInfoMap == null
+            || !counterValues.startGroup(counterGroup.getGroupName())) {
+          continue;
+        }
+        for (CounterInfo counterInfo : counterInfoMap.values()) {
+          counterValues.set(counterInfo.getName(), counterInfo.getValue());
+        }
+      }
+    }
+    return counterValues;
+  }
+
+  /**
+   * Reads the common counters of the given Hadoop counters.
+   *
+   * @param counters counters. May be null.
+   * @return counter values.
+   */
+  public static CounterValues of(@Nullable Counters counters) {
+    CounterValues counterValues = new CounterValues();
+    if (counters != null) {
+      for (Counters.Group group : counters) {
+        if (!counterValues.startGroup(group.getName())) {
+          continue;
+        }
+        for (Counters.Counter counter : group) {
+          counterValues.set(counter.getName(), counter.getValue());
+        }
+      }
+    }
+    return counterValues;
+  }
+
+  private final long[] values = new long[COUNTER_IDS.length];
+  private final BitSet present = new BitSet(COUNTER_IDS.length);
+  // index into CounterGroupId.groupNames of the group each CounterGroupId was read from
+  private final int[] groupNameIndices = new int[CounterGroupId.values().length];
+  // CounterGroupId of the group being read, or null if it's being skipped
+  private CounterGroupId currentGroupId;
+
+  private CounterValues() {
+    Arrays.fill(groupNameIndices, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Starts reading a group, discarding values already read from a group which the new one takes
+   * precedence over.
+   *
+   * @return false if the group holds no common counters, or a group which takes precedence over
+   * it was already read.
+   */
+  private boolean startGroup(String groupName) {
+    currentGroupId = COUNTER_GROUP_IDS_BY_NAME.get(groupName);
+    if (currentGroupId == null) {
+      return false;
+    }
+    int groupNameIndex = currentGroupId.groupNames.indexOf(groupName);
+    int previousIndex = groupNameIndices[currentGroupId.ordinal()];
+    if (groupNameIndex > previousIndex) {
+      currentGroupId = null;
+      return false;
+    }
+    if (previousIndex != Integer.MAX_VALUE) {
+      for (CounterId counterId : COUNTER_IDS) {
+        if (counterId.counterGroupId == currentGroupId) {
+          present.clear(counterId.ordinal());
+        }
+      }
+    }
+    groupNameIndices[currentGroupId.ordinal()] = groupNameIndex;
+    return true;
+  }
+
+  private void set(String name, long value) {
+    CounterId counterId = COUNTER_IDS_BY_NAME.get(name);
+    if (counterId != null && counterId.counterGroupId == currentGroupId) {
+      values[counterId.ordinal()] = value;
+      present.set(counterId.ordinal());
+    }
+  }
+
+  /**
+   * @return true if the counter was reported.
+   */
+  public boolean contains(CounterId counterId) {
+    return present.get(counterId.ordinal());
+  }
+
+  /**
+   * @return value of the counter, or 0 if it wasn't reported.
+   */
+  public long get(CounterId counterId) {
+    return values[counterId.ordinal()];
+  }
+
+  /**
+   * @return number of counters reported.
+   */
+  public int size() {
+    return present.cardinality();
+  }
+
+  /**
+   * Puts the value of each reported counter into the given map, keyed by counter name.
+   *
+   * @param metrics map to update.
+   */
+  public void putAll(Map<String, Number> metrics) {
+    for (int i = present.nextSetBit(0); i >= 0; i = present.nextSetBit(i + 1)) {
+      metrics.put(COUNTER_IDS[i].name(), values[i]);
+    }
+  }
+}
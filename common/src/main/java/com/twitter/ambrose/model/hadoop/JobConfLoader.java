@@ -0,0 +1,237 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model.hadoop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Loads the configuration of mapreduce jobs from their job files, keeping the most recently loaded
+ * configurations in memory so that a job file is read at most once while it is cached.
+ * <p/>
+ * Job files are read through a single FileSystem, obtained when the first job file is loaded, and
+ * their XML is parsed as a stream rather than through a Configuration, which would also parse the
+ * default resources. Only properties whose names start with one of the allowed prefixes are kept;
+ * all properties are kept if no prefixes are given.
+ * <p/>
+ * The no-arg constructor configures the loader with the following system properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #CACHE_SIZE_PARAM}</code> - maximum number of cached configurations.
+ *     Defaults to {@value #CACHE_SIZE_DEFAULT}.</li>
+ *     <li><code>{@value #ALLOWED_PREFIXES_PARAM}</code> - comma separated list of allowed property
+ *     name prefixes. Defaults to none, which keeps all properties.</li>
+ *   </ul>
+ * </pre>
+ * <p/>
+ * Instances are thread safe.
+ */
+public class JobConfLoader {
+  private static final Log LOG = LogFactory.getLog(JobConfLoader.class);
+
+  /**
+   * Name of system property used to configure the maximum number of cached configurations.
+   */
+  public static final String CACHE_SIZE_PARAM = "ambrose.job.conf.cache.size";
+  /**
+   * Name of system property used to configure the allowed property name prefixes.
+   */
+  public static final String ALLOWED_PREFIXES_PARAM = "ambrose.job.conf.allowed.prefixes";
+  public static final int CACHE_SIZE_DEFAULT = 256;
+
+  private static final XMLInputFactory XML_INPUT_FACTORY = newXMLInputFactory();
+  private static final Splitter PREFIX_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+  private final Configuration conf;
+  private final List<String> allowedPrefixes;
+  private final LoadingCache<String, Properties> cache;
+  private final AtomicLong loadCount = new AtomicLong();
+  private FileSystem fileSystem;
+
+  /**
+   * Creates a new JobConfLoader configured from system properties.
+   */
+  public JobConfLoader() {
+    this(new Configuration(), Integer.getInteger(CACHE_SIZE_PARAM, CACHE_SIZE_DEFAULT),
+        PREFIX_SPLITTER.split(System.getProperty(ALLOWED_PREFIXES_PARAM, "")));
+  }
+
+  /**
+   * Creates a new JobConfLoader.
+   *
+   * @param conf configuration with which to obtain the FileSystem job files are read from.
+   * @param cacheSize maximum number of cached configurations.
+   * @param allowedPrefixes prefixes of the names of properties to keep, or none to keep all.
+   */
+  public JobConfLoader(Configuration conf, int cacheSize, Iterable<String> allowedPrefixes) {
+    checkArgument(cacheSize >= 0, "cacheSize must not be negative");
+    this.conf = checkNotNull(conf);
+    this.allowedPrefixes = ImmutableList.copyOf(allowedPrefixes);
+    // a single segment evicts the least recently used configuration exactly
+    this.cache = CacheBuilder.newBuilder()
+        .concurrencyLevel(1)
+        .maximumSize(cacheSize)
+        .build(new CacheLoader<String, Properties>() {
+          @Override
+          public Properties load(String jobFile) throws IOException {
+            return loadJobConf(jobFile);
+          }
+        });
+  }
+
+  /**
+   * Returns the configuration held by a job file, loading it unless it is cached.
+   *
+   * @param jobFile path of the job file.
+   * @return a copy of the allowed properties of the job file.
+   * @throws IOException if the job file could not be read or parsed.
+   */
+  public Properties getJobConf(String jobFile) throws IOException {
+    Properties properties;
+    try {
+      properties = cache.get(jobFile);
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+    Properties copy = new Properties();
+    copy.putAll(properties);
+    return copy;
+  }
+
+  /**
+   * @return number of cached configurations.
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * @return number of job files read.
+   */
+  public long getLoadCount() {
+    return loadCount.get();
+  }
+
+  private static XMLInputFactory newXMLInputFactory() {
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    // job files don't declare DTDs, and mustn't be able to resolve external entities
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    return factory;
+  }
+
+  private synchronized FileSystem getFileSystem() throws IOException {
+    if (fileSystem == null) {
+      fileSystem = FileSystem.get(conf);
+    }
+    return fileSystem;
+  }
+
+  private Properties loadJobConf(String jobFile) throws IOException {
+    LOG.info(String.format("Loading RunningJob configuration file '%s'", jobFile));
+    loadCount.incrementAndGet();
+    InputStream inputStream = getFileSystem().open(new Path(jobFile));
+    try {
+      return parse(inputStream, allowedPrefixes);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /**
+   * Reads the properties of a Hadoop configuration XML document, keeping those whose names start
+   * with one of allowedPrefixes, or all of them if allowedPrefixes is empty. Later definitions of a
+   * property replace earlier ones, as they do in a Configuration.
+   *
+   * @param inputStream stream of the XML document, which is not closed.
+   * @param allowedPrefixes prefixes of the names of properties to keep.
+   * @return properties read.
+   * @throws IOException if the document could not be read or parsed.
+   */
+  static Properties parse(InputStream inputStream, List<String> allowedPrefixes)
+      throws IOException {
+    Properties properties = new Properties();
+    try {
+      XMLStreamReader reader = XML_INPUT_FACTORY.createXMLStreamReader(inputStream);
+      try {
+        String name = null;
+        String value = null;
+        while (reader.hasNext()) {
+          int event = reader.next();
+          if (event == XMLStreamConstants.START_ELEMENT) {
+            String element = reader.getLocalName();
+            if ("property".equals(element)) {
+              name = null;
+              value = null;
+            } else if ("name".equals(element)) {
+              name = reader.getElementText().trim();
+            } else if ("value".equals(element)) {
+              value = reader.getElementText();
+            }
+          } else if (event == XMLStreamConstants.END_ELEMENT
+              && "property".equals(reader.getLocalName())) {
+            if (name != null && value != null && isAllowed(name, allowedPrefixes)) {
+              properties.setProperty(name, value);
+            }
+          }
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw new IOException("Failed to parse configuration", e);
+    }
+    return properties;
+  }
+
+  private static boolean isAllowed(String name, List<String> allowedPrefixes) {
+    if (allowedPrefixes.isEmpty()) {
+      return true;
+    }
+    for (String prefix : allowedPrefixes) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
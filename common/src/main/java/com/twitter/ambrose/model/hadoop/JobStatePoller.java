@@ -0,0 +1,345 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model.hadoop;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.Maps;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Polls the state of running mapreduce jobs on a shared schedule, so that framework callbacks read
+ * the last known {@link MapReduceJobState} of a job with {@link #getJobState} instead of querying
+ * the jobtracker themselves on every progress notification.
+ * <p/>
+ * A job is polled as soon as it is {@link #watch watched}, then again after a delay which adapts to
+ * its progress: the delay is a fraction of the job's estimated remaining time, bounded by the
+ * minimum and maximum intervals. Jobs close to completion are therefore polled often, while jobs
+ * with long-running maps are polled rarely. Failed polls back off up to the maximum interval. A
+ * job is polled until its state is complete or it is {@link #unwatch unwatched}.
+ * <p/>
+ * Most polls only read the progress of a job, and its counters if the progress changed. The task
+ * reports of a job, whose size grows with its number of tasks, are only fetched by the first poll,
+ * by the poll which finds the job complete, and once the task reports interval has passed since
+ * they were last fetched.
+ * <p/>
+ * At most maxParallelPolls jobs are polled at once, and polls of the same job never overlap.
+ * Polling threads are daemon threads, so an unclosed poller doesn't keep the JVM alive.
+ * <p/>
+ * The no-arg constructor configures the poller with the following system properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #MIN_INTERVAL_PARAM}</code> - minimum delay between polls of a job, in
+ *     milliseconds. Defaults to {@value #MIN_INTERVAL_DEFAULT}.</li>
+ *     <li><code>{@value #MAX_INTERVAL_PARAM}</code> - maximum delay between polls of a job, in
+ *     milliseconds. Defaults to {@value #MAX_INTERVAL_DEFAULT}.</li>
+ *     <li><code>{@value #MAX_PARALLEL_POLLS_PARAM}</code> - maximum number of jobs polled at once.
+ *     Defaults to {@value #MAX_PARALLEL_POLLS_DEFAULT}.</li>
+ *     <li><code>{@value #TASK_REPORTS_INTERVAL_PARAM}</code> - minimum delay between fetches of
+ *     the task reports of a job, in milliseconds. Set to 0 to fetch them on every poll, or to a
+ *     negative value to only fetch them when the job starts and completes. Defaults to {@value
+ *     #TASK_REPORTS_INTERVAL_DEFAULT}.</li>
+ *   </ul>
+ * </pre>
+ * <p/>
+ * Instances are thread safe.
+ */
+public class JobStatePoller implements Closeable {
+  private static final Log LOG = LogFactory.getLog(JobStatePoller.class);
+
+  /**
+   * Name of system property used to configure the minimum delay between polls of a job.
+   */
+  public static final String MIN_INTERVAL_PARAM = "ambrose.job.poll.min.interval.ms";
+  /**
+   * Name of system property used to configure the maximum delay between polls of a job.
+   */
+  public static final String MAX_INTERVAL_PARAM = "ambrose.job.poll.max.interval.ms";
+  /**
+   * Name of system property used to configure the maximum number of jobs polled at once.
+   */
+  public static final String MAX_PARALLEL_POLLS_PARAM = "ambrose.job.poll.max.parallel";
+  /**
+   * Name of system property used to configure the minimum delay between fetches of task reports.
+   */
+  public static final String TASK_REPORTS_INTERVAL_PARAM =
+      "ambrose.job.poll.task.reports.interval.ms";
+  public static final long MIN_INTERVAL_DEFAULT = 1000;
+  public static final long MAX_INTERVAL_DEFAULT = 30000;
+  public static final int MAX_PARALLEL_POLLS_DEFAULT = 4;
+  public static final long TASK_REPORTS_INTERVAL_DEFAULT = 60000;
+
+  /**
+   * A job is polled at least this many times over its estimated remaining time.
+   */
+  private static final int POLLS_PER_REMAINING_TIME = 10;
+  private static final String THREAD_NAME_PREFIX = "ambrose-job-state-poller-";
+
+  /**
+   * Source of job states. Production code queries the jobtracker through a JobClient, see {@link
+   * MapReduceHelper#newJobStateSource}.
+   */
+  public interface JobStateSource {
+    /**
+     * Retrieves the state of a job, as {@link MapReduceHelper#pollMapReduceJobState} does.
+     *
+     * @param jobId id of the job whose state should be retrieved.
+     * @param previous state last retrieved for the job, or null.
+     * @param fetchTaskReports whether to fetch the task reports of the job.
+     * @return current state of the job, or previous if it hasn't changed. Never null.
+     * @throws Exception if the state could not be retrieved.
+     */
+    MapReduceJobState getJobState(String jobId, MapReduceJobState previous,
+        boolean fetchTaskReports) throws Exception;
+  }
+
+  /**
+   * A watched job, with the last state polled for it. Only accessed by the poll of the job after
+   * it is scheduled, except for the volatile fields.
+   */
+  private final class WatchedJob implements Runnable {
+    private final String jobId;
+    private final JobStateSource source;
+    private final long watchedSince;
+    private volatile MapReduceJobState state;
+    private volatile boolean unwatched;
+    private long delayMillis;
+    private long taskReportsTime;
+
+    private WatchedJob(String jobId, JobStateSource source, long watchedSince) {
+      this.jobId = jobId;
+      this.source = source;
+      this.watchedSince = watchedSince;
+    }
+
+    @Override
+    public void run() {
+      if (unwatched) {
+        return;
+      }
+      try {
+        long now = System.currentTimeMillis();
+        MapReduceJobState previous = state;
+        boolean fetchTaskReports = MapReduceHelper.shouldFetchTaskReports(
+            previous, taskReportsTime, now, taskReportsIntervalMillis);
+        MapReduceJobState polled = source.getJobState(jobId, previous, fetchTaskReports);
+        pollCount.incrementAndGet();
+        if (fetchTaskReports) {
+          taskReportsTime = now;
+          taskReportsPollCount.incrementAndGet();
+        }
+        if (unwatched) {
+          return;
+        }
+        state = polled;
+        if (polled.isComplete()) {
+          return;
+        }
+        delayMillis =
+            nextDelay(polled, watchedSince, now, minIntervalMillis, maxIntervalMillis);
+      } catch (Exception e) {
+        failedPollCount.incrementAndGet();
+        LOG.warn(String.format("Failed to poll state of job '%s'", jobId), e);
+        delayMillis = Math.min(Math.max(minIntervalMillis, delayMillis * 2), maxIntervalMillis);
+      }
+      schedule(this, delayMillis);
+    }
+  }
+
+  private final ConcurrentMap<String, WatchedJob> jobs = Maps.newConcurrentMap();
+  private final ScheduledExecutorService executor;
+  private final long minIntervalMillis;
+  private final long maxIntervalMillis;
+  private final long taskReportsIntervalMillis;
+  private final AtomicLong pollCount = new AtomicLong();
+  private final AtomicLong taskReportsPollCount = new AtomicLong();
+  private final AtomicLong failedPollCount = new AtomicLong();
+
+  /**
+   * Creates a new JobStatePoller configured from system properties.
+   */
+  public JobStatePoller() {
+    this(Long.getLong(MIN_INTERVAL_PARAM, MIN_INTERVAL_DEFAULT),
+        Long.getLong(MAX_INTERVAL_PARAM, MAX_INTERVAL_DEFAULT),
+        Integer.getInteger(MAX_PARALLEL_POLLS_PARAM, MAX_PARALLEL_POLLS_DEFAULT),
+        Long.getLong(TASK_REPORTS_INTERVAL_PARAM, TASK_REPORTS_INTERVAL_DEFAULT));
+  }
+
+  /**
+   * Creates a new JobStatePoller.
+   *
+   * @param minIntervalMillis minimum delay between polls of a job.
+   * @param maxIntervalMillis maximum delay between polls of a job.
+   * @param maxParallelPolls maximum number of jobs polled at once.
+   * @param taskReportsIntervalMillis minimum delay between fetches of the task reports of a job,
+   * or a negative value to only fetch them when the job starts and completes.
+   */
+  public JobStatePoller(long minIntervalMillis, long maxIntervalMillis, int maxParallelPolls,
+      long taskReportsIntervalMillis) {
+    checkArgument(minIntervalMillis > 0, "minIntervalMillis must be positive");
+    checkArgument(maxIntervalMillis >= minIntervalMillis,
+        "maxIntervalMillis must not be less than minIntervalMillis");
+    checkArgument(maxParallelPolls > 0, "maxParallelPolls must be positive");
+    this.minIntervalMillis = minIntervalMillis;
+    this.maxIntervalMillis = maxIntervalMillis;
+    this.taskReportsIntervalMillis = taskReportsIntervalMillis;
+    this.executor = new ScheduledThreadPoolExecutor(maxParallelPolls, new ThreadFactory() {
+      private final AtomicInteger threadCount = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Starts polling the state of a job, unless it is already watched.
+   *
+   * @param jobId id of the job to poll.
+   * @param source source from which to poll the job's state.
+   */
+  public void watch(String jobId, JobStateSource source) {
+    checkNotNull(jobId);
+    checkNotNull(source);
+    WatchedJob job = new WatchedJob(jobId, source, System.currentTimeMillis());
+    if (jobs.putIfAbsent(jobId, job) == null) {
+      schedule(job, 0);
+    }
+  }
+
+  /**
+   * Stops polling the state of a job and forgets its last state. Call this once the final state of
+   * a job has been retrieved.
+   *
+   * @param jobId id of the job.
+   */
+  public void unwatch(String jobId) {
+    WatchedJob job = jobs.remove(jobId);
+    if (job != null) {
+      job.unwatched = true;
+    }
+  }
+
+  /**
+   * Returns the last state polled for a job, without blocking.
+   *
+   * @param jobId id of the job.
+   * @return last state polled for the job, or null if it isn't watched or hasn't been polled
+   * successfully yet.
+   */
+  public MapReduceJobState getJobState(String jobId) {
+    WatchedJob job = jobs.get(jobId);
+    return job == null ? null : job.state;
+  }
+
+  /**
+   * @return number of jobs currently watched.
+   */
+  public int size() {
+    return jobs.size();
+  }
+
+  /**
+   * @return number of successful polls.
+   */
+  public long getPollCount() {
+    return pollCount.get();
+  }
+
+  /**
+   * @return number of successful polls which requested task reports.
+   */
+  public long getTaskReportsPollCount() {
+    return taskReportsPollCount.get();
+  }
+
+  /**
+   * @return number of failed polls.
+   */
+  public long getFailedPollCount() {
+    return failedPollCount.get();
+  }
+
+  /**
+   * Stops polling all jobs. Polls in progress are interrupted.
+   */
+  @Override
+  public void close() {
+    for (WatchedJob job : jobs.values()) {
+      job.unwatched = true;
+    }
+    jobs.clear();
+    executor.shutdownNow();
+  }
+
+  private void schedule(WatchedJob job, long delayMillis) {
+    if (executor.isShutdown()) {
+      return;
+    }
+    executor.schedule(job, delayMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Computes the delay before the next poll of a job as a fraction of its estimated remaining time.
+   * The remaining time is extrapolated from the time the job has been watched and its progress. A
+   * job which hasn't made progress yet is assumed to take as long again as it has been watched.
+   *
+   * @param state last state polled for the job.
+   * @param watchedSince time at which the job started being watched.
+   * @param now current time.
+   * @param minIntervalMillis minimum delay.
+   * @param maxIntervalMillis maximum delay.
+   * @return delay in milliseconds before the next poll.
+   */
+  static long nextDelay(MapReduceJobState state, long watchedSince, long now,
+      long minIntervalMillis, long maxIntervalMillis) {
+    double progress = getProgress(state);
+    long elapsedMillis = Math.max(0, now - watchedSince);
+    double remainingMillis = progress > 0
+        ? elapsedMillis * (1 - progress) / progress
+        : elapsedMillis;
+    long delayMillis = (long) (remainingMillis / POLLS_PER_REMAINING_TIME);
+    return Math.min(Math.max(minIntervalMillis, delayMillis), maxIntervalMillis);
+  }
+
+  /**
+   * @return overall progress of a job between 0 and 1, weighting maps and reduces equally when the
+   * job has reducers.
+   */
+  private static double getProgress(MapReduceJobState state) {
+    double mapProgress = Math.min(Math.max(0, state.getMapProgress()), 1);
+    if (state.getTotalReducers() == 0) {
+      return mapProgress;
+    }
+    double reduceProgress = Math.min(Math.max(0, state.getReduceProgress()), 1);
+    return (mapProgress + reduceProgress) / 2;
+  }
+}
@@ -15,15 +15,13 @@ limitations under the License.
  */
 package com.twitter.ambrose.model.hadoop;
 
-import java.io.InputStream;
+import java.io.IOException;
 import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FileSystem;
-import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.JobClient;
 import org.apache.hadoop.mapred.JobID;
 import org.apache.hadoop.mapred.RunningJob;
@@ -39,24 +37,103 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class MapReduceHelper {
 
   private static final Log LOG = LogFactory.getLog(MapReduceHelper.class);
+  /**
+   * Smallest change in map or reduce progress reported by the progress tier of {@link
+   * #pollMapReduceJobState}.
+   */
+  private static final float PROGRESS_DELTA = 0.001f;
+
+  private JobConfLoader jobConfLoader;
 
-  private RunningJob getRunningJob(MapReduceJob job, JobClient jobClient) throws Exception {
-    RunningJob runningJob = jobClient.getJob(JobID.forName(job.getId()));
+  private RunningJob getRunningJob(String jobId, JobClient jobClient) throws Exception {
+    RunningJob runningJob = jobClient.getJob(JobID.forName(jobId));
     if (runningJob == null) {
-      throw new Exception(String.format("Failed to retrieve job with id '%s'", job.getId()));
+      throw new Exception(String.format("Failed to retrieve job with id '%s'", jobId));
     }
     return runningJob;
   }
 
-  private MapReduceJobState getMapReduceJobState(MapReduceJob job, JobClient jobClient)
+  private MapReduceJobState getMapReduceJobState(String jobId, JobClient jobClient)
       throws Exception {
-    RunningJob runningJob = getRunningJob(job, jobClient);
+    return getMapReduceJobState(getRunningJob(jobId, jobClient), jobClient);
+  }
+
+  private MapReduceJobState getMapReduceJobState(RunningJob runningJob, JobClient jobClient)
+      throws IOException {
     JobID jobID = runningJob.getID();
     TaskReport[] mapTaskReport = jobClient.getMapTaskReports(jobID);
     TaskReport[] reduceTaskReport = jobClient.getReduceTaskReports(jobID);
     return new MapReduceJobState(runningJob, mapTaskReport, reduceTaskReport);
   }
 
+  /**
+   * Polls the state of a job in one of two tiers. The full tier fetches the task reports of the
+   * job, which hold one entry per task and are used to count finished tasks and find the job's
+   * start and last update times. The progress tier only reads the progress and completion of the
+   * job from runningJob, keeping the task counts and times of previous.
+   * <p/>
+   * The full tier is used when fetchTaskReports is true, when there is no previous state, and when
+   * the job has just completed, so that the final state of a job always has exact task counts.
+   * <p/>
+   * Whenever a new state is returned, the counters of the job are also read into it, so that
+   * frameworks which only collect counters once a job has finished can report them while it runs.
+   *
+   * @param runningJob job whose state should be polled.
+   * @param jobClient client with which to retrieve task reports.
+   * @param previous state last polled for the job, or null.
+   * @param fetchTaskReports whether to fetch task reports even if the job hasn't completed.
+   * @return a new state, or previous itself if the progress tier found no change.
+   * @throws IOException if the state of the job could not be retrieved.
+   */
+  public MapReduceJobState pollMapReduceJobState(RunningJob runningJob, JobClient jobClient,
+      MapReduceJobState previous, boolean fetchTaskReports) throws IOException {
+    if (previous == null || fetchTaskReports) {
+      return withCounters(getMapReduceJobState(runningJob, jobClient), runningJob);
+    }
+    boolean complete = runningJob.isComplete();
+    if (complete && !previous.isComplete()) {
+      return withCounters(getMapReduceJobState(runningJob, jobClient), runningJob);
+    }
+    boolean successful = runningJob.isSuccessful();
+    float mapProgress = runningJob.mapProgress();
+    float reduceProgress = runningJob.reduceProgress();
+    if (previous.isComplete() == complete
+        && previous.isSuccessful() == successful
+        && Math.abs(previous.getMapProgress() - mapProgress) < PROGRESS_DELTA
+        && Math.abs(previous.getReduceProgress() - reduceProgress) < PROGRESS_DELTA) {
+      return previous;
+    }
+    MapReduceJobState state = new MapReduceJobState(previous);
+    state.setComplete(complete);
+    state.setSuccessful(successful);
+    state.setMapProgress(mapProgress);
+    state.setReduceProgress(reduceProgress);
+    state.setJobLastUpdateTime(System.currentTimeMillis());
+    return withCounters(state, runningJob);
+  }
+
+  private static MapReduceJobState withCounters(MapReduceJobState state, RunningJob runningJob)
+      throws IOException {
+    state.setCounters(runningJob.getCounters());
+    return state;
+  }
+
+  /**
+   * Decides whether the next poll of a job should fetch its task reports.
+   *
+   * @param previous state last polled for the job, or null.
+   * @param taskReportsTime time at which task reports were last fetched.
+   * @param now current time.
+   * @param taskReportsIntervalMillis minimum delay between fetches of task reports, or a negative
+   * value to only fetch them when the job starts and completes.
+   * @return true if task reports should be fetched.
+   */
+  public static boolean shouldFetchTaskReports(MapReduceJobState previous, long taskReportsTime,
+      long now, long taskReportsIntervalMillis) {
+    return previous == null
+        || (taskReportsIntervalMillis >= 0 && now - taskReportsTime >= taskReportsIntervalMillis);
+  }
+
   /**
    * Sets the mapreduce statistics by querying the jobtracker. This method only sets the mapreduce
    * statistics if they are queried successfully.
@@ -66,35 +143,76 @@ public class MapReduceHelper {
    */
   public void addMapReduceJobState(MapReduceJob job, JobClient jobClient) {
     try {
-      job.setMapReduceJobState(getMapReduceJobState(job, jobClient));
+      job.setMapReduceJobState(getMapReduceJobState(job.getId(), jobClient));
     } catch (Exception e) {
       LOG.warn("Failed to retrieve job state", e);
     }
   }
 
+  /**
+   * Sets the mapreduce statistics last polled by poller, and the counters polled with them, without
+   * querying the jobtracker. The job must have been watched by poller.
+   *
+   * @param job job whose state should be set.
+   * @param poller poller from which to read the job's state.
+   * @return true if the job's state was updated, false if poller has no state for the job or the
+   * job already has the last polled state.
+   */
+  public boolean setPolledMapReduceJobState(MapReduceJob job, JobStatePoller poller) {
+    MapReduceJobState state = poller.getJobState(job.getId());
+    if (state == null || state == job.getMapReduceJobState()) {
+      return false;
+    }
+    job.setMapReduceJobState(state);
+    if (state.getCounters() != null) {
+      job.setCounters(state.getCounters());
+    }
+    return true;
+  }
+
+  /**
+   * Creates a source of job states which queries the jobtracker, for use with a {@link
+   * JobStatePoller}.
+   *
+   * @param jobClient client with which to retrieve job stats.
+   * @return source of job states.
+   */
+  public JobStatePoller.JobStateSource newJobStateSource(final JobClient jobClient) {
+    checkNotNull(jobClient);
+    return new JobStatePoller.JobStateSource() {
+      @Override
+      public MapReduceJobState getJobState(String jobId, MapReduceJobState previous,
+          boolean fetchTaskReports) throws Exception {
+        return pollMapReduceJobState(
+            getRunningJob(jobId, jobClient), jobClient, previous, fetchTaskReports);
+      }
+    };
+  }
+
   /**
    * Get the configurations at the beginning of the job flow, it will contain information about the
-   * map/reduce plan and decoded pig script.
+   * map/reduce plan and decoded pig script. Configurations are loaded through a {@link
+   * JobConfLoader} shared by the calls made on this helper.
    *
    * @param job job whose configuration should be fetched.
    * @param jobClient client with which to retrieve job configuration.
    */
   public void setJobConfFromFile(MapReduceJob job, JobClient jobClient) {
     try {
-      RunningJob runningJob = getRunningJob(job, jobClient);
-      String jobFile = runningJob.getJobFile();
-      LOG.info(String.format("Loading RunningJob configuration file '%s'", jobFile));
-      Path path = new Path(jobFile);
-      FileSystem fileSystem = FileSystem.get(new Configuration());
-      InputStream inputStream = fileSystem.open(path);
-      Configuration conf = new Configuration(false);
-      conf.addResource(inputStream);
-      job.setConfiguration(toProperties(conf));
+      RunningJob runningJob = getRunningJob(job.getId(), jobClient);
+      job.setConfiguration(getJobConfLoader().getJobConf(runningJob.getJobFile()));
     } catch (Exception e) {
       LOG.warn("Error occurred when retrieving configuration info", e);
     }
   }
 
+  private synchronized JobConfLoader getJobConfLoader() {
+    if (jobConfLoader == null) {
+      jobConfLoader = new JobConfLoader();
+    }
+    return jobConfLoader;
+  }
+
   /**
    * Converts properties to configuration.
    *
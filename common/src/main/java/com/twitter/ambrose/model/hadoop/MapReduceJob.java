@@ -20,10 +20,13 @@ import java.util.Map;
 import javax.annotation.Nullable;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
 import com.google.common.collect.Maps;
 
+import org.apache.hadoop.mapred.Counters;
+
 import com.twitter.ambrose.model.Job;
 
 /**
@@ -37,6 +40,7 @@ import com.twitter.ambrose.model.Job;
 public class MapReduceJob extends Job {
   private MapReduceJobState mapReduceJobState;
   private Map<String, CounterGroup> counterGroupMap;
+  private CounterValues counterValues = CounterValues.EMPTY;
 
   public MapReduceJob() {
     super();
@@ -50,6 +54,7 @@ public class MapReduceJob extends Job {
     super();
     this.mapReduceJobState = mapReduceJobState;
     this.counterGroupMap = counterGroupMap;
+    this.counterValues = CounterValues.of(counterGroupMap);
   }
 
   public MapReduceJobState getMapReduceJobState() {
@@ -67,9 +72,30 @@ public class MapReduceJob extends Job {
 
   public void setCounterGroupMap(Map<String, CounterGroup> counterGroupMap) {
     this.counterGroupMap = counterGroupMap;
+    this.counterValues = CounterValues.of(counterGroupMap);
     updateMetrics();
   }
 
+  /**
+   * Sets counter groups from Hadoop counters, reading the common counters in the same pass.
+   *
+   * @param counters counters.
+   */
+  @JsonIgnore
+  public void setCounters(Counters counters) {
+    this.counterGroupMap = CounterGroup.counterGroupsByName(counters);
+    this.counterValues = CounterValues.of(counters);
+    updateMetrics();
+  }
+
+  /**
+   * @return values of the common counters in this job's counter groups.
+   */
+  @JsonIgnore
+  public CounterValues getCounterValues() {
+    return counterValues;
+  }
+
   @Nullable
   public CounterGroup getCounterGroup(String name) {
     return counterGroupMap == null ? null : counterGroupMap.get(name);
@@ -77,20 +103,7 @@ public class MapReduceJob extends Job {
 
   @Nullable
   public Long getCounterValue(CounterId counterId) {
-    CounterGroup counterGroup = null;
-    for (String name : counterId.counterGroupId.groupNames) {
-      counterGroup = getCounterGroup(name);
-      if (counterGroup != null) {
-        break;
-      }
-    }
-    if (counterGroup != null) {
-      CounterInfo counterInfo = counterGroup.getCounterInfo(counterId.name());
-      if (counterInfo != null) {
-        return counterInfo.getValue();
-      }
-    }
-    return null;
+    return counterValues.contains(counterId) ? counterValues.get(counterId) : null;
   }
 
   /**
@@ -111,13 +124,6 @@ public class MapReduceJob extends Job {
       metrics.put("REDUCE_TASK_COUNT", totalReducers);
     }
 
-    if (counterGroupMap != null) {
-      for (CounterId counterId : CounterId.values()) {
-        Long value = getCounterValue(counterId);
-        if (value != null) {
-          getMetrics().put(counterId.name(), value);
-        }
-      }
-    }
+    counterValues.putAll(metrics);
   }
 }
@@ -3,7 +3,9 @@ package com.twitter.ambrose.model.hadoop;
 import java.io.IOException;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import org.apache.hadoop.mapred.Counters;
 import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.TIPStatus;
 import org.apache.hadoop.mapred.TaskReport;
@@ -25,11 +27,34 @@ public class MapReduceJobState {
   private int finishedMappersCount;
   private int totalReducers;
   private int finishedReducersCount;
+  private Counters counters;
 
   @JsonCreator
   public MapReduceJobState() {
   }
 
+  /**
+   * Creates a copy of state.
+   *
+   * @param state state to copy.
+   */
+  public MapReduceJobState(MapReduceJobState state) {
+    jobId = state.jobId;
+    jobName = state.jobName;
+    trackingURL = state.trackingURL;
+    isComplete = state.isComplete;
+    isSuccessful = state.isSuccessful;
+    mapProgress = state.mapProgress;
+    reduceProgress = state.reduceProgress;
+    jobStartTime = state.jobStartTime;
+    jobLastUpdateTime = state.jobLastUpdateTime;
+    totalMappers = state.totalMappers;
+    finishedMappersCount = state.finishedMappersCount;
+    totalReducers = state.totalReducers;
+    finishedReducersCount = state.finishedReducersCount;
+    counters = state.counters;
+  }
+
   public MapReduceJobState(
       RunningJob runningJob,
       TaskReport[] mapTaskReport,
@@ -73,6 +98,20 @@ public class MapReduceJobState {
     }
   }
 
+  /**
+   * @return counters of the job read along with this state, or null. They aren't serialized with
+   * the state, since jobs hold their counters in their counter groups.
+   */
+  @JsonIgnore
+  public Counters getCounters() {
+    return counters;
+  }
+
+  @JsonIgnore
+  public void setCounters(Counters counters) {
+    this.counters = counters;
+  }
+
   public String getJobId() {
     return jobId;
   }
@@ -1,6 +1,7 @@
 package com.twitter.ambrose.server;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Collection;
 import java.util.Map;
 
@@ -8,7 +9,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.BaseEncoding;
 
@@ -18,14 +19,28 @@ import org.mortbay.jetty.handler.AbstractHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.twitter.ambrose.model.CriticalPath;
 import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowGraph;
+import com.twitter.ambrose.model.WorkflowState;
 import com.twitter.ambrose.model.WorkflowSummary;
 import com.twitter.ambrose.model.WorkflowSummary.Status;
+import com.twitter.ambrose.model.hadoop.CounterRates;
+import com.twitter.ambrose.service.ConfigurationReadService;
+import com.twitter.ambrose.service.CounterRatesReadService;
+import com.twitter.ambrose.service.CriticalPathReadService;
+import com.twitter.ambrose.service.EncodedEventReadService;
+import com.twitter.ambrose.service.EventNotificationService;
+import com.twitter.ambrose.service.EventsEvictedException;
 import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.WorkflowGraphReadService;
 import com.twitter.ambrose.service.WorkflowIndexReadService;
+import com.twitter.ambrose.service.WorkflowStateReadService;
+import com.twitter.ambrose.util.ConfigurationStore;
 import com.twitter.ambrose.util.JSONUtil;
 
 /**
@@ -36,11 +51,54 @@ import com.twitter.ambrose.util.JSONUtil;
 public class APIHandler extends AbstractHandler {
   private static void sendJson(HttpServletRequest request,
       HttpServletResponse response, Object object) throws IOException {
-    JSONUtil.writeJson(response.getWriter(), object);
+    JSONUtil.writeCompactJson(response.getWriter(), object);
     response.getWriter().close();
     setHandled(request);
   }
 
+  /**
+   * Writes object as JSON, writing the configurations of jobs as references into store.
+   */
+  private static void sendJson(HttpServletRequest request,
+      HttpServletResponse response, Object object, ConfigurationStore store) throws IOException {
+    JSONUtil.writeCompactJson(response.getWriter(), object, store);
+    response.getWriter().close();
+    setHandled(request);
+  }
+
+  /**
+   * Parks the request until events newer than lastEventId exist or waitMillis elapses.
+   */
+  private static void awaitEvents(EventNotificationService notificationService,
+      String workflowId, int lastEventId, int waitMillis) throws IOException {
+    try {
+      notificationService.awaitEventsSinceId(workflowId, lastEventId, waitMillis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Writes pre-encoded events as a JSON array, copying their bytes directly to the response.
+   */
+  private static void sendEncodedEvents(HttpServletRequest request,
+      HttpServletResponse response, Collection<EncodedEvent> events) throws IOException {
+    response.setCharacterEncoding(Charsets.UTF_8.name());
+    OutputStream out = response.getOutputStream();
+    out.write('[');
+    boolean first = true;
+    for (EncodedEvent event : events) {
+      if (!first) {
+        out.write(',');
+      }
+      event.writeTo(out);
+      first = false;
+    }
+    out.write(']');
+    out.close();
+    setHandled(request);
+  }
+
   private static void setHandled(HttpServletRequest request) {
     Request base_request = (request instanceof Request) ?
         (Request) request : HttpConnection.getCurrentConnection().getRequest();
@@ -97,6 +155,14 @@ public class APIHandler extends AbstractHandler {
   private static final String QUERY_PARAM_WORKFLOW_ID = "workflowId";
   private static final String QUERY_PARAM_LAST_EVENT_ID = "lastEventId";
   private static final String QUERY_PARAM_MAX_EVENTS = "maxEvents";
+  private static final String QUERY_PARAM_WAIT_MILLIS = "waitMillis";
+  private static final String QUERY_PARAM_JOB_NAME = "jobName";
+  private static final String QUERY_PARAM_HASH = "hash";
+  private static final String HEADER_LONG_POLL = "X-Ambrose-Long-Poll";
+  private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+  // configurations are addressed by the hash of their content, so never change
+  private static final String CACHE_CONTROL_IMMUTABLE = "public, max-age=31536000";
+  private static final int MAX_WAIT_MILLIS = 30000;
   private static final String MIME_TYPE_HTML = "text/html";
   private static final String MIME_TYPE_JSON = "application/json";
   private WorkflowIndexReadService workflowIndexReadService;
@@ -138,16 +204,30 @@ public class APIHandler extends AbstractHandler {
       String workflowId = normalize(request.getParameter(QUERY_PARAM_WORKFLOW_ID));
 
       LOG.info("Submitted request for workflowId={}", workflowId);
-      Map<String, DAGNode<Job>> dagNodeNameMap =
-          statsReadService.getDagNodeNameMap(workflowId);
-      Collection<DAGNode<Job>> nodes = Lists.newArrayList();
-      if (dagNodeNameMap != null) {
-        nodes = dagNodeNameMap.values();
+      // a WorkflowGraph is serialized as the array of its nodes
+      Object nodes = new DAGNode[0];
+      if (statsReadService instanceof WorkflowGraphReadService) {
+        WorkflowGraph<?> graph =
+            ((WorkflowGraphReadService<?>) statsReadService).getWorkflowGraph(workflowId);
+        if (graph != null) {
+          nodes = graph;
+        }
+      } else {
+        Map<String, DAGNode<Job>> dagNodeNameMap =
+            statsReadService.getDagNodeNameMap(workflowId);
+        if (dagNodeNameMap != null) {
+          nodes = dagNodeNameMap.values().toArray(new DAGNode[dagNodeNameMap.size()]);
+        }
       }
 
       response.setContentType(MIME_TYPE_JSON);
       response.setStatus(HttpServletResponse.SC_OK);
-      sendJson(request, response, nodes.toArray(new DAGNode[nodes.size()]));
+      if (statsReadService instanceof ConfigurationReadService) {
+        sendJson(request, response, nodes,
+            ((ConfigurationReadService) statsReadService).getConfigurationStore());
+      } else {
+        sendJson(request, response, nodes);
+      }
 
     } else if (target.endsWith("/events")) {
       String lastEventIdParam = normalize(request.getParameter(QUERY_PARAM_LAST_EVENT_ID));
@@ -155,12 +235,119 @@ public class APIHandler extends AbstractHandler {
       
       Integer maxEvents = getInt(request.getParameter(QUERY_PARAM_MAX_EVENTS), -1);
 
-      Collection<Event> events = statsReadService
-          .getEventsSinceId(request.getParameter(QUERY_PARAM_WORKFLOW_ID), lastEventId, maxEvents);
+      String workflowId = request.getParameter(QUERY_PARAM_WORKFLOW_ID);
+      int waitMillis = Math.min(getInt(request.getParameter(QUERY_PARAM_WAIT_MILLIS), 0),
+          MAX_WAIT_MILLIS);
 
-      response.setContentType(MIME_TYPE_JSON);
-      response.setStatus(HttpServletResponse.SC_OK);
-      sendJson(request, response, events.toArray(new Event[events.size()]));
+      if (statsReadService instanceof EventNotificationService) {
+        // advertise that this server parks requests, so clients can stop polling on an interval
+        response.setHeader(HEADER_LONG_POLL, Boolean.TRUE.toString());
+        if (waitMillis > 0) {
+          awaitEvents((EventNotificationService) statsReadService, workflowId, lastEventId,
+              waitMillis);
+        }
+      }
+
+      try {
+        if (statsReadService instanceof EncodedEventReadService) {
+          Collection<EncodedEvent> events = ((EncodedEventReadService) statsReadService)
+              .getEncodedEventsSinceId(workflowId, lastEventId, maxEvents);
+
+          response.setContentType(MIME_TYPE_JSON);
+          response.setStatus(HttpServletResponse.SC_OK);
+          sendEncodedEvents(request, response, events);
+        } else {
+          Collection<Event> events =
+              statsReadService.getEventsSinceId(workflowId, lastEventId, maxEvents);
+
+          response.setContentType(MIME_TYPE_JSON);
+          response.setStatus(HttpServletResponse.SC_OK);
+          sendJson(request, response, events.toArray(new Event[events.size()]));
+        }
+      } catch (EventsEvictedException e) {
+        // client has missed events and must resync from the start
+        LOG.info(e.getMessage());
+        response.sendError(HttpServletResponse.SC_GONE, e.getMessage());
+        setHandled(request);
+      }
+
+    } else if (target.endsWith("/state")) {
+      String workflowId = normalize(request.getParameter(QUERY_PARAM_WORKFLOW_ID));
+
+      LOG.info("Submitted state request for workflowId={}", workflowId);
+      WorkflowState workflowState = null;
+      if (statsReadService instanceof WorkflowStateReadService) {
+        workflowState =
+            ((WorkflowStateReadService) statsReadService).getWorkflowState(workflowId);
+      }
+      if (workflowState != null) {
+        response.setContentType(MIME_TYPE_JSON);
+        response.setStatus(HttpServletResponse.SC_OK);
+        sendJson(request, response, workflowState);
+      } else {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND,
+            "No state for workflow " + workflowId);
+        setHandled(request);
+      }
+
+    } else if (target.endsWith("/criticalPath")) {
+      String workflowId = normalize(request.getParameter(QUERY_PARAM_WORKFLOW_ID));
+
+      LOG.info("Submitted critical path request for workflowId={}", workflowId);
+      CriticalPath criticalPath = null;
+      if (statsReadService instanceof CriticalPathReadService) {
+        criticalPath =
+            ((CriticalPathReadService) statsReadService).getCriticalPath(workflowId);
+      }
+      if (criticalPath != null) {
+        response.setContentType(MIME_TYPE_JSON);
+        response.setStatus(HttpServletResponse.SC_OK);
+        sendJson(request, response, criticalPath);
+      } else {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND,
+            "No critical path for workflow " + workflowId);
+        setHandled(request);
+      }
+
+    } else if (target.endsWith("/rates")) {
+      String workflowId = normalize(request.getParameter(QUERY_PARAM_WORKFLOW_ID));
+      String jobName = normalize(request.getParameter(QUERY_PARAM_JOB_NAME));
+
+      LOG.info("Submitted counter rates request for workflowId={}, jobName={}",
+          workflowId, jobName);
+      CounterRates counterRates = null;
+      if (statsReadService instanceof CounterRatesReadService && jobName != null) {
+        counterRates =
+            ((CounterRatesReadService) statsReadService).getCounterRates(workflowId, jobName);
+      }
+      if (counterRates != null) {
+        response.setContentType(MIME_TYPE_JSON);
+        response.setStatus(HttpServletResponse.SC_OK);
+        sendJson(request, response, counterRates);
+      } else {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND,
+            "No counter rates for job " + jobName + " of workflow " + workflowId);
+        setHandled(request);
+      }
+
+    } else if (target.endsWith("/config")) {
+      String hash = normalize(request.getParameter(QUERY_PARAM_HASH));
+
+      LOG.info("Submitted configuration request for hash={}", hash);
+      Map<String, String> configuration = null;
+      if (statsReadService instanceof ConfigurationReadService && hash != null) {
+        configuration =
+            ((ConfigurationReadService) statsReadService).getConfigurationStore().get(hash);
+      }
+      if (configuration != null) {
+        response.setContentType(MIME_TYPE_JSON);
+        response.setHeader(HEADER_CACHE_CONTROL, CACHE_CONTROL_IMMUTABLE);
+        response.setStatus(HttpServletResponse.SC_OK);
+        sendJson(request, response, configuration);
+      } else {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND, "No configuration with hash " + hash);
+        setHandled(request);
+      }
 
     } else if (target.endsWith(".html")) {
       response.setContentType(MIME_TYPE_HTML);
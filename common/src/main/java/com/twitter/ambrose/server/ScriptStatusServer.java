@@ -47,7 +47,22 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *     <li><code>/clusters</code> - Returns map from cluster id to name.</li>
  *     <li><code>/workflows</code> - Returns workflow summaries.</li>
  *     <li><code>/jobs</code> - Returns a workflow's jobs.</li>
- *     <li><code>/events</code> - Returns all workflow events.</li>
+ *     <li><code>/events</code> - Returns at most <code>maxEvents</code> workflow events after
+ *     <code>lastEventId</code>. If <code>waitMillis</code> is given and the stats service supports
+ *     it, the request is held until a newer event exists or the wait elapses (long polling).
+ *     Responds with 410 Gone if events after <code>lastEventId</code> have been evicted, in which
+ *     case the client must reload the workflow's state.</li>
+ *     <li><code>/state</code> - Returns the current state of workflow <code>workflowId</code>:
+ *     the latest event of each job and of the workflow's progress, and the id of the last event
+ *     it reflects. Responds with 404 if the stats service doesn't provide it.</li>
+ *     <li><code>/criticalPath</code> - Returns the critical path of workflow
+ *     <code>workflowId</code> as of the events pushed so far. Responds with 404 if the stats
+ *     service doesn't provide it.</li>
+ *     <li><code>/rates</code> - Returns the counter rates of job <code>jobName</code> of workflow
+ *     <code>workflowId</code>. Responds with 404 if the stats service doesn't provide them.</li>
+ *     <li><code>/config</code> - Returns the job configuration stored under <code>hash</code>, as
+ *     referenced by the <code>configurationHash</code> of jobs. Responds with 404 if no such
+ *     configuration is stored.</li>
  *   </ul>
  * </pre>
  */
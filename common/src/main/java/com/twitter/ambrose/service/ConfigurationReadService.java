@@ -0,0 +1,32 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import com.twitter.ambrose.util.ConfigurationStore;
+
+/**
+ * Optional extension of {@link StatsReadService} for implementations which write the
+ * configurations of jobs as references into a {@link ConfigurationStore}. The DAG and events they
+ * serve then hold a <code>configurationHash</code> and <code>configurationDiff</code> in place of
+ * each job's <code>configuration</code>, and the referenced configurations are read from the store.
+ */
+public interface ConfigurationReadService {
+
+  /**
+   * @return the store holding the configurations referenced by the jobs this service serves.
+   */
+  ConfigurationStore getConfigurationStore();
+}
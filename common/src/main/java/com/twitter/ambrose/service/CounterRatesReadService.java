@@ -0,0 +1,37 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+import com.twitter.ambrose.model.hadoop.CounterRates;
+
+/**
+ * Optional extension of {@link StatsReadService} for implementations which sample the counters of
+ * jobs as they progress.
+ */
+public interface CounterRatesReadService {
+
+  /**
+   * Get the rates of the sampled counters of a job.
+   *
+   * @param workflowId the id of the workflow being accessed
+   * @param jobName the name of the DAG node of the job
+   * @return the counter rates, or null if the job has no samples
+   * @throws IOException
+   */
+  CounterRates getCounterRates(String workflowId, String jobName) throws IOException;
+}
@@ -0,0 +1,42 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.twitter.ambrose.model.EncodedEvent;
+
+/**
+ * Optional extension of {@link StatsReadService} for implementations which hold events in encoded
+ * form. Callers which only forward events as JSON, such as the HTTP API, can use this to avoid
+ * decoding each event into an object graph and encoding it again.
+ */
+public interface EncodedEventReadService {
+
+  /**
+   * Get encoded events for a given workflow since eventId. To get the entire list of events, pass a
+   * negative eventId.
+   *
+   * @param workflowId the id of the workflow being accessed
+   * @param eventId the eventId that all returned events will be greater than
+   * @param maxEvents maximum number of events returned. Non-positive values mean no limit.
+   * @return a Collection of encoded events, ordered by eventId ascending, upto maxEvents in number
+   * @throws IOException
+   */
+  Collection<EncodedEvent> getEncodedEventsSinceId(String workflowId, int eventId, int maxEvents)
+      throws IOException;
+}
@@ -0,0 +1,39 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+/**
+ * Optional extension of {@link StatsReadService} for implementations which are notified as events
+ * are pushed. Lets callers park until new events exist rather than polling on a fixed interval.
+ */
+public interface EventNotificationService {
+
+  /**
+   * Blocks until the workflow has an event with id greater than eventId, or until timeoutMillis
+   * elapses.
+   *
+   * @param workflowId the id of the workflow being accessed
+   * @param eventId return once an event with an id greater than this one exists
+   * @param timeoutMillis maximum time to wait, in milliseconds
+   * @return true if such an event exists, false if the wait timed out.
+   * @throws IOException
+   * @throws InterruptedException if the calling thread is interrupted while waiting
+   */
+  boolean awaitEventsSinceId(String workflowId, int eventId, long timeoutMillis)
+      throws IOException, InterruptedException;
+}
@@ -0,0 +1,50 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link StatsReadService#getEventsSinceId} when events newer than the requested event id
+ * have been evicted from storage, so the caller can no longer incrementally catch up. Callers should
+ * resync by requesting all events again (i.e. with a negative event id).
+ */
+public class EventsEvictedException extends IOException {
+  private static final long serialVersionUID = 1L;
+  private final int requestedEventId;
+  private final int lastEvictedEventId;
+
+  public EventsEvictedException(int requestedEventId, int lastEvictedEventId) {
+    super(String.format("Events since id %d are no longer available; events up to id %d have been"
+        + " evicted", requestedEventId, lastEvictedEventId));
+    this.requestedEventId = requestedEventId;
+    this.lastEvictedEventId = lastEvictedEventId;
+  }
+
+  /**
+   * @return the event id the caller asked to read from.
+   */
+  public int getRequestedEventId() {
+    return requestedEventId;
+  }
+
+  /**
+   * @return the largest id of an evicted event the caller has not yet seen.
+   */
+  public int getLastEvictedEventId() {
+    return lastEvictedEventId;
+  }
+}
@@ -0,0 +1,39 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowGraph;
+
+/**
+ * Optional extension of {@link StatsReadService} for implementations which hold the DAG of a
+ * workflow as a {@link WorkflowGraph}, built once rather than on each request. Callers which
+ * traverse the DAG or send it as JSON, such as the HTTP API, should prefer this to
+ * {@link StatsReadService#getDagNodeNameMap}.
+ */
+public interface WorkflowGraphReadService<T extends Job> {
+
+  /**
+   * Get the graph of all DAGNodes in the workflow.
+   *
+   * @param workflowId the id of the workflow being fetched
+   * @return the graph of the workflow, or null if the workflow does not exist
+   * @throws IOException
+   */
+  WorkflowGraph<T> getWorkflowGraph(String workflowId) throws IOException;
+}
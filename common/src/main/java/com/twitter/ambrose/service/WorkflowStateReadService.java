@@ -0,0 +1,36 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service;
+
+import java.io.IOException;
+
+import com.twitter.ambrose.model.WorkflowState;
+
+/**
+ * Optional extension of {@link StatsReadService} for implementations which can provide the
+ * current state of a workflow without the caller replaying all of its events.
+ */
+public interface WorkflowStateReadService {
+
+  /**
+   * Get the current state of the workflow.
+   *
+   * @param workflowId the id of the workflow being accessed
+   * @return the state as of the last event, or null if the workflow does not exist
+   * @throws IOException
+   */
+  WorkflowState getWorkflowState(String workflowId) throws IOException;
+}
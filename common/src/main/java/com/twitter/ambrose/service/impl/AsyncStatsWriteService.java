@@ -0,0 +1,448 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * StatsWriteService decorator which moves writes off the caller's thread. Calls to {@link
+ * #sendDagNodeNameMap} and {@link #pushEvent} are queued in a bounded buffer and drained in batches,
+ * in the order they were made, by a single background thread which forwards them to the delegate.
+ * This keeps a slow backend from delaying the framework callbacks (Pig's
+ * <code>progressUpdatedNotification</code>, Cascading's <code>onStepRunning</code>, Hive's
+ * <code>ClientStatsPublisher</code>) which push events.
+ * <p/>
+ * When the buffer is full, <code>JOB_PROGRESS</code> and <code>WORKFLOW_PROGRESS</code> events are
+ * handled according to the configured {@link OverflowPolicy}. All other writes (DAGs and terminal
+ * events such as <code>JOB_STARTED</code>, <code>JOB_FINISHED</code> and <code>JOB_FAILED</code>)
+ * take priority: they are always queued immediately, even beyond capacity, and never dropped. There
+ * are only a handful of them per job, so they can't grow the buffer without bound.
+ * <p/>
+ * Events and DAGs are serialized on the caller's thread when they are queued, since frameworks keep
+ * mutating their jobs while earlier writes wait in the buffer. The writer thread decodes them and
+ * forwards the copies, so the delegate sees the state at the time of the call, and never a job
+ * being modified by the framework.
+ * <p/>
+ * {@link #flush} blocks until all queued writes have been forwarded to the delegate, and should be
+ * called when a workflow completes and before reading back from the delegate directly. {@link
+ * #initWriteService} flushes then calls the delegate on the caller's thread.
+ * <p/>
+ * Framework integrations wrap their StatsWriteService using {@link #wrapIfEnabled}, which is
+ * configured with the following system properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #ENABLED_PARAM}</code> - set to true to write asynchronously. Defaults to
+ *     false.</li>
+ *     <li><code>{@value #CAPACITY_PARAM}</code> - maximum number of queued writes. Defaults to
+ *     {@value #CAPACITY_DEFAULT}.</li>
+ *     <li><code>{@value #BATCH_SIZE_PARAM}</code> - maximum number of writes drained from the
+ *     buffer at once. Defaults to {@value #BATCH_SIZE_DEFAULT}.</li>
+ *     <li><code>{@value #OVERFLOW_POLICY_PARAM}</code> - one of <code>BLOCK</code>,
+ *     <code>DROP_OLDEST_PROGRESS</code> or <code>COALESCE</code>. Defaults to
+ *     <code>COALESCE</code>.</li>
+ *   </ul>
+ * </pre>
+ */
+public class AsyncStatsWriteService<T extends Job>
+    implements StatsWriteService<T>, Flushable, Closeable {
+  private static final Logger LOG = LoggerFactory.getLogger(AsyncStatsWriteService.class);
+
+  /**
+   * Name of system property used to enable asynchronous writes.
+   */
+  public static final String ENABLED_PARAM = "ambrose.write.async";
+  /**
+   * Name of system property used to configure the maximum number of queued writes.
+   */
+  public static final String CAPACITY_PARAM = "ambrose.write.async.capacity";
+  /**
+   * Name of system property used to configure the maximum number of writes drained at once.
+   */
+  public static final String BATCH_SIZE_PARAM = "ambrose.write.async.batch.size";
+  /**
+   * Name of system property used to configure the {@link OverflowPolicy}.
+   */
+  public static final String OVERFLOW_POLICY_PARAM = "ambrose.write.async.overflow.policy";
+  public static final int CAPACITY_DEFAULT = 10000;
+  public static final int BATCH_SIZE_DEFAULT = 100;
+  private static final long CLOSE_TIMEOUT_SECS = 5;
+  private static final String THREAD_NAME = "ambrose-async-stats-writer";
+
+  /**
+   * What to do with a progress event pushed while the buffer is full.
+   */
+  public static enum OverflowPolicy {
+    /**
+     * Block the caller until there is room in the buffer.
+     */
+    BLOCK,
+    /**
+     * Drop the oldest queued progress event.
+     */
+    DROP_OLDEST_PROGRESS,
+    /**
+     * Drop the queued progress event for the same node (or workflow) as the new event, since the
+     * new event carries newer state. If there is none, drop the oldest queued progress event.
+     */
+    COALESCE
+  }
+
+  /**
+   * A queued call to the delegate, holding either an encoded event or an encoded DAG.
+   */
+  private static final class Write {
+    private final String workflowId;
+    private final EncodedEvent event;
+    private final byte[] dagNodeNameMapJson;
+
+    private Write(String workflowId, EncodedEvent event, byte[] dagNodeNameMapJson) {
+      this.workflowId = workflowId;
+      this.event = event;
+      this.dagNodeNameMapJson = dagNodeNameMapJson;
+    }
+
+    private boolean isProgress() {
+      if (event == null) {
+        return false;
+      }
+      Event.Type type = event.getType();
+      return type == Event.Type.JOB_PROGRESS || type == Event.Type.WORKFLOW_PROGRESS;
+    }
+
+    /**
+     * Returns true if this write is a progress event superseded by the given progress event.
+     */
+    private boolean isSupersededBy(Write other) {
+      if (!isProgress() || event.getType() != other.event.getType()
+          || !Objects.equal(workflowId, other.workflowId)) {
+        return false;
+      }
+      return Objects.equal(event.getNodeName(), other.event.getNodeName());
+    }
+  }
+
+  private final StatsWriteService<T> delegate;
+  private final int capacity;
+  private final int batchSize;
+  private final OverflowPolicy overflowPolicy;
+  private final Thread writerThread;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Condition drained = lock.newCondition();
+  private final LinkedList<Write> queue = Lists.newLinkedList();
+  // number of writes removed from the queue but not yet forwarded to the delegate
+  private int inFlight;
+  private boolean closed;
+  private boolean overflowLogged;
+
+  private final AtomicLong droppedCount = new AtomicLong();
+  private final AtomicLong coalescedCount = new AtomicLong();
+  private final AtomicLong blockedCount = new AtomicLong();
+
+  /**
+   * Wraps delegate in an AsyncStatsWriteService configured from system properties if {@value
+   * #ENABLED_PARAM} is set to true.
+   *
+   * @param delegate service to wrap.
+   * @return delegate itself if asynchronous writes are disabled, otherwise a new
+   * AsyncStatsWriteService.
+   */
+  public static <T extends Job> StatsWriteService<T> wrapIfEnabled(StatsWriteService<T> delegate) {
+    if (!Boolean.parseBoolean(System.getProperty(ENABLED_PARAM, "false"))) {
+      return delegate;
+    }
+    int capacity = Integer.getInteger(CAPACITY_PARAM, CAPACITY_DEFAULT);
+    int batchSize = Integer.getInteger(BATCH_SIZE_PARAM, BATCH_SIZE_DEFAULT);
+    OverflowPolicy overflowPolicy = OverflowPolicy.valueOf(
+        System.getProperty(OVERFLOW_POLICY_PARAM, OverflowPolicy.COALESCE.name()).toUpperCase());
+    LOG.info(String.format("Writing stats asynchronously (capacity=%d, batchSize=%d, policy=%s)",
+        capacity, batchSize, overflowPolicy));
+    return new AsyncStatsWriteService<T>(delegate, capacity, batchSize, overflowPolicy);
+  }
+
+  /**
+   * Creates a new AsyncStatsWriteService and starts its writer thread.
+   *
+   * @param delegate service to forward writes to.
+   * @param capacity maximum number of queued writes.
+   * @param batchSize maximum number of writes drained from the buffer at once.
+   * @param overflowPolicy what to do with progress events pushed while the buffer is full.
+   */
+  public AsyncStatsWriteService(StatsWriteService<T> delegate, int capacity, int batchSize,
+      OverflowPolicy overflowPolicy) {
+    checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+    checkArgument(batchSize > 0, "batchSize must be positive: %s", batchSize);
+    this.delegate = checkNotNull(delegate, "delegate");
+    this.capacity = capacity;
+    this.batchSize = batchSize;
+    this.overflowPolicy = checkNotNull(overflowPolicy, "overflowPolicy");
+    this.writerThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    }, THREAD_NAME);
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  public StatsWriteService<T> getDelegate() { return delegate; }
+  public long getDroppedCount() { return droppedCount.get(); }
+  public long getCoalescedCount() { return coalescedCount.get(); }
+  public long getBlockedCount() { return blockedCount.get(); }
+
+  /**
+   * @return number of writes queued and not yet forwarded to the delegate.
+   */
+  public int getQueueSize() {
+    lock.lock();
+    try {
+      return queue.size() + inFlight;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void initWriteService(Properties properties) throws IOException {
+    flush();
+    delegate.initWriteService(properties);
+  }
+
+  @Override
+  public void sendDagNodeNameMap(String workflowId, Map<String, DAGNode<T>> dagNodeNameMap)
+      throws IOException {
+    enqueue(new Write(workflowId, null, JSONUtil.toJsonBytes(dagNodeNameMap)));
+  }
+
+  @Override
+  public void pushEvent(String workflowId, Event event) throws IOException {
+    enqueue(new Write(workflowId, EncodedEvent.encode(event), null));
+  }
+
+  /**
+   * Blocks until all writes queued before this call have been forwarded to the delegate.
+   *
+   * @throws IOException if interrupted while waiting.
+   */
+  @Override
+  public void flush() throws IOException {
+    lock.lock();
+    try {
+      while (!closed && (!queue.isEmpty() || inFlight > 0)) {
+        drained.await();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while flushing stats");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Flushes queued writes, waiting at most a few seconds, and stops the writer thread. Writes made
+   * after this call are forwarded to the delegate on the caller's thread.
+   */
+  @Override
+  public void close() throws IOException {
+    lock.lock();
+    try {
+      long remainingNanos = TimeUnit.SECONDS.toNanos(CLOSE_TIMEOUT_SECS);
+      while ((!queue.isEmpty() || inFlight > 0) && remainingNanos > 0) {
+        remainingNanos = drained.awaitNanos(remainingNanos);
+      }
+      if (!queue.isEmpty()) {
+        LOG.warn(String.format("Discarding %d stats writes not written within %d seconds",
+            queue.size(), CLOSE_TIMEOUT_SECS));
+        queue.clear();
+      }
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+      drained.signalAll();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing stats writer");
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void enqueue(Write write) throws IOException {
+    lock.lock();
+    try {
+      if (!closed && write.isProgress()) {
+        while (queue.size() >= capacity && !makeRoom(write)) {
+          blockedCount.incrementAndGet();
+          notFull.await();
+          if (closed) {
+            break;
+          }
+        }
+      }
+      if (!closed) {
+        queue.addLast(write);
+        notEmpty.signal();
+        return;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while queueing stats");
+    } finally {
+      lock.unlock();
+    }
+    write(write);
+  }
+
+  /**
+   * Tries to make room in the full buffer for the given progress event by dropping a queued one.
+   *
+   * @return true if a queued write was dropped.
+   */
+  private boolean makeRoom(Write write) {
+    if (overflowPolicy == OverflowPolicy.BLOCK) {
+      return false;
+    }
+    if (!overflowLogged) {
+      LOG.warn(String.format("Stats write buffer full (%d writes), applying %s policy to progress"
+          + " events", capacity, overflowPolicy));
+      overflowLogged = true;
+    }
+    if (overflowPolicy == OverflowPolicy.COALESCE) {
+      // search from the tail, since the newest matching event is the one most recently superseded
+      Iterator<Write> it = queue.descendingIterator();
+      while (it.hasNext()) {
+        if (it.next().isSupersededBy(write)) {
+          it.remove();
+          coalescedCount.incrementAndGet();
+          return true;
+        }
+      }
+    }
+    Iterator<Write> it = queue.iterator();
+    while (it.hasNext()) {
+      if (it.next().isProgress()) {
+        it.remove();
+        droppedCount.incrementAndGet();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void drain() {
+    List<Write> batch = Lists.newArrayListWithCapacity(batchSize);
+    while (true) {
+      lock.lock();
+      try {
+        inFlight = 0;
+        drained.signalAll();
+        while (queue.isEmpty() && !closed) {
+          notEmpty.awaitUninterruptibly();
+        }
+        if (queue.isEmpty()) {
+          return;
+        }
+        while (!queue.isEmpty() && batch.size() < batchSize) {
+          batch.add(queue.removeFirst());
+        }
+        inFlight = batch.size();
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+
+      for (Write write : batch) {
+        try {
+          write(write);
+        } catch (IOException e) {
+          LOG.error("Couldn't write stats to " + delegate.getClass().getName(), e);
+        } catch (RuntimeException e) {
+          LOG.error("Couldn't write stats to " + delegate.getClass().getName(), e);
+        }
+      }
+      batch.clear();
+    }
+  }
+
+  private void write(Write write) throws IOException {
+    if (write.event != null) {
+      delegate.pushEvent(write.workflowId, write.event.toEvent());
+    } else {
+      delegate.sendDagNodeNameMap(write.workflowId, decodeDagNodeNameMap(write.dagNodeNameMapJson));
+    }
+  }
+
+  /**
+   * Decodes a DAG encoded when it was queued. Successors are not serialized, so they are restored
+   * from the successor names of each node.
+   */
+  private Map<String, DAGNode<T>> decodeDagNodeNameMap(byte[] json) throws IOException {
+    Map<String, DAGNode<T>> dagNodeNameMap = JSONUtil.toObject(
+        new String(json, Charsets.UTF_8), new TypeReference<Map<String, DAGNode<T>>>() { });
+    if (dagNodeNameMap == null) {
+      return null;
+    }
+    for (DAGNode<T> node : dagNodeNameMap.values()) {
+      Collection<String> successorNames = node.getSuccessorNames();
+      if (successorNames == null) {
+        continue;
+      }
+      List<DAGNode<? extends Job>> successors = Lists.newArrayList();
+      for (String successorName : successorNames) {
+        DAGNode<T> successor = dagNodeNameMap.get(successorName);
+        if (successor != null) {
+          successors.add(successor);
+        }
+      }
+      node.setSuccessors(successors);
+    }
+    return dagNodeNameMap;
+  }
+}
@@ -0,0 +1,283 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.hadoop.CounterId;
+import com.twitter.ambrose.model.hadoop.CounterRates;
+import com.twitter.ambrose.model.hadoop.CounterValues;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+
+/**
+ * Keeps a time series of selected counters of each job, sampled from the job's events, from which
+ * {@link CounterRates} are computed.
+ * <p/>
+ * Each series holds at most a fixed number of samples, delta encoded as variable length integers
+ * so a sample of slowly changing counters takes a few bytes. When a series is full, every other
+ * sample is dropped and the minimum interval between samples is doubled, so that a series covers
+ * the whole run of its job at a resolution which decreases as the job runs longer. A sample taken
+ * sooner than the minimum interval after the one before it replaces the most recent sample, so
+ * the latest values are always kept.
+ * <p/>
+ * Instances are thread safe.
+ */
+public class CounterTimeSeriesStore {
+  /**
+   * Counters sampled by default: bytes and records read and written by each phase, and CPU time.
+   */
+  public static final ImmutableList<CounterId> DEFAULT_COUNTER_IDS = ImmutableList.of(
+      CounterId.HDFS_BYTES_READ,
+      CounterId.HDFS_BYTES_WRITTEN,
+      CounterId.FILE_BYTES_READ,
+      CounterId.FILE_BYTES_WRITTEN,
+      CounterId.MAP_INPUT_RECORDS,
+      CounterId.MAP_OUTPUT_RECORDS,
+      CounterId.MAP_OUTPUT_BYTES,
+      CounterId.REDUCE_SHUFFLE_BYTES,
+      CounterId.REDUCE_INPUT_RECORDS,
+      CounterId.REDUCE_OUTPUT_RECORDS,
+      CounterId.SPILLED_RECORDS,
+      CounterId.CPU_MILLISECONDS);
+  public static final int DEFAULT_CAPACITY = 128;
+  public static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000;
+
+  private final CounterId[] counterIds;
+  private final int capacity;
+  private final long minIntervalMillis;
+  private final Map<String, Series> seriesByJobName = Maps.newHashMap();
+
+  public CounterTimeSeriesStore() {
+    this(DEFAULT_COUNTER_IDS, DEFAULT_CAPACITY, DEFAULT_MIN_INTERVAL_MILLIS);
+  }
+
+  /**
+   * @param counterIds counters to sample.
+   * @param capacity max number of samples held for each job, at least 4.
+   * @param minIntervalMillis initial minimum interval between samples.
+   */
+  public CounterTimeSeriesStore(Iterable<CounterId> counterIds, int capacity,
+      long minIntervalMillis) {
+    Preconditions.checkArgument(capacity >= 4, "capacity must be at least 4");
+    Preconditions.checkArgument(minIntervalMillis >= 0, "minIntervalMillis must not be negative");
+    this.counterIds = ImmutableList.copyOf(counterIds).toArray(new CounterId[0]);
+    this.capacity = capacity;
+    this.minIntervalMillis = minIntervalMillis;
+  }
+
+  /**
+   * Samples the counters of the job of a job event, at the time of the event. Workflow events and
+   * events of jobs without counters are ignored.
+   */
+  public synchronized void update(Event<?> event) {
+    if (!(event.getPayload() instanceof DAGNode)) {
+      return;
+    }
+    DAGNode<?> node = (DAGNode<?>) event.getPayload();
+    Job job = node.getJob();
+    if (!(job instanceof MapReduceJob)) {
+      return;
+    }
+    CounterValues values = ((MapReduceJob) job).getCounterValues();
+    if (values.size() == 0) {
+      return;
+    }
+    Series series = seriesByJobName.get(node.getName());
+    if (series == null) {
+      series = new Series(counterIds.length, minIntervalMillis);
+      seriesByJobName.put(node.getName(), series);
+    }
+    long[] sample = new long[counterIds.length];
+    for (int i = 0; i < counterIds.length; i++) {
+      if (values.contains(counterIds[i])) {
+        sample[i] = values.get(counterIds[i]);
+        series.reported.set(i);
+      } else {
+        // carry the last value forward, so the counter's rate is 0
+        sample[i] = series.lastValues[i];
+      }
+    }
+    series.add(event.getTimestamp(), sample, capacity);
+  }
+
+  /**
+   * @return rates of the counters of a job, or null if the job has fewer than two samples.
+   */
+  public synchronized CounterRates getCounterRates(String jobName) {
+    Series series = seriesByJobName.get(jobName);
+    if (series == null || series.sampleCount < 2) {
+      return null;
+    }
+    int n = series.sampleCount;
+    long[] times = new long[n];
+    long[][] values = new long[n][];
+    series.decode(times, values);
+
+    long[] intervalTimes = Arrays.copyOfRange(times, 1, n);
+    Map<String, double[]> rates = Maps.newLinkedHashMap();
+    for (int c = 0; c < counterIds.length; c++) {
+      if (!series.reported.get(c)) {
+        continue;
+      }
+      double[] counterRates = new double[n - 1];
+      for (int i = 1; i < n; i++) {
+        long interval = times[i] - times[i - 1];
+        if (interval > 0) {
+          counterRates[i - 1] = (values[i][c] - values[i - 1][c]) * 1000.0 / interval;
+        }
+      }
+      rates.put(counterIds[c].name(), counterRates);
+    }
+    return new CounterRates(jobName, times[0], intervalTimes, rates);
+  }
+
+  /**
+   * @return number of bytes held by the encoded samples of all jobs.
+   */
+  public synchronized int getEncodedSize() {
+    int size = 0;
+    for (Series series : seriesByJobName.values()) {
+      size += series.length;
+    }
+    return size;
+  }
+
+  /**
+   * Samples of one job. Each sample is encoded as the zig-zag varint deltas of its time and of each
+   * counter value from the previous sample.
+   */
+  private static final class Series {
+    private final int counterCount;
+    private final BitSet reported = new BitSet();
+    private long minIntervalMillis;
+    private byte[] buffer = new byte[32];
+    private int length;
+    private int sampleCount;
+    // start of the last sample in buffer, and the decoded values of the last two samples
+    private int lastOffset;
+    private long previousTime;
+    private long[] previousValues;
+    private long lastTime;
+    private long[] lastValues;
+
+    private Series(int counterCount, long minIntervalMillis) {
+      this.counterCount = counterCount;
+      this.minIntervalMillis = minIntervalMillis;
+      this.previousValues = new long[counterCount];
+      this.lastValues = new long[counterCount];
+    }
+
+    private void add(long time, long[] values, int capacity) {
+      if (sampleCount >= 2 && lastTime - previousTime < minIntervalMillis) {
+        // the last sample is too close to the one before it; replace it
+        length = lastOffset;
+        sampleCount--;
+      } else {
+        if (sampleCount == capacity) {
+          downsample();
+        }
+        previousTime = lastTime;
+        long[] swap = previousValues;
+        previousValues = lastValues;
+        lastValues = swap;
+      }
+      lastOffset = length;
+      writeVarLong(time - previousTime);
+      for (int i = 0; i < counterCount; i++) {
+        writeVarLong(values[i] - previousValues[i]);
+      }
+      lastTime = time;
+      System.arraycopy(values, 0, lastValues, 0, counterCount);
+      sampleCount++;
+    }
+
+    /**
+     * Drops every other sample, keeping the first and the last, and doubles the minimum interval.
+     */
+    private void downsample() {
+      int n = sampleCount;
+      long[] times = new long[n];
+      long[][] values = new long[n][];
+      decode(times, values);
+      buffer = new byte[buffer.length];
+      length = 0;
+      sampleCount = 0;
+      lastTime = 0;
+      Arrays.fill(lastValues, 0);
+      for (int i = 0; i < n; i++) {
+        if (i % 2 == 0 || i == n - 1) {
+          previousTime = lastTime;
+          System.arraycopy(lastValues, 0, previousValues, 0, counterCount);
+          lastOffset = length;
+          writeVarLong(times[i] - lastTime);
+          for (int c = 0; c < counterCount; c++) {
+            writeVarLong(values[i][c] - lastValues[c]);
+          }
+          lastTime = times[i];
+          System.arraycopy(values[i], 0, lastValues, 0, counterCount);
+          sampleCount++;
+        }
+      }
+      minIntervalMillis = Math.max(1, minIntervalMillis * 2);
+    }
+
+    private void decode(long[] times, long[][] values) {
+      int[] offset = { 0 };
+      long time = 0;
+      long[] current = new long[counterCount];
+      for (int i = 0; i < sampleCount; i++) {
+        time += readVarLong(offset);
+        times[i] = time;
+        for (int c = 0; c < counterCount; c++) {
+          current[c] += readVarLong(offset);
+        }
+        values[i] = current.clone();
+      }
+    }
+
+    private void writeVarLong(long value) {
+      long zigZag = (value << 1) ^ (value >> 63);
+      if (length + 10 > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + 10));
+      }
+      while ((zigZag & ~0x7FL) != 0) {
+        buffer[length++] = (byte) ((zigZag & 0x7F) | 0x80);
+        zigZag >>>= 7;
+      }
+      buffer[length++] = (byte) zigZag;
+    }
+
+    private long readVarLong(int[] offset) {
+      long zigZag = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = buffer[offset[0]++];
+        zigZag |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      return (zigZag >>> 1) ^ -(zigZag & 1);
+    }
+  }
+}
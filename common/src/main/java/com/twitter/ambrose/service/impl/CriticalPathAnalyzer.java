@@ -0,0 +1,223 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.CriticalPath;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowGraph;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+/**
+ * Computes the {@link CriticalPath} of a workflow from its {@link WorkflowGraph} and the job events
+ * pushed for it.
+ * <p/>
+ * Each event only updates the start and finish time of its job, which are taken from the job's
+ * {@link MapReduceJobState} when it has one and from event timestamps otherwise. The analysis is
+ * computed on the next call to {@link #getCriticalPath()} and kept until another event changes a
+ * time, so frequent events and frequent reads each cost no more than one pass over the graph per
+ * read.
+ * <p/>
+ * The times of jobs whose nodes aren't in the graph are kept by node name, so that an analyzer of a
+ * graph to which nodes were added can be created from the analyzer of the previous graph without
+ * updating it with all events again.
+ * <p/>
+ * Instances are thread safe.
+ */
+public class CriticalPathAnalyzer {
+  private static final Logger LOG = LoggerFactory.getLogger(CriticalPathAnalyzer.class);
+
+  private final WorkflowGraph<?> graph;
+  /** ids in topological order, null if the graph has a cycle */
+  private final int[] order;
+  /** start and finish times of jobs in epoch millis, 0 if unknown */
+  private final long[] startTimes;
+  private final long[] finishTimes;
+  /** start and finish times of jobs whose nodes aren't in the graph, keyed by node name */
+  private final Map<String, long[]> otherTimes = Maps.newHashMap();
+  private CriticalPath criticalPath;
+
+  public CriticalPathAnalyzer(WorkflowGraph<?> graph) {
+    this.graph = Preconditions.checkNotNull(graph);
+    int[] order = null;
+    try {
+      order = graph.getTopologicalOrder();
+    } catch (IllegalStateException e) {
+      LOG.warn("Can't analyze the critical path of a workflow graph with a cycle");
+    }
+    this.order = order;
+    this.startTimes = new long[graph.size()];
+    this.finishTimes = new long[graph.size()];
+  }
+
+  /**
+   * Creates an analyzer of a graph holding the job times of another analyzer, as if it had been
+   * updated with all events that analyzer was updated with.
+   */
+  public CriticalPathAnalyzer(WorkflowGraph<?> graph, CriticalPathAnalyzer previous) {
+    this(graph);
+    synchronized (previous) {
+      for (int id = 0; id < previous.graph.size(); id++) {
+        setTimes(previous.graph.getName(id), previous.startTimes[id], previous.finishTimes[id]);
+      }
+      for (Map.Entry<String, long[]> entry : previous.otherTimes.entrySet()) {
+        setTimes(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+      }
+    }
+  }
+
+  /**
+   * Updates the times of the job of a job event. Workflow events are ignored, as are events of
+   * nodes which aren't in the graph, apart from keeping their times.
+   */
+  public synchronized void update(Event<?> event) {
+    if (!(event.getPayload() instanceof DAGNode)) {
+      return;
+    }
+    DAGNode<?> node = (DAGNode<?>) event.getPayload();
+    int id = graph.getId(node.getName());
+    long start;
+    long finish;
+    if (id >= 0) {
+      start = startTimes[id];
+      finish = finishTimes[id];
+    } else {
+      long[] times = otherTimes.get(node.getName());
+      start = times == null ? 0 : times[0];
+      finish = times == null ? 0 : times[1];
+    }
+    long startTime = 0;
+    long lastUpdateTime = 0;
+    Job job = node.getJob();
+    if (job instanceof MapReduceJob) {
+      MapReduceJobState state = ((MapReduceJob) job).getMapReduceJobState();
+      if (state != null) {
+        startTime = state.getJobStartTime();
+        lastUpdateTime = state.getJobLastUpdateTime();
+      }
+    }
+    if (startTime > 0) {
+      start = startTime;
+    } else if (start == 0) {
+      start = event.getTimestamp();
+    }
+    long finishTime = lastUpdateTime > 0 ? lastUpdateTime : event.getTimestamp();
+    setTimes(node.getName(), start, Math.max(finish, Math.max(finishTime, start)));
+  }
+
+  private void setTimes(String name, long start, long finish) {
+    int id = graph.getId(name);
+    if (id >= 0) {
+      startTimes[id] = start;
+      finishTimes[id] = finish;
+      criticalPath = null;
+    } else {
+      otherTimes.put(name, new long[] { start, finish });
+    }
+  }
+
+  /**
+   * @return analysis of the times of all events so far, or null if the graph has a cycle.
+   */
+  public synchronized CriticalPath getCriticalPath() {
+    if (order == null) {
+      return null;
+    }
+    if (criticalPath == null) {
+      criticalPath = analyze();
+    }
+    return criticalPath;
+  }
+
+  private long duration(int id) {
+    return startTimes[id] == 0 ? 0 : finishTimes[id] - startTimes[id];
+  }
+
+  private CriticalPath analyze() {
+    int size = graph.size();
+
+    // forward pass: earliest finish of each job, and the predecessor which determines it
+    long[] earliestFinish = new long[size];
+    int[] criticalPredecessor = new int[size];
+    Arrays.fill(criticalPredecessor, -1);
+    long makespan = 0;
+    int last = -1;
+    for (int id : order) {
+      long earliestStart = 0;
+      for (int i = 0; i < graph.getPredecessorCount(id); i++) {
+        int predecessor = graph.getPredecessor(id, i);
+        if (earliestFinish[predecessor] > earliestStart || criticalPredecessor[id] < 0) {
+          earliestStart = Math.max(earliestStart, earliestFinish[predecessor]);
+          criticalPredecessor[id] = predecessor;
+        }
+      }
+      earliestFinish[id] = earliestStart + duration(id);
+      if (last < 0 || earliestFinish[id] > makespan) {
+        makespan = earliestFinish[id];
+        last = id;
+      }
+    }
+
+    // backward pass: latest finish of each job which doesn't delay the workflow
+    long[] latestFinish = new long[size];
+    for (int i = size - 1; i >= 0; i--) {
+      int id = order[i];
+      long finish = makespan;
+      for (int j = 0; j < graph.getSuccessorCount(id); j++) {
+        int successor = graph.getSuccessor(id, j);
+        finish = Math.min(finish, latestFinish[successor] - duration(successor));
+      }
+      latestFinish[id] = finish;
+    }
+
+    List<String> path = Lists.newArrayList();
+    for (int id = last; id >= 0; id = criticalPredecessor[id]) {
+      path.add(graph.getName(id));
+    }
+    Collections.reverse(path);
+
+    List<CriticalPath.Node> nodes = Lists.newArrayListWithCapacity(size);
+    long firstStart = Long.MAX_VALUE;
+    long lastFinish = 0;
+    for (int id : order) {
+      long duration = duration(id);
+      long earliestStart = earliestFinish[id] - duration;
+      long latestStart = latestFinish[id] - duration;
+      nodes.add(new CriticalPath.Node(graph.getName(id), duration, earliestStart, latestStart,
+          latestStart == earliestStart));
+      if (startTimes[id] > 0) {
+        firstStart = Math.min(firstStart, startTimes[id]);
+        lastFinish = Math.max(lastFinish, finishTimes[id]);
+      }
+    }
+    long elapsed = firstStart == Long.MAX_VALUE ? 0 : lastFinish - firstStart;
+    return new CriticalPath(makespan, elapsed, Collections.unmodifiableList(path),
+        Collections.unmodifiableList(nodes));
+  }
+}
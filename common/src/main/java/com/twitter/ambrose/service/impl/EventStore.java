@@ -0,0 +1,87 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.List;
+
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.service.EventsEvictedException;
+
+/**
+ * Storage for the events of a single workflow, used by {@link InMemoryStatsService}.
+ * Implementations are free to discard events to bound their footprint, but must report a read
+ * that can no longer be served completely by throwing {@link EventsEvictedException}.
+ * <p/>
+ * Writes ({@link #add} and {@link #clear}) must be serialized by the caller. Reads must be safe to
+ * call concurrently with a write without any locking, so that polling readers never block the
+ * thread pushing events.
+ */
+public interface EventStore {
+
+  /**
+   * Listener told of each event a store no longer retains.
+   */
+  interface RemovalListener {
+
+    /**
+     * Called from within the write which removed event, so it is serialized with writes.
+     *
+     * @param event event which was evicted, replaced by an event with the same id, or cleared.
+     */
+    void onRemoval(EncodedEvent event);
+  }
+
+  /**
+   * Adds an event to the store.
+   *
+   * @param event the event to add.
+   */
+  void add(EncodedEvent event);
+
+  /**
+   * Sets the listener told of each event the store drops, replacing any previously set.
+   *
+   * @param removalListener listener to set, or null to remove the current one.
+   */
+  void setRemovalListener(RemovalListener removalListener);
+
+  /**
+   * Returns events whose id is greater than sinceId, ordered by id ascending.
+   *
+   * @param sinceId all returned events will have an id greater than this value. Pass a negative
+   * value to get all retained events.
+   * @param maxEvents maximum number of events to return. Non-positive values mean no limit.
+   * @return events ordered by id ascending.
+   * @throws EventsEvictedException if events after sinceId have been evicted and the caller has
+   * therefore missed state changes.
+   */
+  List<EncodedEvent> getEventsSinceId(int sinceId, int maxEvents) throws EventsEvictedException;
+
+  /**
+   * @return number of events currently retained.
+   */
+  int size();
+
+  /**
+   * @return id of the newest retained event, or -1 if the store is empty.
+   */
+  int getLastEventId();
+
+  /**
+   * Removes all events from the store.
+   */
+  void clear();
+}
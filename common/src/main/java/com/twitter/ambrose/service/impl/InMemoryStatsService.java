@@ -20,27 +20,41 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.Writer;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.SortedMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.CriticalPath;
 import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowGraph;
+import com.twitter.ambrose.model.WorkflowState;
 import com.twitter.ambrose.model.WorkflowSummary;
+import com.twitter.ambrose.model.hadoop.CounterRates;
+import com.twitter.ambrose.service.ConfigurationReadService;
+import com.twitter.ambrose.service.CounterRatesReadService;
+import com.twitter.ambrose.service.CriticalPathReadService;
+import com.twitter.ambrose.service.EncodedEventReadService;
+import com.twitter.ambrose.service.EventNotificationService;
 import com.twitter.ambrose.service.StatsReadService;
 import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.WorkflowGraphReadService;
 import com.twitter.ambrose.service.WorkflowIndexReadService;
+import com.twitter.ambrose.service.WorkflowStateReadService;
+import com.twitter.ambrose.util.ConfigurationStore;
 import com.twitter.ambrose.util.JSONUtil;
 
 /**
@@ -60,24 +74,77 @@ import com.twitter.ambrose.util.JSONUtil;
  * json.</li>
  *   </ul>
  * </pre>
+ * <p/>
+ * Each pushed event is encoded to JSON once and held in encoded form, which both freezes its
+ * payload as it was when pushed and lets {@link #getEncodedEventsSinceId} serve events without
+ * serializing them again. Events are held in an {@link EventStore}, by default a
+ * {@link RingBufferEventStore} whose budget is configured through system properties. Reads from an
+ * event id which has since been evicted fail with
+ * {@link com.twitter.ambrose.service.EventsEvictedException}.
+ * <p/>
+ * Only the write methods synchronize. Each write publishes immutable state (a copy of the DAG node
+ * map and its {@link WorkflowGraph}, a new workflow summary and an {@link EventStore} snapshot)
+ * through volatile fields, so the read methods serving HTTP requests never contend with the thread
+ * pushing events. Readers which want to be told about new events may park in
+ * {@link #awaitEventsSinceId}.
+ * <p/>
+ * Each pushed job event also updates a {@link CriticalPathAnalyzer} of the DAG, so that
+ * {@link #getCriticalPath} reflects all events pushed so far, and samples the job's counters into a
+ * {@link CounterTimeSeriesStore} served by {@link #getCounterRates}. Events are also folded into a
+ * {@link WorkflowStateStore}, from which new viewers load the current state of the workflow rather
+ * than all of its events.
+ * <p/>
+ * Job configurations are encoded as references into a {@link ConfigurationStore} kept for the
+ * lifetime of the service, so a configuration shared by the jobs of this and previous workflows is
+ * held and served once. Each configuration referenced by an event is pinned in the store while the
+ * event store or the workflow state holds the event, and each configuration of a job of the DAG
+ * while the DAG is served, so references can always be resolved. Events read back through
+ * {@link #getEventsSinceId} therefore hold jobs without configurations.
  */
 public class InMemoryStatsService<T extends Job> implements StatsReadService<T>, StatsWriteService<T>,
-    WorkflowIndexReadService {
+    EncodedEventReadService, EventNotificationService, WorkflowIndexReadService,
+    WorkflowGraphReadService<T>, CriticalPathReadService, CounterRatesReadService,
+    WorkflowStateReadService, ConfigurationReadService {
   private static final Logger LOG = LoggerFactory.getLogger(InMemoryStatsService.class);
   private static final String DUMP_WORKFLOW_FILE_PARAM = "ambrose.write.dag.file";
   private static final String DUMP_EVENTS_FILE_PARAM = "ambrose.write.events.file";
-  private final WorkflowSummary summary = new WorkflowSummary(null,
-      System.getProperty("user.name", "unknown"), "unknown", null, 0, System.currentTimeMillis());
-  private final PaginatedList<WorkflowSummary> summaries =
-      new PaginatedList<WorkflowSummary>(ImmutableList.of(summary));
+  private final String userId = System.getProperty("user.name", "unknown");
+  private final long createdAt = System.currentTimeMillis();
+  private final EventStore eventStore;
+  private final ConfigurationStore configurationStore = new ConfigurationStore();
+  private volatile PaginatedList<WorkflowSummary> summaries;
+  private volatile Map<String, DAGNode<T>> dagNodeNameMap = ImmutableMap.of();
+  private volatile WorkflowGraph<T> workflowGraph =
+      WorkflowGraph.of(ImmutableMap.<String, DAGNode<T>>of());
+  private volatile CriticalPathAnalyzer criticalPathAnalyzer =
+      new CriticalPathAnalyzer(workflowGraph);
+  private volatile CounterTimeSeriesStore counterTimeSeries = new CounterTimeSeriesStore();
+  private volatile WorkflowStateStore workflowStateStore = new WorkflowStateStore();
+  private volatile CountDownLatch nextEventSignal = new CountDownLatch(1);
+
+  // write side state, guarded by this
+  private String summaryWorkflowId;
+  private WorkflowSummary.Status status;
+  private int progress = 0;
   private boolean jobFailed = false;
-  private Map<String, DAGNode<T>> dagNodeNameMap = Maps.newHashMap();
-  private SortedMap<Integer, Event> eventMap = new ConcurrentSkipListMap<Integer, Event>();
   private Writer workflowWriter;
   private Writer eventsWriter;
   private boolean eventWritten = false;
+  private List<String> dagConfigurationHashes = ImmutableList.of();
 
   public InMemoryStatsService() {
+    this(RingBufferEventStore.fromSystemProperties());
+  }
+
+  public InMemoryStatsService(EventStore eventStore) {
+    this.eventStore = eventStore;
+    eventStore.setRemovalListener(new EventStore.RemovalListener() {
+      @Override
+      public void onRemoval(EncodedEvent event) {
+        releaseConfigurations(event);
+      }
+    });
+    publishSummary();
     String dumpWorkflowFileName = System.getProperty(DUMP_WORKFLOW_FILE_PARAM);
     String dumpEventsFileName = System.getProperty(DUMP_EVENTS_FILE_PARAM);
 
@@ -101,28 +168,34 @@ public class InMemoryStatsService<T extends Job> implements StatsReadService<T>,
   @Override
   public synchronized void sendDagNodeNameMap(String workflowId,
       Map<String, DAGNode<T>> dagNodeNameMap) throws IOException {
-    this.summary.setId(workflowId);
-    this.summary.setStatus(WorkflowSummary.Status.RUNNING);
-    this.summary.setProgress(0);
-    this.dagNodeNameMap = dagNodeNameMap;
+    this.summaryWorkflowId = workflowId;
+    this.status = WorkflowSummary.Status.RUNNING;
+    this.progress = 0;
+    publishSummary();
+    publishDagNodeNameMap(dagNodeNameMap);
+    resetCriticalPath();
+    counterTimeSeries = new CounterTimeSeriesStore();
     writeJsonDagNodenameMapToDisk(dagNodeNameMap);
   }
 
   @Override
   public synchronized void pushEvent(String workflowId, Event event) throws IOException {
-    eventMap.put(event.getId(), event);
+    storeEvent(event, EncodedEvent.encode(event, configurationStore));
+    signalEvents();
+    updateCriticalPath(event);
+    counterTimeSeries.update(event);
     switch (event.getType()) {
       case WORKFLOW_PROGRESS:
         Event.WorkflowProgressEvent workflowProgressEvent = (Event.WorkflowProgressEvent) event;
         String progressString =
             workflowProgressEvent.getPayload().get(Event.WorkflowProgressField.workflowProgress);
-        int progress = Integer.parseInt(progressString);
-        summary.setProgress(progress);
+        progress = Integer.parseInt(progressString);
         if (progress == 100) {
-          summary.setStatus(jobFailed
+          status = jobFailed
               ? WorkflowSummary.Status.FAILED
-              : WorkflowSummary.Status.SUCCEEDED);
+              : WorkflowSummary.Status.SUCCEEDED;
         }
+        publishSummary();
         break;
       case JOB_FAILED:
         jobFailed = true;
@@ -132,15 +205,133 @@ public class InMemoryStatsService<T extends Job> implements StatsReadService<T>,
     writeJsonEventToDisk(event);
   }
 
+  /**
+   * Adds nodes to the DAG node map, replacing any existing nodes with the same names. The critical
+   * path of the new DAG is analyzed from the job times of all events pushed so far, including
+   * those of events pushed before their nodes were added.
+   *
+   * @param dagNodes nodes to add, keyed by node name.
+   */
+  public synchronized void addDagNodes(Map<String, DAGNode<T>> dagNodes) {
+    Map<String, DAGNode<T>> merged = Maps.newLinkedHashMap(dagNodeNameMap);
+    merged.putAll(dagNodes);
+    publishDagNodeNameMap(merged);
+    CriticalPathAnalyzer previous = criticalPathAnalyzer;
+    criticalPathAnalyzer = previous == null
+        ? new CriticalPathAnalyzer(workflowGraph)
+        : new CriticalPathAnalyzer(workflowGraph, previous);
+  }
+
+  /**
+   * Adds previously pushed events back to the event store. Unlike {@link #pushEvent}, events are
+   * neither applied to the workflow summary nor written to disk.
+   *
+   * @param events events to restore.
+   */
+  public synchronized void restoreEvents(Collection<? extends Event> events) throws IOException {
+    for (Event event : events) {
+      storeEvent(event, EncodedEvent.encode(event, configurationStore));
+      updateCriticalPath(event);
+      counterTimeSeries.update(event);
+    }
+    signalEvents();
+  }
+
+  /**
+   * Removes all events from the event store, along with the job times they contributed to the
+   * critical path, the counter samples taken from them and the workflow state folded from them.
+   */
+  public synchronized void clearEvents() {
+    eventStore.clear();
+    WorkflowState workflowState = workflowStateStore.getWorkflowState();
+    releaseConfigurations(workflowState.getWorkflowProgress());
+    for (WorkflowState.Node node : workflowState.getNodes()) {
+      releaseConfigurations(node.getEvent());
+    }
+    workflowStateStore = new WorkflowStateStore();
+    resetCriticalPath();
+    counterTimeSeries = new CounterTimeSeriesStore();
+  }
+
+  /**
+   * Adds a newly encoded event to the event store and folds it into the workflow state. The event
+   * store takes over the configuration pins taken when encoding the event, and releases them when
+   * it drops the event. The workflow state pins them again for as long as it holds the event.
+   */
+  private void storeEvent(Event event, EncodedEvent encodedEvent) {
+    // pin before adding, since the event store may drop a progress event as soon as it's added
+    retainConfigurations(encodedEvent);
+    releaseConfigurations(workflowStateStore.update(event, encodedEvent));
+    eventStore.add(encodedEvent);
+  }
+
+  private void retainConfigurations(EncodedEvent event) {
+    for (String hash : event.getConfigurationHashes()) {
+      configurationStore.retain(hash);
+    }
+  }
+
+  private void releaseConfigurations(EncodedEvent event) {
+    if (event == null) {
+      return;
+    }
+    for (String hash : event.getConfigurationHashes()) {
+      configurationStore.release(hash);
+    }
+  }
+
   @Override
-  public synchronized Map<String, DAGNode<T>> getDagNodeNameMap(String workflowId) {
+  public Map<String, DAGNode<T>> getDagNodeNameMap(String workflowId) {
     return dagNodeNameMap;
   }
 
   @Override
-  public synchronized Collection<Event> getEventsSinceId(String workflowId, int sinceId) {
-    int minId = sinceId >= 0 ? sinceId + 1 : sinceId;
-    return eventMap.tailMap(minId).values();
+  public WorkflowGraph<T> getWorkflowGraph(String workflowId) {
+    return workflowGraph;
+  }
+
+  @Override
+  public CriticalPath getCriticalPath(String workflowId) {
+    CriticalPathAnalyzer analyzer = criticalPathAnalyzer;
+    return analyzer == null ? null : analyzer.getCriticalPath();
+  }
+
+  @Override
+  public WorkflowState getWorkflowState(String workflowId) {
+    return workflowStateStore.getWorkflowState();
+  }
+
+  /**
+   * Returns the counter rates of a job of the DAG. As with the DAG and critical path, workflowId is
+   * ignored: this service holds a single DAG, whose node names are unique, and the counter samples
+   * are cleared along with it when a new DAG is sent.
+   */
+  @Override
+  public CounterRates getCounterRates(String workflowId, String jobName) {
+    return counterTimeSeries.getCounterRates(jobName);
+  }
+
+  @Override
+  public Collection<Event> getEventsSinceId(String workflowId, int sinceId)
+      throws IOException {
+    return getEventsSinceId(workflowId, sinceId, -1);
+  }
+
+  @Override
+  public boolean awaitEventsSinceId(String workflowId, int eventId, long timeoutMillis)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (true) {
+      // read the signal before checking the store, so an event pushed after the check is not missed
+      CountDownLatch signal = nextEventSignal;
+      if (eventStore.getLastEventId() > eventId) {
+        return true;
+      }
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0 || !signal.await(remaining, TimeUnit.NANOSECONDS)) {
+        return eventStore.getLastEventId() > eventId;
+      }
+    }
   }
 
   @Override
@@ -149,12 +340,66 @@ public class InMemoryStatsService<T extends Job> implements StatsReadService<T>,
   }
 
   @Override
-  public synchronized PaginatedList<WorkflowSummary> getWorkflows(String cluster,
+  public PaginatedList<WorkflowSummary> getWorkflows(String cluster,
       WorkflowSummary.Status status, String userId, int numResults, byte[] startKey)
       throws IOException {
     return summaries;
   }
 
+  /**
+   * Wakes up threads waiting in {@link #awaitEventsSinceId}. Must be called after the event store
+   * has been updated.
+   */
+  private void signalEvents() {
+    CountDownLatch signal = nextEventSignal;
+    nextEventSignal = new CountDownLatch(1);
+    signal.countDown();
+  }
+
+  private void publishSummary() {
+    WorkflowSummary summary =
+        new WorkflowSummary(summaryWorkflowId, userId, "unknown", status, progress, createdAt);
+    summaries = new PaginatedList<WorkflowSummary>(ImmutableList.of(summary));
+  }
+
+  private void publishDagNodeNameMap(Map<String, DAGNode<T>> dagNodeNameMap) {
+    this.workflowGraph = dagNodeNameMap == null ? null : WorkflowGraph.of(dagNodeNameMap);
+    this.dagNodeNameMap = dagNodeNameMap == null
+        ? null
+        : Collections.unmodifiableMap(Maps.newLinkedHashMap(dagNodeNameMap));
+    retainDagConfigurations(dagNodeNameMap);
+  }
+
+  /**
+   * Pins the configurations of the jobs of a newly published DAG, which {@code /dag} serves as
+   * references, and releases those of the previous DAG. A configuration set on a job after its DAG
+   * was published is pinned by the job's events, which reference it the same way.
+   */
+  private void retainDagConfigurations(Map<String, DAGNode<T>> dagNodeNameMap) {
+    List<String> hashes = Lists.newArrayList();
+    if (dagNodeNameMap != null) {
+      try {
+        JSONUtil.toJsonBytes(dagNodeNameMap.values(), configurationStore, hashes);
+      } catch (IOException e) {
+        LOG.warn("Couldn't pin the configurations of the DAG's jobs", e);
+      }
+    }
+    for (String hash : dagConfigurationHashes) {
+      configurationStore.release(hash);
+    }
+    dagConfigurationHashes = hashes;
+  }
+
+  private void resetCriticalPath() {
+    criticalPathAnalyzer = workflowGraph == null ? null : new CriticalPathAnalyzer(workflowGraph);
+  }
+
+  private void updateCriticalPath(Event event) {
+    if (criticalPathAnalyzer != null) {
+      criticalPathAnalyzer.update(event);
+    }
+  }
+
   private void writeJsonDagNodenameMapToDisk(Map<String, DAGNode<T>> dagNodeNameMap)
       throws IOException {
     if (workflowWriter != null && dagNodeNameMap != null) {
@@ -183,11 +428,31 @@ public class InMemoryStatsService<T extends Job> implements StatsReadService<T>,
     }
   }
 
+  @Override
+  public ConfigurationStore getConfigurationStore() {
+    return configurationStore;
+  }
+
+  /**
+   * Returns events decoded from their encoded form, so each reflects the state of its payload at
+   * the time it was pushed, except that jobs have no configurations. Callers which only need JSON
+   * should prefer {@link #getEncodedEventsSinceId}.
+   */
   @Override
   public Collection<Event> getEventsSinceId(String workflowId, int sinceId,
     int maxEvents) throws IOException {
-    int minId = sinceId >= 0 ? sinceId + 1 : sinceId;
-    return Lists.newArrayList(Iterables.limit(eventMap.tailMap(minId).values(), maxEvents));
+    List<EncodedEvent> encodedEvents = eventStore.getEventsSinceId(sinceId, maxEvents);
+    List<Event> events = Lists.newArrayListWithCapacity(encodedEvents.size());
+    for (EncodedEvent encodedEvent : encodedEvents) {
+      events.add(encodedEvent.toEvent());
+    }
+    return events;
+  }
+
+  @Override
+  public Collection<EncodedEvent> getEncodedEventsSinceId(String workflowId, int sinceId,
+      int maxEvents) throws IOException {
+    return eventStore.getEventsSinceId(sinceId, maxEvents);
   }
 
   @Override
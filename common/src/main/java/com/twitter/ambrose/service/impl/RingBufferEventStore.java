@@ -0,0 +1,360 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.service.EventsEvictedException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * EventStore which behaves as a ring buffer bounded by both an event count and a byte budget. Once
+ * either budget is exceeded, events are evicted oldest first until both are back under 90% of their
+ * budget, in the following order:
+ * <ol>
+ *   <li><code>JOB_PROGRESS</code> and <code>WORKFLOW_PROGRESS</code> events which have been
+ *   superseded by a later event for the same node (or workflow).</li>
+ *   <li>Any remaining <code>JOB_PROGRESS</code> and <code>WORKFLOW_PROGRESS</code> events.</li>
+ * </ol>
+ * Terminal events (<code>JOB_STARTED</code>, <code>JOB_FINISHED</code>, <code>JOB_FAILED</code>)
+ * are never evicted, so the store may exceed its budget if it holds nothing but terminal events.
+ * <p/>
+ * Evicting a superseded event loses nothing a reader needs, since the superseding event carries
+ * newer state. Evicting an event which has not been superseded does lose state, so reads from an id
+ * before such an event fail with {@link EventsEvictedException}.
+ * <p/>
+ * Readers never lock. Retained events live in the prefix of an append-only array, and each write
+ * publishes an immutable {@link Snapshot} of that prefix through a volatile field. Appends write
+ * past the end of every published prefix, and evictions copy the retained events into a new array,
+ * so a slot is never modified once a reader can see it.
+ * <p/>
+ * The budgets may be configured with the following system properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #MAX_EVENTS_PARAM}</code> - maximum number of events to retain. Defaults to
+ *     {@value #MAX_EVENTS_DEFAULT}.</li>
+ *     <li><code>{@value #MAX_BYTES_PARAM}</code> - maximum total size of retained events, measured
+ *     as encoded json bytes. Defaults to {@value #MAX_BYTES_DEFAULT}.</li>
+ *   </ul>
+ * </pre>
+ */
+public class RingBufferEventStore implements EventStore {
+  private static final Logger LOG = LoggerFactory.getLogger(RingBufferEventStore.class);
+
+  /**
+   * Name of system property used to configure the maximum number of events to retain.
+   */
+  public static final String MAX_EVENTS_PARAM = "ambrose.events.max.count";
+  /**
+   * Name of system property used to configure the maximum total size in bytes of retained events.
+   */
+  public static final String MAX_BYTES_PARAM = "ambrose.events.max.bytes";
+  public static final int MAX_EVENTS_DEFAULT = 50000;
+  public static final long MAX_BYTES_DEFAULT = 64L * 1024 * 1024;
+  private static final double EVICTION_TARGET_RATIO = 0.9;
+  private static final int INITIAL_CAPACITY = 256;
+  private static final String WORKFLOW_KEY = "workflow";
+
+  private static final class Entry {
+    private final EncodedEvent event;
+    private final long weight;
+    private boolean superseded;
+    private boolean evicted;
+
+    private Entry(EncodedEvent event) {
+      this.event = event;
+      this.weight = event.getLength();
+    }
+  }
+
+  /**
+   * Immutable view of the retained events, ordered by event id.
+   */
+  private static final class Snapshot {
+    private static final Snapshot EMPTY = new Snapshot(new Entry[0], 0, -1);
+
+    private final Entry[] entries;
+    private final int size;
+    private final int lastLossyEvictedId;
+
+    private Snapshot(Entry[] entries, int size, int lastLossyEvictedId) {
+      this.entries = entries;
+      this.size = size;
+      this.lastLossyEvictedId = lastLossyEvictedId;
+    }
+
+    private Entry get(int index) {
+      return entries[index];
+    }
+
+    /**
+     * Returns index of first entry whose event id is greater than id, or size if none exists.
+     */
+    private int firstIndexAfter(int id) {
+      int low = 0;
+      int high = size;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (get(mid).event.getId() <= id) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+
+  /**
+   * Creates a RingBufferEventStore with budgets read from system properties.
+   */
+  public static RingBufferEventStore fromSystemProperties() {
+    return new RingBufferEventStore(
+        Integer.getInteger(MAX_EVENTS_PARAM, MAX_EVENTS_DEFAULT),
+        Long.getLong(MAX_BYTES_PARAM, MAX_BYTES_DEFAULT));
+  }
+
+  private final int maxEvents;
+  private final long maxBytes;
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+  // write side state, guarded by callers of add and clear
+  private final Map<String, Entry> latestEntries = Maps.newHashMap();
+  private long bytes;
+  private int evictable;
+  private boolean overBudgetLogged = false;
+  private RemovalListener removalListener;
+
+  public RingBufferEventStore(int maxEvents, long maxBytes) {
+    checkArgument(maxEvents > 0, "maxEvents must be positive: %s", maxEvents);
+    checkArgument(maxBytes > 0, "maxBytes must be positive: %s", maxBytes);
+    this.maxEvents = maxEvents;
+    this.maxBytes = maxBytes;
+  }
+
+  @Override
+  public void add(EncodedEvent event) {
+    Entry entry = new Entry(event);
+    Snapshot current = snapshot;
+    if (current.size >= maxEvents && evictable > 0) {
+      current = evict(current);
+    }
+    current = insert(current, entry);
+    supersede(entry);
+    bytes += entry.weight;
+    if (isEvictable(event)) {
+      evictable++;
+    }
+    if (bytes > maxBytes && evictable > 0) {
+      current = evict(current);
+    }
+    snapshot = current;
+  }
+
+  @Override
+  public void setRemovalListener(RemovalListener removalListener) {
+    this.removalListener = removalListener;
+  }
+
+  @Override
+  public List<EncodedEvent> getEventsSinceId(int sinceId, int maxEvents)
+      throws EventsEvictedException {
+    Snapshot current = snapshot;
+    if (sinceId >= 0 && sinceId < current.lastLossyEvictedId) {
+      throw new EventsEvictedException(sinceId, current.lastLossyEvictedId);
+    }
+    int limit = maxEvents > 0 ? maxEvents : Integer.MAX_VALUE;
+    List<EncodedEvent> events = Lists.newArrayList();
+    for (int i = current.firstIndexAfter(sinceId); i < current.size && events.size() < limit; i++) {
+      events.add(current.get(i).event);
+    }
+    return events;
+  }
+
+  @Override
+  public int size() {
+    return snapshot.size;
+  }
+
+  @Override
+  public int getLastEventId() {
+    Snapshot current = snapshot;
+    return current.size == 0 ? -1 : current.get(current.size - 1).event.getId();
+  }
+
+  @Override
+  public void clear() {
+    Snapshot current = snapshot;
+    for (int i = 0; i < current.size; i++) {
+      removed(current.get(i));
+    }
+    latestEntries.clear();
+    bytes = 0;
+    evictable = 0;
+    snapshot = Snapshot.EMPTY;
+  }
+
+  /**
+   * @return total weight in bytes of all retained events.
+   */
+  public long getBytes() {
+    return bytes;
+  }
+
+  private static int newCapacity(int size) {
+    return Math.max(INITIAL_CAPACITY, size * 2);
+  }
+
+  /**
+   * Returns a snapshot which also contains entry, keeping entries sorted by event id. Events almost
+   * always arrive in id order, in which case this is a constant time append. An entry with the same
+   * id as an existing one replaces it.
+   */
+  private Snapshot insert(Snapshot current, Entry entry) {
+    int id = entry.event.getId();
+    if (current.size == 0 || current.get(current.size - 1).event.getId() < id) {
+      if (current.size < current.entries.length) {
+        current.entries[current.size] = entry;
+        return new Snapshot(current.entries, current.size + 1, current.lastLossyEvictedId);
+      }
+      Entry[] entries = new Entry[newCapacity(current.size + 1)];
+      System.arraycopy(current.entries, 0, entries, 0, current.size);
+      entries[current.size] = entry;
+      return new Snapshot(entries, current.size + 1, current.lastLossyEvictedId);
+    }
+
+    // late or duplicate arrival, so rebuild the window with entry in place
+    int index = current.firstIndexAfter(id);
+    boolean replace = index > 0 && current.get(index - 1).event.getId() == id;
+    if (replace) {
+      Entry replaced = current.get(index - 1);
+      replaced.evicted = true;
+      removed(replaced);
+      bytes -= replaced.weight;
+      if (isEvictable(replaced.event)) {
+        evictable--;
+      }
+      index--;
+    }
+    int size = replace ? current.size : current.size + 1;
+    Entry[] entries = new Entry[newCapacity(size)];
+    System.arraycopy(current.entries, 0, entries, 0, index);
+    entries[index] = entry;
+    int tail = replace ? index + 1 : index;
+    System.arraycopy(current.entries, tail, entries, index + 1, current.size - tail);
+    return new Snapshot(entries, size, current.lastLossyEvictedId);
+  }
+
+  private void supersede(Entry entry) {
+    String key = supersedeKey(entry.event);
+    if (key == null) {
+      return;
+    }
+    Entry previous = latestEntries.put(key, entry);
+    if (previous != null && previous.event.getId() > entry.event.getId()) {
+      // late arrival; the entry we already had is newer
+      latestEntries.put(key, previous);
+      entry.superseded = true;
+    } else if (previous != null && previous != entry) {
+      previous.superseded = true;
+    }
+  }
+
+  /**
+   * Evicts entries and returns a snapshot of those which remain.
+   */
+  private Snapshot evict(Snapshot current) {
+    int targetEvents = (int) (maxEvents * EVICTION_TARGET_RATIO);
+    long targetBytes = (long) (maxBytes * EVICTION_TARGET_RATIO);
+    int remaining = current.size;
+    int lastLossyEvictedId = current.lastLossyEvictedId;
+
+    // first pass drops superseded progress events, second pass drops any progress events
+    for (int pass = 0; pass < 2; pass++) {
+      for (int i = 0; i < current.size && (remaining > targetEvents || bytes > targetBytes); i++) {
+        Entry entry = current.get(i);
+        if (entry.evicted || !isEvictable(entry.event) || (pass == 0 && !entry.superseded)) {
+          continue;
+        }
+        entry.evicted = true;
+        removed(entry);
+        remaining--;
+        evictable--;
+        bytes -= entry.weight;
+        if (!entry.superseded) {
+          lastLossyEvictedId = Math.max(lastLossyEvictedId, entry.event.getId());
+          latestEntries.remove(supersedeKey(entry.event));
+        }
+      }
+    }
+
+    if (remaining >= maxEvents || bytes > maxBytes) {
+      if (!overBudgetLogged) {
+        LOG.warn(String.format("Retaining %d events (%d bytes) over budget of %d events (%d bytes)"
+            + " since terminal events are never evicted", remaining, bytes, maxEvents, maxBytes));
+        overBudgetLogged = true;
+      }
+    }
+
+    if (remaining == current.size) {
+      return current;
+    }
+    Entry[] entries = new Entry[newCapacity(remaining)];
+    int size = 0;
+    for (int i = 0; i < current.size; i++) {
+      Entry entry = current.get(i);
+      if (!entry.evicted) {
+        entries[size++] = entry;
+      }
+    }
+    return new Snapshot(entries, size, lastLossyEvictedId);
+  }
+
+  private void removed(Entry entry) {
+    if (removalListener != null) {
+      removalListener.onRemoval(entry.event);
+    }
+  }
+
+  private static boolean isEvictable(EncodedEvent event) {
+    switch (event.getType()) {
+      case JOB_PROGRESS:
+      case WORKFLOW_PROGRESS:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static String supersedeKey(EncodedEvent event) {
+    if (event.getType() == Event.Type.WORKFLOW_PROGRESS) {
+      return WORKFLOW_KEY;
+    }
+    if (event.getNodeName() != null) {
+      return "node:" + event.getNodeName();
+    }
+    return null;
+  }
+}
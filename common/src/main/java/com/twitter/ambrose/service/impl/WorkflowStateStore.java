@@ -0,0 +1,91 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.WorkflowState;
+import com.twitter.ambrose.model.WorkflowState.JobStatus;
+
+/**
+ * Folds the events of a workflow into its current {@link WorkflowState}, one event at a time.
+ * <p/>
+ * Each event replaces the state of its job, or the workflow's progress, so the state holds one
+ * event per job however many events were folded. The snapshot returned by
+ * {@link #getWorkflowState()} is built on the first call after an event and kept until the next
+ * one.
+ * <p/>
+ * Instances are thread safe.
+ */
+public class WorkflowStateStore {
+  private final Map<String, WorkflowState.Node> nodes = Maps.newLinkedHashMap();
+  private EncodedEvent workflowProgress;
+  private int lastEventId = -1;
+  private WorkflowState workflowState;
+
+  /**
+   * Folds an event into the state.
+   *
+   * @param event event to fold.
+   * @param encodedEvent encoded form of event, which is held as the latest event of its job.
+   * @return the encoded event this update stopped holding: the one encodedEvent replaced,
+   * encodedEvent itself if event isn't about a job or the workflow's progress, or null.
+   */
+  public synchronized EncodedEvent update(Event<?> event, EncodedEvent encodedEvent) {
+    lastEventId = Math.max(lastEventId, event.getId());
+    workflowState = null;
+    if (event.getType() == Event.Type.WORKFLOW_PROGRESS) {
+      EncodedEvent replaced = workflowProgress;
+      workflowProgress = encodedEvent;
+      return replaced;
+    }
+    if (!(event.getPayload() instanceof DAGNode)) {
+      return encodedEvent;
+    }
+    String name = ((DAGNode<?>) event.getPayload()).getName();
+    WorkflowState.Node previous = nodes.get(name);
+    JobStatus status;
+    switch (event.getType()) {
+      case JOB_FINISHED:
+        status = JobStatus.COMPLETE;
+        break;
+      case JOB_FAILED:
+        status = JobStatus.FAILED;
+        break;
+      default:
+        // a late progress event doesn't undo the completion of a job
+        status = previous == null ? JobStatus.RUNNING : previous.getStatus();
+    }
+    nodes.put(name, new WorkflowState.Node(name, status, encodedEvent));
+    return previous == null ? null : previous.getEvent();
+  }
+
+  /**
+   * @return state as of the last event folded in.
+   */
+  public synchronized WorkflowState getWorkflowState() {
+    if (workflowState == null) {
+      workflowState = new WorkflowState(lastEventId, workflowProgress,
+          ImmutableList.copyOf(nodes.values()));
+    }
+    return workflowState;
+  }
+}
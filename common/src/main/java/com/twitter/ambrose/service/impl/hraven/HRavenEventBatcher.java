@@ -0,0 +1,149 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.ambrose.service.impl.hraven;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.twitter.hraven.FlowEvent;
+import com.twitter.hraven.datasource.FlowEventService;
+
+/**
+ * Groups FlowEvents pushed by HRavenStatsWriteService into multi-put requests to hRaven's
+ * FlowEventService. Pending events are written once batchSize of them have accumulated, or
+ * flushIntervalMillis after the first of them was added, whichever comes first. All writes run on
+ * the given executor, which should be single threaded so that batches are written in order.
+ * <p/>
+ * When writes are slower than events arrive, events accumulate while a batch is being written and
+ * the next flush picks all of them up, so the number of requests stays bounded by the write latency
+ * rather than the event rate.
+ */
+class HRavenEventBatcher {
+  private static final Log LOG = LogFactory.getLog(HRavenEventBatcher.class);
+
+  /**
+   * Destination for batches of events. Production code writes to a FlowEventService.
+   */
+  interface EventWriter {
+    void addEvents(List<FlowEvent> events) throws IOException;
+  }
+
+  static EventWriter forFlowEventService(final FlowEventService flowEventService) {
+    return new EventWriter() {
+      @Override
+      public void addEvents(List<FlowEvent> events) throws IOException {
+        flowEventService.addEvents(events);
+      }
+    };
+  }
+
+  private final EventWriter writer;
+  private final ScheduledExecutorService executor;
+  private final int batchSize;
+  private final long flushIntervalMillis;
+  private final Runnable flushTask = new Runnable() {
+    @Override
+    public void run() {
+      flush();
+    }
+  };
+
+  private List<FlowEvent> pending = Lists.newArrayList();
+  private final AtomicLong eventCount = new AtomicLong();
+  private final AtomicLong requestCount = new AtomicLong();
+
+  HRavenEventBatcher(EventWriter writer, ScheduledExecutorService executor, int batchSize,
+      long flushIntervalMillis) {
+    Preconditions.checkArgument(batchSize > 0, "batchSize must be positive: %s", batchSize);
+    this.writer = Preconditions.checkNotNull(writer);
+    this.executor = Preconditions.checkNotNull(executor);
+    this.batchSize = batchSize;
+    this.flushIntervalMillis = flushIntervalMillis;
+  }
+
+  /**
+   * Queues an event to be written with the next batch.
+   */
+  void add(FlowEvent flowEvent) {
+    int size;
+    synchronized (this) {
+      pending.add(flowEvent);
+      size = pending.size();
+    }
+    if (size == batchSize) {
+      executor.submit(flushTask);
+    } else if (size == 1) {
+      executor.schedule(flushTask, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Asynchronously writes all pending events now, without waiting for the batch to fill.
+   */
+  void flushAsync() {
+    executor.submit(flushTask);
+  }
+
+  /**
+   * Writes all pending events on the calling thread, in requests of at most batchSize events.
+   */
+  void flush() {
+    List<FlowEvent> events;
+    synchronized (this) {
+      if (pending.isEmpty()) {
+        return;
+      }
+      events = pending;
+      pending = Lists.newArrayList();
+    }
+    for (List<FlowEvent> batch : Lists.partition(events, batchSize)) {
+      try {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(String.format("Submitting %d flowEvents to hRaven, up to sequence %d",
+              batch.size(), batch.get(batch.size() - 1).getFlowEventKey().getSequence()));
+        }
+        requestCount.incrementAndGet();
+        writer.addEvents(batch);
+        eventCount.addAndGet(batch.size());
+      } catch (Exception e) {
+        LOG.warn(String.format("Error making request to HRaven FlowEventService for %d events"
+            + " starting with flowEventKey: %s", batch.size(), batch.get(0).getFlowEventKey()), e);
+      }
+    }
+  }
+
+  /**
+   * @return number of events successfully written.
+   */
+  long getEventCount() {
+    return eventCount.get();
+  }
+
+  /**
+   * @return number of requests made to the EventWriter.
+   */
+  long getRequestCount() {
+    return requestCount.get();
+  }
+}
@@ -0,0 +1,143 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl.hraven;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.HTablePool;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.FilterList;
+import org.apache.hadoop.hbase.filter.PageFilter;
+import org.apache.hadoop.hbase.filter.PrefixFilter;
+import org.apache.hadoop.hbase.filter.WhileMatchFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.hraven.Constants;
+import com.twitter.hraven.FlowEventKey;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.datasource.FlowEventKeyConverter;
+import com.twitter.hraven.datasource.FlowEventService;
+import com.twitter.hraven.datasource.FlowKeyConverter;
+
+/**
+ * Reads a bounded range of a flow's events from hRaven's flow event table. Unlike
+ * FlowEventService.getFlowEventsSince, which reads every event after a given one, a scan here
+ * reads at most maxEvents rows, and only the column holding the event json, so its cost doesn't
+ * grow with the number of events the flow has.
+ */
+class HRavenEventScanner {
+  private static final int MAX_CACHING = 1000;
+  private static final int TABLE_POOL_SIZE = 10;
+
+  /**
+   * Events read by a scan, and the sequence number of the last row scanned.
+   */
+  static final class Page {
+    private final List<EncodedEvent> events;
+    private final int lastSequence;
+    private final boolean complete;
+
+    Page(List<EncodedEvent> events, int lastSequence, boolean complete) {
+      this.events = events;
+      this.lastSequence = lastSequence;
+      this.complete = complete;
+    }
+
+    /**
+     * @return events ordered by sequence ascending, holding the json data stored in hRaven as is.
+     * Event ids are the sequence numbers of the events. Rows without data are skipped.
+     */
+    List<EncodedEvent> getEvents() { return events; }
+
+    /**
+     * @return sequence number of the last row scanned, which the next scan should start after.
+     */
+    int getLastSequence() { return lastSequence; }
+
+    /**
+     * @return true if the scan reached the last event of the flow.
+     */
+    boolean isComplete() { return complete; }
+  }
+
+  private final FlowKeyConverter flowKeyConverter = new FlowKeyConverter();
+  private final FlowEventKeyConverter eventKeyConverter = new FlowEventKeyConverter();
+  private final HTablePool tablePool;
+
+  HRavenEventScanner(Configuration hbaseConf) {
+    this.tablePool = new HTablePool(hbaseConf, TABLE_POOL_SIZE);
+  }
+
+  /**
+   * Reads up to maxEvents events of a flow following the given sequence number.
+   *
+   * @param flowKey flow to read events of.
+   * @param afterSequence all events read will have a greater sequence number. Pass a negative
+   * value to read from the first event.
+   * @param maxEvents maximum number of events to read.
+   * @return the events read.
+   * @throws IOException if the table can't be scanned.
+   */
+  Page scan(FlowKey flowKey, int afterSequence, int maxEvents) throws IOException {
+    Preconditions.checkArgument(maxEvents > 0);
+    byte[] prefix = Bytes.add(flowKeyConverter.toBytes(flowKey), Constants.SEP_BYTES);
+    byte[] startRow = eventKeyConverter.toBytes(
+        new FlowEventKey(flowKey, Math.max(afterSequence, -1) + 1));
+
+    Scan scan = new Scan(startRow);
+    scan.addColumn(Constants.INFO_FAM_BYTES, FlowEventService.DATA_COL_BYTES);
+    scan.setFilter(new FilterList(
+        new WhileMatchFilter(new PrefixFilter(prefix)), new PageFilter(maxEvents)));
+    scan.setCaching(Math.min(maxEvents, MAX_CACHING));
+
+    List<EncodedEvent> events = Lists.newArrayListWithCapacity(Math.min(maxEvents, MAX_CACHING));
+    int rows = 0;
+    int lastSequence = afterSequence;
+    HTableInterface table = tablePool.getTable(Constants.FLOW_EVENT_TABLE_BYTES);
+    ResultScanner scanner = null;
+    try {
+      scanner = table.getScanner(scan);
+      // PageFilter is applied per region server, so the limit must be enforced here as well
+      while (rows < maxEvents) {
+        Result result = scanner.next();
+        if (result == null) {
+          break;
+        }
+        rows++;
+        FlowEventKey eventKey = eventKeyConverter.fromBytes(result.getRow());
+        lastSequence = eventKey.getSequence();
+        byte[] data = result.getValue(Constants.INFO_FAM_BYTES, FlowEventService.DATA_COL_BYTES);
+        if (data != null && data.length > 0) {
+          events.add(new EncodedEvent(lastSequence, null, null, data));
+        }
+      }
+    } finally {
+      if (scanner != null) {
+        scanner.close();
+      }
+      table.close();
+    }
+    return new Page(events, lastSequence, rows < maxEvents);
+  }
+}
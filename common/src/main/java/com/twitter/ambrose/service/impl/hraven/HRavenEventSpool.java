@@ -0,0 +1,594 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+package com.twitter.ambrose.service.impl.hraven;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.twitter.hraven.FlowEvent;
+import com.twitter.hraven.FlowEventKey;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.Framework;
+
+/**
+ * Append-only local write-ahead spool for FlowEvents. Each batch of events is appended to the
+ * current segment file and synced to disk with a single fsync before {@link #addEvents} returns.
+ * A background replayer then writes the spooled events to the downstream EventWriter (hRaven's
+ * FlowEventService) in order, retrying with exponential backoff while it fails, and deletes each
+ * segment once it has been rolled and fully replayed. Replay is at-least-once; writing a FlowEvent
+ * twice is harmless since hRaven stores events by FlowEventKey.
+ * <p/>
+ * Each spool lives in its own subdirectory of the configured root directory, locked for the
+ * lifetime of the spool. Segments left behind by a spool which was closed before they could be
+ * replayed, or by a process which died, are adopted and replayed by the next spool opened on the
+ * same root directory. Only directories unmodified for a grace period are adopted, so that the
+ * directory of a spool being opened by another process isn't taken before it is locked.
+ * <p/>
+ * A segment is a sequence of records, each an int length and a CRC32 checksum followed by the
+ * encoded event. A truncated or corrupt record, as left by a crash during an append, ends replay of
+ * its segment.
+ */
+class HRavenEventSpool implements HRavenEventBatcher.EventWriter {
+  private static final Log LOG = LogFactory.getLog(HRavenEventSpool.class);
+  private static final String LOCK_FILE = "spool.lock";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final int REPLAY_BATCH_SIZE = 100;
+
+  /**
+   * A spool directory and the lock held on it.
+   */
+  private static final class SpoolDir {
+    private final File dir;
+    private final RandomAccessFile lockFile;
+    private final FileLock lock;
+    private int segmentCount;
+
+    private SpoolDir(File dir, RandomAccessFile lockFile, FileLock lock) {
+      this.dir = dir;
+      this.lockFile = lockFile;
+      this.lock = lock;
+    }
+
+    /**
+     * Locks dir, returning null if it is locked by another spool.
+     */
+    private static SpoolDir tryLock(File dir) throws IOException {
+      RandomAccessFile lockFile = new RandomAccessFile(new File(dir, LOCK_FILE), "rw");
+      FileLock lock = null;
+      try {
+        lock = lockFile.getChannel().tryLock();
+      } catch (OverlappingFileLockException e) {
+        // locked by another spool in this process
+      } finally {
+        if (lock == null) {
+          lockFile.close();
+        }
+      }
+      return lock == null ? null : new SpoolDir(dir, lockFile, lock);
+    }
+
+    private void release(boolean delete) {
+      try {
+        lock.release();
+        lockFile.close();
+      } catch (IOException e) {
+        LOG.warn("Couldn't release spool lock in " + dir, e);
+      }
+      if (delete) {
+        new File(dir, LOCK_FILE).delete();
+        if (!dir.delete()) {
+          LOG.warn("Couldn't delete spool directory " + dir);
+        }
+      }
+    }
+  }
+
+  /**
+   * A segment file. Events up to committedLength are durable and may be replayed; the writer only
+   * advances committedLength, and sets sealed once it stops appending to the segment.
+   */
+  private static final class Segment {
+    private final SpoolDir owner;
+    private final File file;
+    private volatile long committedLength;
+    private volatile boolean sealed;
+
+    // replayer state
+    private DataInputStream in;
+    private volatile long readPosition;
+    private volatile List<FlowEvent> pending;
+    private boolean corrupt;
+
+    private Segment(SpoolDir owner, File file, long committedLength, boolean sealed) {
+      this.owner = owner;
+      this.file = file;
+      this.committedLength = committedLength;
+      this.sealed = sealed;
+    }
+
+    /**
+     * Reads up to maxEvents committed events which have not been read yet.
+     */
+    private List<FlowEvent> read(long committed, int maxEvents) throws IOException {
+      if (in == null) {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      }
+      List<FlowEvent> events = Lists.newArrayList();
+      while (!corrupt && readPosition < committed && events.size() < maxEvents) {
+        try {
+          int length = in.readInt();
+          long checksum = in.readLong();
+          if (length < 0 || readPosition + 12 + length > committed) {
+            throw new IOException("Invalid record length " + length);
+          }
+          byte[] record = new byte[length];
+          in.readFully(record);
+          if (crc(record) != checksum) {
+            throw new IOException("Checksum mismatch");
+          }
+          events.add(decode(record));
+          readPosition += 12 + length;
+        } catch (IOException e) {
+          LOG.warn(String.format("Skipping the rest of spool segment %s after position %d",
+              file, readPosition), e);
+          corrupt = true;
+        }
+      }
+      if (corrupt) {
+        readPosition = committed;
+      }
+      return events;
+    }
+
+    private boolean isReplayed() {
+      return readPosition >= committedLength && pending == null;
+    }
+
+    private void delete() {
+      closeQuietly(in);
+      if (!file.delete()) {
+        LOG.warn("Couldn't delete spool segment " + file);
+      }
+    }
+  }
+
+  private final HRavenEventBatcher.EventWriter downstream;
+  private final long segmentBytes;
+  private final long initialRetryMillis;
+  private final long maxRetryMillis;
+  private final long orphanGraceMillis;
+  private final SpoolDir spoolDir;
+  private final ScheduledExecutorService replayer;
+  private final AtomicBoolean replayScheduled = new AtomicBoolean();
+  private final Runnable replayTask = new Runnable() {
+    @Override
+    public void run() {
+      replayScheduled.set(false);
+      // a replay requested by addEvents while backing off waits until the retry time
+      long delayMillis = retryAtMillis - System.currentTimeMillis();
+      if (delayMillis > 0) {
+        scheduleReplay(delayMillis);
+        return;
+      }
+      replay();
+    }
+  };
+  /** Time before which downstream isn't retried after failing. Only set by the replayer. */
+  private volatile long retryAtMillis;
+
+  /** Segments not yet fully replayed, oldest first. Guarded by this. */
+  private final LinkedList<Segment> segments = Lists.newLinkedList();
+  private Segment activeSegment;
+  private FileOutputStream activeOut;
+  private long nextSegmentId;
+  private long retryMillis;
+  private boolean closed;
+
+  /**
+   * Opens a new spool under rootDir, adopting segments left behind by spools which are no longer
+   * open, and starts replaying them.
+   *
+   * @param rootDir directory holding spools.
+   * @param downstream writer to replay events to.
+   * @param segmentBytes size after which a new segment file is started.
+   * @param initialRetryMillis delay before the first retry after downstream fails.
+   * @param maxRetryMillis maximum delay between retries.
+   * @param orphanGraceMillis time for which a spool directory must be unmodified to be adopted.
+   * @throws IOException if the spool directory can't be created.
+   */
+  HRavenEventSpool(File rootDir, HRavenEventBatcher.EventWriter downstream, long segmentBytes,
+      long initialRetryMillis, long maxRetryMillis, long orphanGraceMillis) throws IOException {
+    this.downstream = downstream;
+    this.segmentBytes = segmentBytes;
+    this.initialRetryMillis = initialRetryMillis;
+    this.maxRetryMillis = maxRetryMillis;
+    this.orphanGraceMillis = orphanGraceMillis;
+    this.retryMillis = initialRetryMillis;
+
+    File dir = new File(rootDir, UUID.randomUUID().toString());
+    if (!dir.mkdirs()) {
+      throw new IOException("Couldn't create spool directory " + dir);
+    }
+    this.spoolDir = SpoolDir.tryLock(dir);
+    if (spoolDir == null) {
+      throw new IOException("Couldn't lock spool directory " + dir);
+    }
+    adoptOrphans(rootDir);
+
+    this.replayer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ambrose-hraven-spool-replayer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduleReplay(0);
+  }
+
+  private synchronized void adoptOrphans(File rootDir) throws IOException {
+    File[] dirs = rootDir.listFiles();
+    if (dirs == null) {
+      return;
+    }
+    long modifiedBefore = System.currentTimeMillis() - orphanGraceMillis;
+    for (File dir : dirs) {
+      if (!dir.isDirectory() || dir.equals(spoolDir.dir) || dir.lastModified() > modifiedBefore) {
+        continue;
+      }
+      SpoolDir orphan = SpoolDir.tryLock(dir);
+      if (orphan == null) {
+        continue;
+      }
+      File[] files = dir.listFiles();
+      Arrays.sort(files);
+      for (File file : files) {
+        if (file.getName().startsWith(SEGMENT_PREFIX)) {
+          segments.add(new Segment(orphan, file, file.length(), true));
+          orphan.segmentCount++;
+        }
+      }
+      if (orphan.segmentCount == 0) {
+        orphan.release(true);
+      } else {
+        LOG.info(String.format("Replaying %d spooled segments from %s", orphan.segmentCount, dir));
+      }
+    }
+  }
+
+  /**
+   * Appends events to the spool, returning once they are durable.
+   *
+   * @throws IOException if the spool has been closed or the events couldn't be written.
+   */
+  @Override
+  public void addEvents(List<FlowEvent> events) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buffer);
+    for (FlowEvent event : events) {
+      byte[] record = encode(event);
+      out.writeInt(record.length);
+      out.writeLong(crc(record));
+      out.write(record);
+    }
+    append(buffer.toByteArray());
+    scheduleReplay(0);
+  }
+
+  private synchronized void append(byte[] records) throws IOException {
+    if (closed) {
+      throw new IOException("Spool is closed");
+    }
+    if (activeSegment == null || activeSegment.committedLength >= segmentBytes) {
+      roll();
+    }
+    try {
+      write(activeOut, records);
+    } catch (IOException e) {
+      discardUncommitted();
+      throw e;
+    }
+    activeSegment.committedLength += records.length;
+  }
+
+  /**
+   * Writes records to the active segment and syncs them to disk.
+   */
+  void write(FileOutputStream out, byte[] records) throws IOException {
+    out.write(records);
+    out.getChannel().force(false);
+  }
+
+  /**
+   * Truncates the active segment to its committed length after a failed append, so that the next
+   * append starts on a record boundary. If that fails too, the segment is sealed at its committed
+   * length and the next append starts a new one.
+   */
+  private void discardUncommitted() {
+    try {
+      activeOut.getChannel().truncate(activeSegment.committedLength);
+    } catch (IOException e) {
+      LOG.warn("Couldn't truncate failed append to " + activeSegment.file + "; sealing it", e);
+      sealActiveSegment();
+    }
+  }
+
+  private void roll() throws IOException {
+    sealActiveSegment();
+    File file = new File(spoolDir.dir, String.format("%s%020d%s",
+        SEGMENT_PREFIX, nextSegmentId++, SEGMENT_SUFFIX));
+    activeOut = new FileOutputStream(file);
+    activeSegment = new Segment(spoolDir, file, 0, false);
+    segments.add(activeSegment);
+    spoolDir.segmentCount++;
+  }
+
+  private void sealActiveSegment() {
+    if (activeSegment != null) {
+      closeQuietly(activeOut);
+      activeSegment.sealed = true;
+      activeSegment = null;
+      activeOut = null;
+    }
+  }
+
+  /**
+   * Schedules a replay after delayMillis, or once the retry time has passed if later, unless one is
+   * already scheduled.
+   */
+  private void scheduleReplay(long delayMillis) {
+    if (replayScheduled.compareAndSet(false, true)) {
+      delayMillis = Math.max(delayMillis, retryAtMillis - System.currentTimeMillis());
+      replayer.schedule(replayTask, delayMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Replays spooled events until caught up or downstream fails.
+   */
+  private void replay() {
+    while (true) {
+      Segment segment;
+      synchronized (this) {
+        segment = segments.peekFirst();
+        // roll an idle segment once it has been replayed, so it can be deleted
+        if (segment != null && segment == activeSegment && segment.isReplayed()
+            && (closed || segment.committedLength >= segmentBytes)) {
+          sealActiveSegment();
+        }
+      }
+      if (segment == null) {
+        return;
+      }
+
+      // read sealed first, so that committedLength is final if the segment is sealed
+      boolean sealed = segment.sealed;
+      long committed = segment.committedLength;
+      try {
+        if (segment.pending == null && segment.readPosition < committed) {
+          segment.pending = segment.read(committed, REPLAY_BATCH_SIZE);
+        }
+        if (segment.pending != null) {
+          if (!segment.pending.isEmpty()) {
+            downstream.addEvents(segment.pending);
+          }
+          segment.pending = null;
+          retryMillis = initialRetryMillis;
+          retryAtMillis = 0;
+        } else if (sealed) {
+          removeSegment(segment);
+        } else {
+          return;
+        }
+      } catch (Exception e) {
+        LOG.warn(String.format("Error replaying spooled events from %s to hRaven, retrying in %d ms",
+            segment.file, retryMillis), e);
+        retryAtMillis = System.currentTimeMillis() + retryMillis;
+        scheduleReplay(retryMillis);
+        retryMillis = Math.min(retryMillis * 2, maxRetryMillis);
+        return;
+      }
+    }
+  }
+
+  private synchronized void removeSegment(Segment segment) {
+    segment.delete();
+    segments.remove(segment);
+    SpoolDir owner = segment.owner;
+    owner.segmentCount--;
+    if (owner != spoolDir && owner.segmentCount == 0) {
+      owner.release(true);
+    }
+  }
+
+  /**
+   * @return number of spooled bytes not yet read by the replayer.
+   */
+  synchronized long getBacklogBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += segment.committedLength - segment.readPosition;
+    }
+    return bytes;
+  }
+
+  /**
+   * @return true if some spooled events have not been replayed yet.
+   */
+  synchronized boolean hasBacklog() {
+    for (Segment segment : segments) {
+      if (!segment.isReplayed()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Stops accepting events and waits up to timeoutMillis for spooled events to be replayed. Events
+   * still spooled afterwards remain on disk, to be replayed by the next spool opened on the same
+   * root directory.
+   */
+  void close(long timeoutMillis) {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    scheduleReplay(0);
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    try {
+      while (hasBacklog() && System.currentTimeMillis() < deadline) {
+        Thread.sleep(50);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    replayer.shutdownNow();
+    try {
+      replayer.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    synchronized (this) {
+      sealActiveSegment();
+      if (hasBacklog()) {
+        LOG.warn(String.format("Leaving %d bytes of events spooled in %s for replay by a later run",
+            getBacklogBytes(), spoolDir.dir));
+      }
+      Set<SpoolDir> owners = Sets.newIdentityHashSet();
+      owners.add(spoolDir);
+      for (Iterator<Segment> it = segments.iterator(); it.hasNext();) {
+        Segment segment = it.next();
+        owners.add(segment.owner);
+        if (segment.isReplayed()) {
+          segment.delete();
+          segment.owner.segmentCount--;
+        } else {
+          closeQuietly(segment.in);
+        }
+        it.remove();
+      }
+      for (SpoolDir owner : owners) {
+        owner.release(owner.segmentCount == 0);
+      }
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      LOG.warn("Couldn't close spool file", e);
+    }
+  }
+
+  private static long crc(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return crc.getValue();
+  }
+
+  static byte[] encode(FlowEvent event) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(buffer);
+    FlowEventKey eventKey = event.getFlowEventKey();
+    writeString(out, eventKey.getCluster());
+    writeString(out, eventKey.getUserName());
+    writeString(out, eventKey.getAppId());
+    out.writeLong(eventKey.getRunId());
+    out.writeInt(eventKey.getSequence());
+    out.writeLong(event.getTimestamp());
+    writeString(out, event.getFramework() == null ? null : event.getFramework().name());
+    writeString(out, event.getType());
+    writeString(out, event.getEventDataJSON());
+    out.flush();
+    return buffer.toByteArray();
+  }
+
+  static FlowEvent decode(byte[] record) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+    FlowKey flowKey = new FlowKey(readString(in), readString(in), readString(in), in.readLong());
+    FlowEvent event = new FlowEvent(new FlowEventKey(flowKey, in.readInt()));
+    event.setTimestamp(in.readLong());
+    String framework = readString(in);
+    if (framework != null) {
+      event.setFramework(Framework.valueOf(framework));
+    }
+    event.setType(readString(in));
+    event.setEventDataJSON(readString(in));
+    return event;
+  }
+
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > in.available()) {
+      throw new EOFException("String length " + length + " exceeds record");
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+}
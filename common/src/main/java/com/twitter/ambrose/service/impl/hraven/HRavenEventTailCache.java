@@ -0,0 +1,334 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl.hraven;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.EncodedEvent;
+
+/**
+ * Holds the last events of recently viewed workflows in memory, so that viewers polling the same
+ * workflow are answered without each of them scanning hRaven.
+ * <p/>
+ * The tail of a workflow is loaded when it is first requested. The page asked for by that request
+ * is scanned first and returned to it. If that page reached the last event of the workflow, the
+ * tail is built from it. Otherwise the sequence number of the last event is found with single row
+ * probes, and only the last capacity events are scanned, so loading the tail for a viewer starting
+ * at the first event of a long workflow doesn't read its whole history. Concurrent requests for a
+ * workflow whose tail is being loaded wait for that load rather than scanning hRaven themselves.
+ * Loaded tails are then refreshed on the given executor every refreshMillis with one scan per
+ * workflow, keeping at most capacity events, and are dropped once they haven't been requested for
+ * idleMillis.
+ * <p/>
+ * A request for events older than those held by a tail can't be answered from it, in which case
+ * {@link #get} returns null and the caller should scan hRaven itself.
+ */
+class HRavenEventTailCache {
+  private static final Log LOG = LogFactory.getLog(HRavenEventTailCache.class);
+
+  /**
+   * Source of events. Production code reads from an HRavenEventScanner.
+   */
+  interface EventSource {
+    HRavenEventScanner.Page scan(String workflowId, int afterSequence, int maxEvents)
+        throws IOException;
+  }
+
+  /**
+   * Immutable state of a tail. All events with ids greater than coveredAfter and up to
+   * lastSequence are held in events.
+   */
+  private static final class Snapshot {
+    private final List<EncodedEvent> events;
+    private final int coveredAfter;
+    private final int lastSequence;
+
+    private Snapshot(List<EncodedEvent> events, int coveredAfter, int lastSequence) {
+      this.events = events;
+      this.coveredAfter = coveredAfter;
+      this.lastSequence = lastSequence;
+    }
+
+    private HRavenEventScanner.Page read(int eventId, int maxEvents) {
+      // binary search for the first event with id greater than eventId
+      int from = 0;
+      int to = events.size();
+      while (from < to) {
+        int mid = (from + to) >>> 1;
+        if (events.get(mid).getId() <= eventId) {
+          from = mid + 1;
+        } else {
+          to = mid;
+        }
+      }
+      if (events.size() - from <= maxEvents) {
+        return new HRavenEventScanner.Page(events.subList(from, events.size()),
+            Math.max(eventId, lastSequence), true);
+      }
+      List<EncodedEvent> page = events.subList(from, from + maxEvents);
+      return new HRavenEventScanner.Page(page, page.get(page.size() - 1).getId(), false);
+    }
+  }
+
+  private final class Tail {
+    private final String workflowId;
+    /** loads the tail, returning the page asked for by the request which created it */
+    private final FutureTask<HRavenEventScanner.Page> load;
+    private volatile Snapshot snapshot;
+    private volatile long lastAccessMillis = System.currentTimeMillis();
+
+    private Tail(final String workflowId, final int eventId, final int maxEvents) {
+      this.workflowId = workflowId;
+      this.load = new FutureTask<HRavenEventScanner.Page>(
+          new Callable<HRavenEventScanner.Page>() {
+            @Override
+            public HRavenEventScanner.Page call() throws IOException {
+              return load(Tail.this, eventId, maxEvents);
+            }
+          });
+    }
+  }
+
+  private final EventSource source;
+  private final int capacity;
+  private final long idleMillis;
+  private final ConcurrentMap<String, Tail> tails = Maps.newConcurrentMap();
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong loadCount = new AtomicLong();
+  private final AtomicLong scanCount = new AtomicLong();
+
+  HRavenEventTailCache(EventSource source, ScheduledExecutorService executor, int capacity,
+      long refreshMillis, long idleMillis) {
+    Preconditions.checkArgument(capacity > 0, "capacity must be positive: %s", capacity);
+    this.source = Preconditions.checkNotNull(source);
+    this.capacity = capacity;
+    this.idleMillis = idleMillis;
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        refresh();
+      }
+    }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Reads up to maxEvents events of a workflow following the given event id from its tail, loading
+   * the tail if it isn't held yet. A request which loads the tail is answered with the page scanned
+   * for it, even if the tail doesn't hold all of its events.
+   *
+   * @return the events read, or null if the tail doesn't hold all events following eventId.
+   * @throws IOException if the tail had to be loaded and couldn't be.
+   */
+  HRavenEventScanner.Page get(String workflowId, int eventId, int maxEvents) throws IOException {
+    Preconditions.checkArgument(maxEvents > 0);
+    Tail tail = tails.get(workflowId);
+    boolean loaded = false;
+    if (tail == null) {
+      Tail newTail = new Tail(workflowId, eventId, maxEvents);
+      tail = tails.putIfAbsent(workflowId, newTail);
+      if (tail == null) {
+        tail = newTail;
+        loaded = true;
+        loadCount.incrementAndGet();
+        tail.load.run();
+      }
+    }
+    tail.lastAccessMillis = System.currentTimeMillis();
+
+    HRavenEventScanner.Page loadedPage;
+    try {
+      loadedPage = tail.load.get();
+    } catch (ExecutionException e) {
+      // let the next request retry the load
+      tails.remove(workflowId, tail);
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for events of " + workflowId);
+    }
+
+    if (loaded) {
+      return loadedPage;
+    }
+    Snapshot snapshot = tail.snapshot;
+    if (eventId < snapshot.coveredAfter) {
+      return null;
+    }
+    hitCount.incrementAndGet();
+    return snapshot.read(eventId, maxEvents);
+  }
+
+  /**
+   * Drops idle tails and reads new events of the others.
+   */
+  void refresh() {
+    long now = System.currentTimeMillis();
+    for (Tail tail : tails.values()) {
+      if (now - tail.lastAccessMillis > idleMillis) {
+        tails.remove(tail.workflowId, tail);
+        continue;
+      }
+      if (!tail.load.isDone() || tail.snapshot == null) {
+        continue;
+      }
+      try {
+        tail.snapshot = fill(tail.workflowId, tail.snapshot);
+      } catch (Exception e) {
+        LOG.warn("Could not refresh events of " + tail.workflowId, e);
+      }
+    }
+  }
+
+  private HRavenEventScanner.Page load(Tail tail, int eventId, int maxEvents)
+      throws IOException {
+    scanCount.incrementAndGet();
+    HRavenEventScanner.Page page = source.scan(tail.workflowId, eventId, maxEvents);
+    Snapshot empty = new Snapshot(ImmutableList.<EncodedEvent>of(), eventId, eventId);
+    if (page.isComplete()) {
+      tail.snapshot = append(empty, page);
+      return page;
+    }
+
+    int lastSequence = findLastSequence(tail.workflowId, page.getLastSequence());
+    Snapshot snapshot;
+    if (lastSequence - capacity <= page.getLastSequence()) {
+      snapshot = append(empty, page);
+    } else {
+      int afterSequence = lastSequence - capacity;
+      snapshot = new Snapshot(ImmutableList.<EncodedEvent>of(), afterSequence, afterSequence);
+    }
+    tail.snapshot = fill(tail.workflowId, snapshot);
+    return page;
+  }
+
+  /**
+   * Finds the sequence number of the last event of a workflow by probing for rows after doubling
+   * offsets from a known row, then bisecting, reading at most one row per scan.
+   *
+   * @param knownSequence sequence number of an existing row.
+   */
+  private int findLastSequence(String workflowId, int knownSequence) throws IOException {
+    int known = knownSequence;
+    long step = capacity;
+    int bound;
+    while (true) {
+      int probe = (int) Math.min(known + step, Integer.MAX_VALUE);
+      HRavenEventScanner.Page page = probe(workflowId, probe);
+      if (page.isComplete()) {
+        bound = probe;
+        break;
+      }
+      known = page.getLastSequence();
+      step *= 2;
+    }
+    // a row exists at known, and none after bound
+    while (bound - known > 1) {
+      int probe = known + (bound - known) / 2;
+      HRavenEventScanner.Page page = probe(workflowId, probe);
+      if (page.isComplete()) {
+        bound = probe;
+      } else {
+        known = page.getLastSequence();
+      }
+    }
+    return known;
+  }
+
+  private HRavenEventScanner.Page probe(String workflowId, int afterSequence)
+      throws IOException {
+    scanCount.incrementAndGet();
+    return source.scan(workflowId, afterSequence, 1);
+  }
+
+  private Snapshot fill(String workflowId, Snapshot snapshot) throws IOException {
+    HRavenEventScanner.Page page;
+    do {
+      scanCount.incrementAndGet();
+      page = source.scan(workflowId, snapshot.lastSequence, capacity);
+      snapshot = append(snapshot, page);
+    } while (!page.isComplete());
+    return snapshot;
+  }
+
+  /**
+   * @return the given snapshot followed by the events of page, keeping at most capacity events.
+   */
+  private Snapshot append(Snapshot snapshot, HRavenEventScanner.Page page) {
+    if (page.getEvents().isEmpty()) {
+      return new Snapshot(snapshot.events, snapshot.coveredAfter,
+          Math.max(snapshot.lastSequence, page.getLastSequence()));
+    }
+    int coveredAfter = snapshot.coveredAfter;
+    List<EncodedEvent> merged = Lists.newArrayListWithCapacity(
+        snapshot.events.size() + page.getEvents().size());
+    merged.addAll(snapshot.events);
+    merged.addAll(page.getEvents());
+    if (merged.size() > capacity) {
+      int dropped = merged.size() - capacity;
+      coveredAfter = merged.get(dropped - 1).getId();
+      merged = merged.subList(dropped, merged.size());
+    }
+    return new Snapshot(Collections.unmodifiableList(Lists.newArrayList(merged)), coveredAfter,
+        page.getLastSequence());
+  }
+
+  /**
+   * @return number of tails held.
+   */
+  int size() {
+    return tails.size();
+  }
+
+  /**
+   * @return number of requests answered from a tail.
+   */
+  long getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * @return number of tails loaded.
+   */
+  long getLoadCount() {
+    return loadCount.get();
+  }
+
+  /**
+   * @return number of scans made to load or refresh tails.
+   */
+  long getScanCount() {
+    return scanCount.get();
+  }
+}
@@ -16,13 +16,23 @@ limitations under the License.
 package com.twitter.ambrose.service.impl.hraven;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.Lists;
 
 import org.apache.commons.logging.Log;
@@ -30,29 +40,163 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 
+import com.twitter.ambrose.model.CriticalPath;
 import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
 import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.PaginatedList;
+import com.twitter.ambrose.model.WorkflowGraph;
 import com.twitter.ambrose.model.WorkflowId;
+import com.twitter.ambrose.model.WorkflowState;
+import com.twitter.ambrose.service.CriticalPathReadService;
+import com.twitter.ambrose.service.EncodedEventReadService;
 import com.twitter.ambrose.service.StatsReadService;
+import com.twitter.ambrose.service.WorkflowGraphReadService;
+import com.twitter.ambrose.service.WorkflowStateReadService;
+import com.twitter.ambrose.service.impl.CriticalPathAnalyzer;
+import com.twitter.ambrose.service.impl.WorkflowStateStore;
 import com.twitter.ambrose.util.JSONUtil;
 import com.twitter.hraven.Flow;
-import com.twitter.hraven.FlowEvent;
-import com.twitter.hraven.FlowEventKey;
 import com.twitter.hraven.FlowKey;
-import com.twitter.hraven.datasource.FlowEventService;
 import com.twitter.hraven.datasource.FlowQueueService;
 
 /**
  * Service that is able to read the dag and event from HRaven.
+ * <p/>
+ * DAGs are cached after being read. The DAG of a workflow which has succeeded or failed can no
+ * longer change, so it is kept until evicted by a least recently used policy once the total size
+ * of cached DAGs, measured as job graph json length, exceeds a budget. The DAG of a running
+ * workflow is only kept for a short time. The cache is configured with the following system
+ * properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #DAG_CACHE_MAX_BYTES_PARAM}</code> - maximum total size of cached DAGs of
+ *     completed workflows. Defaults to {@value #DAG_CACHE_MAX_BYTES_DEFAULT}.</li>
+ *     <li><code>{@value #DAG_CACHE_RUNNING_TTL_MS_PARAM}</code> - time in milliseconds for which
+ *     the DAG of a running workflow is cached. Defaults to
+ *     {@value #DAG_CACHE_RUNNING_TTL_MS_DEFAULT}.</li>
+ *   </ul>
+ * </pre>
+ * Cached DAGs are shared between callers, so the returned map is unmodifiable and its nodes must
+ * not be modified.
+ * <p/>
+ * Events can also be read in the encoded form stored in hRaven through
+ * {@link EncodedEventReadService}, which lets the HTTP API copy them into responses without
+ * decoding and re-encoding each one.
+ * <p/>
+ * The last events of workflows which are being viewed and not known to be completed are held in
+ * memory and refreshed in the background, so that viewers polling the same workflow share one
+ * hRaven scan rather than each making their own. The critical path and state of a running workflow
+ * are also kept, and only updated with the events which followed the previous request for them.
+ * This is configured with the following system properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #EVENT_TAIL_SIZE_PARAM}</code> - maximum number of events held per
+ *     workflow. Set to 0 to disable. Defaults to {@value #EVENT_TAIL_SIZE_DEFAULT}.</li>
+ *     <li><code>{@value #EVENT_TAIL_REFRESH_MS_PARAM}</code> - time in milliseconds between reads
+ *     of new events. Defaults to {@value #EVENT_TAIL_REFRESH_MS_DEFAULT}.</li>
+ *     <li><code>{@value #EVENT_TAIL_IDLE_MS_PARAM}</code> - time in milliseconds after which the
+ *     events of a workflow no longer requested, and the critical path and state of a running
+ *     workflow, are dropped. Defaults to {@value #EVENT_TAIL_IDLE_MS_DEFAULT}.</li>
+ *   </ul>
+ * </pre>
  */
-public class HRavenStatsReadService implements StatsReadService {
+public class HRavenStatsReadService implements StatsReadService, EncodedEventReadService,
+    WorkflowGraphReadService, CriticalPathReadService, WorkflowStateReadService {
   private static final Log LOG = LogFactory.getLog(HRavenStatsReadService.class);
 
+  /**
+   * Name of system property used to configure the maximum size of cached DAGs.
+   */
+  public static final String DAG_CACHE_MAX_BYTES_PARAM = "ambrose.hraven.dag.cache.max.bytes";
+  /**
+   * Name of system property used to configure how long DAGs of running workflows are cached.
+   */
+  public static final String DAG_CACHE_RUNNING_TTL_MS_PARAM =
+      "ambrose.hraven.dag.cache.running.ttl.ms";
+  public static final long DAG_CACHE_MAX_BYTES_DEFAULT = 64L * 1024 * 1024;
+  public static final long DAG_CACHE_RUNNING_TTL_MS_DEFAULT = 5000;
+  private static final int DAG_CACHE_RUNNING_MAX_SIZE = 1000;
+
+  /**
+   * Name of system property used to configure the number of recent events held per workflow.
+   */
+  public static final String EVENT_TAIL_SIZE_PARAM = "ambrose.hraven.events.tail.size";
+  /**
+   * Name of system property used to configure how often held events are refreshed.
+   */
+  public static final String EVENT_TAIL_REFRESH_MS_PARAM = "ambrose.hraven.events.tail.refresh.ms";
+  /**
+   * Name of system property used to configure when held events of idle workflows are dropped.
+   */
+  public static final String EVENT_TAIL_IDLE_MS_PARAM = "ambrose.hraven.events.tail.idle.ms";
+  public static final int EVENT_TAIL_SIZE_DEFAULT = 1000;
+  public static final long EVENT_TAIL_REFRESH_MS_DEFAULT = 1000;
+  public static final long EVENT_TAIL_IDLE_MS_DEFAULT = 60000;
+
   private final FlowQueueService flowQueueService;
-  private final FlowEventService flowEventService;
+  private final HRavenEventScanner eventScanner;
+  /** recent events of viewed workflows, null if disabled */
+  private final HRavenEventTailCache eventTail;
+
+  /** DAGs of completed workflows */
+  private final Cache<String, CachedDag> completedDags;
+  /** DAGs of running workflows */
+  private final Cache<String, CachedDag> runningDags;
+  /** state folded from the events of running workflows read so far */
+  private final Cache<String, FoldedEvents> runningFolds;
+  private final AtomicLong dagCacheHits = new AtomicLong();
+  private final AtomicLong dagCacheMisses = new AtomicLong();
+  private final AtomicLong dagCacheEvictions = new AtomicLong();
   
   // By default, we return as many events as possible in getEventsSinceId api
   private static final int DEFAULT_MAX_EVENTS = Integer.MAX_VALUE;
+  // Events read from hRaven at once when analyzing critical paths or folding workflow state
+  private static final int FOLD_PAGE_SIZE = 1000;
+
+  /**
+   * A decoded DAG, its graph and the length of the json it was decoded from.
+   */
+  @SuppressWarnings("rawtypes")
+  private static final class CachedDag {
+    private final Map<String, DAGNode> dagMap;
+    private final WorkflowGraph graph;
+    private final int weight;
+    /** true if the workflow had succeeded or failed when its DAG was read */
+    private final boolean completed;
+    /** analyzed once all events of a completed workflow have been read */
+    private volatile CriticalPath criticalPath;
+    /** folded once all events of a completed workflow have been read */
+    private volatile WorkflowState workflowState;
+
+    @SuppressWarnings("unchecked")
+    private CachedDag(Map<String, DAGNode> dagMap, int weight, boolean completed) {
+      this.dagMap = dagMap;
+      this.graph = WorkflowGraph.of((Map) dagMap);
+      this.weight = weight;
+      this.completed = completed;
+    }
+  }
+
+  /**
+   * State folded from the events of a workflow read so far, and the ids to continue reading after,
+   * so that requests about a running workflow only read the events which followed the previous
+   * request. Guarded by itself.
+   */
+  private static final class FoldedEvents {
+    private CriticalPathAnalyzer analyzer;
+    private int analyzedEventId = -1;
+    private WorkflowStateStore stateStore;
+    private int storedEventId = -1;
+  }
+
+  /**
+   * Receives the events of a workflow in order.
+   */
+  @SuppressWarnings("rawtypes")
+  private interface EventFold {
+    void update(Event event, EncodedEvent encodedEvent);
+  }
 
   /**
    * Creates an HRavenStatsReadService
@@ -65,12 +209,65 @@ public class HRavenStatsReadService implements StatsReadService {
     } catch (IOException e) {
       throw new RuntimeException("Could not instantiate hRaven FlowQueueService", e);
     }
+    eventScanner = new HRavenEventScanner(configuration);
 
-    try {
-      flowEventService = new FlowEventService(configuration);
-    } catch (IOException e) {
-      throw new RuntimeException("Could not instantiate hRaven FlowEventService", e);
+    int eventTailSize = Integer.getInteger(EVENT_TAIL_SIZE_PARAM, EVENT_TAIL_SIZE_DEFAULT);
+    if (eventTailSize > 0) {
+      HRavenEventTailCache.EventSource eventSource = new HRavenEventTailCache.EventSource() {
+        @Override
+        public HRavenEventScanner.Page scan(String workflowId, int afterSequence, int maxEvents)
+            throws IOException {
+          return eventScanner.scan(
+              toFlowKey(WorkflowId.parseString(workflowId)), afterSequence, maxEvents);
+        }
+      };
+      eventTail = new HRavenEventTailCache(eventSource,
+          Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+              Thread thread = new Thread(runnable, "ambrose-hraven-event-tail");
+              thread.setDaemon(true);
+              return thread;
+            }
+          }),
+          eventTailSize,
+          Long.getLong(EVENT_TAIL_REFRESH_MS_PARAM, EVENT_TAIL_REFRESH_MS_DEFAULT),
+          Long.getLong(EVENT_TAIL_IDLE_MS_PARAM, EVENT_TAIL_IDLE_MS_DEFAULT));
+    } else {
+      eventTail = null;
     }
+
+    RemovalListener<String, CachedDag> evictionCounter = new RemovalListener<String, CachedDag>() {
+      @Override
+      public void onRemoval(RemovalNotification<String, CachedDag> notification) {
+        if (notification.wasEvicted()) {
+          dagCacheEvictions.incrementAndGet();
+        }
+      }
+    };
+    completedDags = CacheBuilder.newBuilder()
+        .maximumWeight(Long.getLong(DAG_CACHE_MAX_BYTES_PARAM, DAG_CACHE_MAX_BYTES_DEFAULT))
+        .weigher(new Weigher<String, CachedDag>() {
+          @Override
+          public int weigh(String workflowId, CachedDag dag) {
+            return dag.weight;
+          }
+        })
+        .removalListener(evictionCounter)
+        .build();
+    runningDags = CacheBuilder.newBuilder()
+        .maximumSize(DAG_CACHE_RUNNING_MAX_SIZE)
+        .expireAfterWrite(
+            Long.getLong(DAG_CACHE_RUNNING_TTL_MS_PARAM, DAG_CACHE_RUNNING_TTL_MS_DEFAULT),
+            TimeUnit.MILLISECONDS)
+        .removalListener(evictionCounter)
+        .build();
+    runningFolds = CacheBuilder.newBuilder()
+        .maximumSize(DAG_CACHE_RUNNING_MAX_SIZE)
+        .expireAfterAccess(
+            Long.getLong(EVENT_TAIL_IDLE_MS_PARAM, EVENT_TAIL_IDLE_MS_DEFAULT),
+            TimeUnit.MILLISECONDS)
+        .build();
   }
   
   @Override
@@ -82,12 +279,167 @@ public class HRavenStatsReadService implements StatsReadService {
    * Gets the dag nodes for this workflowId. Returns null if the workflow does not exist.
    *
    * @param workflowId the id of the workflow
-   * @return a map of nodeIds to DAGNodes
+   * @return an unmodifiable map of nodeIds to DAGNodes
    * @throws IOException
    */
   @SuppressWarnings("rawtypes")
   @Override
   public Map<String, DAGNode> getDagNodeNameMap(String workflowId) throws IOException {
+    CachedDag dag = getDag(workflowId);
+    return dag == null ? null : dag.dagMap;
+  }
+
+  /**
+   * Gets the graph of the dag nodes for this workflowId, which is built once per cached DAG.
+   * Returns null if the workflow does not exist.
+   */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public WorkflowGraph getWorkflowGraph(String workflowId) throws IOException {
+    CachedDag dag = getDag(workflowId);
+    return dag == null ? null : dag.graph;
+  }
+
+  /**
+   * Analyzes the critical path of this workflowId from all of its events. The analysis of a running
+   * workflow is kept and updated with the events read since the previous call, and that of a
+   * completed workflow is kept with its cached DAG. Returns null if the workflow does not exist.
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  @Override
+  public CriticalPath getCriticalPath(String workflowId) throws IOException {
+    CachedDag dag = getDag(workflowId);
+    if (dag == null) {
+      return null;
+    }
+    if (dag.criticalPath != null) {
+      return dag.criticalPath;
+    }
+    FoldedEvents folded = getFoldedEvents(workflowId, dag);
+    CriticalPath criticalPath;
+    synchronized (folded) {
+      if (folded.analyzer == null) {
+        folded.analyzer = new CriticalPathAnalyzer(dag.graph);
+      }
+      final CriticalPathAnalyzer analyzer = folded.analyzer;
+      folded.analyzedEventId = foldEvents(workflowId, folded.analyzedEventId, new EventFold() {
+        @Override
+        public void update(Event event, EncodedEvent encodedEvent) {
+          analyzer.update(event);
+        }
+      });
+      criticalPath = analyzer.getCriticalPath();
+    }
+    if (dag.completed) {
+      dag.criticalPath = criticalPath;
+    }
+    return criticalPath;
+  }
+
+  /**
+   * Folds the current state of this workflowId from all of its events. As with critical paths, the
+   * state of a running workflow is kept and updated with the events read since the previous call,
+   * and that of a completed workflow is kept with its cached DAG. Events are held in the state as
+   * read from hRaven. Returns null if the workflow does not exist.
+   */
+  @SuppressWarnings("rawtypes")
+  @Override
+  public WorkflowState getWorkflowState(String workflowId) throws IOException {
+    CachedDag dag = getDag(workflowId);
+    if (dag == null) {
+      return null;
+    }
+    if (dag.workflowState != null) {
+      return dag.workflowState;
+    }
+    FoldedEvents folded = getFoldedEvents(workflowId, dag);
+    WorkflowState workflowState;
+    synchronized (folded) {
+      if (folded.stateStore == null) {
+        folded.stateStore = new WorkflowStateStore();
+      }
+      final WorkflowStateStore store = folded.stateStore;
+      folded.storedEventId = foldEvents(workflowId, folded.storedEventId, new EventFold() {
+        @Override
+        public void update(Event event, EncodedEvent encodedEvent) {
+          store.update(event, encodedEvent);
+        }
+      });
+      workflowState = store.getWorkflowState();
+    }
+    if (dag.completed) {
+      dag.workflowState = workflowState;
+    }
+    return workflowState;
+  }
+
+  /**
+   * @return the state folded for a workflow so far. A new state is kept for a running workflow,
+   * while that of a completed workflow is only kept if it was folded while it was running.
+   */
+  private FoldedEvents getFoldedEvents(String workflowId, CachedDag dag) {
+    FoldedEvents folded = runningFolds.getIfPresent(workflowId);
+    if (folded == null) {
+      folded = new FoldedEvents();
+      if (!dag.completed) {
+        FoldedEvents existing = runningFolds.asMap().putIfAbsent(workflowId, folded);
+        if (existing != null) {
+          folded = existing;
+        }
+      }
+    }
+    return folded;
+  }
+
+  /**
+   * Reads the events of a workflow following eventId and passes them to fold, reading at most
+   * {@value #FOLD_PAGE_SIZE} events at a time. Events which can't be deserialized are skipped.
+   *
+   * @return the id to pass as eventId to continue reading after the events read.
+   */
+  @SuppressWarnings("rawtypes")
+  private int foldEvents(String workflowId, int eventId, EventFold fold) throws IOException {
+    HRavenEventScanner.Page page;
+    do {
+      page = scanEvents(workflowId, eventId, FOLD_PAGE_SIZE);
+      for (EncodedEvent encodedEvent : page.getEvents()) {
+        Event event;
+        try {
+          event = encodedEvent.toEvent();
+        } catch (JsonMappingException e) {
+          LOG.error("Could not deserialize json: " + encodedEvent.toJson(), e);
+          continue;
+        }
+        fold.update(event, encodedEvent);
+      }
+      eventId = Math.max(eventId, page.getLastSequence());
+    } while (!page.isComplete());
+    return eventId;
+  }
+
+  private CachedDag getDag(String workflowId) throws IOException {
+    return getDag(workflowId, true);
+  }
+
+  /**
+   * @param counted whether the lookup is counted as a DAG request in the cache hit and miss
+   * counts.
+   */
+  private CachedDag getDag(String workflowId, boolean counted) throws IOException {
+    CachedDag dag = completedDags.getIfPresent(workflowId);
+    if (dag == null) {
+      dag = runningDags.getIfPresent(workflowId);
+    }
+    if (dag != null) {
+      if (counted) {
+        dagCacheHits.incrementAndGet();
+      }
+      return dag;
+    }
+    if (counted) {
+      dagCacheMisses.incrementAndGet();
+    }
+
     WorkflowId id = WorkflowId.parseString(workflowId);
     Flow flow = flowQueueService.getFlowFromQueue(
         id.getCluster(), id.getTimestamp(), id.getFlowId());
@@ -98,11 +450,44 @@ public class HRavenStatsReadService implements StatsReadService {
 
     // TODO This may not work nicely with multiple type of jobs
     // See: https://github.com/twitter/ambrose/pull/131
+    String jobGraphJson = flow.getJobGraphJSON();
     Map<String, DAGNode> dagMap = JSONUtil.toObject(
-        flow.getJobGraphJSON(), new TypeReference<Map<String, DAGNode>>() {
+        jobGraphJson, new TypeReference<Map<String, DAGNode>>() {
         });
+    if (dagMap == null) {
+      return null;
+    }
+
+    boolean completed =
+        flow.getQueueKey() != null && flow.getQueueKey().getStatus() != Flow.Status.RUNNING;
+    dag = new CachedDag(Collections.unmodifiableMap(dagMap), jobGraphJson.length(), completed);
+    if (completed) {
+      completedDags.put(workflowId, dag);
+    } else {
+      runningDags.put(workflowId, dag);
+    }
+    return dag;
+  }
 
-    return dagMap;
+  /**
+   * @return number of DAG requests served from the cache.
+   */
+  public long getDagCacheHitCount() {
+    return dagCacheHits.get();
+  }
+
+  /**
+   * @return number of DAG requests which had to be read from hRaven.
+   */
+  public long getDagCacheMissCount() {
+    return dagCacheMisses.get();
+  }
+
+  /**
+   * @return number of DAGs evicted from the cache because of its size budget or expiry.
+   */
+  public long getDagCacheEvictionCount() {
+    return dagCacheEvictions.get();
   }
 
   @SuppressWarnings("rawtypes")
@@ -116,29 +501,88 @@ public class HRavenStatsReadService implements StatsReadService {
   @Override
   public List<Event> getEventsSinceId(String workflowId, int eventId, int maxEvents)
       throws IOException {
+    return getEventPage(workflowId, eventId, maxEvents).getResults();
+  }
+
+  /**
+   * Reads events for a given workflow since eventId. At most maxEvents events are read from hRaven,
+   * so the cost of a call doesn't depend on how many events the workflow has.
+   *
+   * @param workflowId the id of the workflow being accessed
+   * @param eventId the eventId that all returned events will be greater than. Pass a negative
+   * value to read from the first event.
+   * @param maxEvents maximum number of events read
+   * @return events ordered by eventId ascending. The next page start is the id to pass as eventId
+   * to continue reading after this page, and is null if this page reached the last event of the
+   * workflow. It may be greater than the id of the last event returned if some events couldn't be
+   * deserialized.
+   * @throws IOException
+   */
+  @SuppressWarnings("rawtypes")
+  public PaginatedList<Event> getEventPage(String workflowId, int eventId, int maxEvents)
+      throws IOException {
     Preconditions.checkArgument(maxEvents > 0);
-    WorkflowId id = WorkflowId.parseString(workflowId);
-    FlowEventKey flowEventKey = new FlowEventKey(toFlowKey(id), eventId);
-    List<FlowEvent> flowEventList = flowEventService.getFlowEventsSince(flowEventKey);
-
-    // TODO push this limit into the FlowEventService
-    int numElems = 0;
-    List<Event> workflowEvents = Lists.newArrayListWithCapacity(maxEvents);
-    for (FlowEvent flowEvent : flowEventList) {
-      if (numElems >= maxEvents) {
-        break;
-      }
-      String eventDataJson = flowEvent.getEventDataJSON();
+    HRavenEventScanner.Page page = scanEvents(workflowId, eventId, maxEvents);
+
+    List<Event> workflowEvents = Lists.newArrayListWithCapacity(page.getEvents().size());
+    for (EncodedEvent encodedEvent : page.getEvents()) {
       try {
-        Event event = Event.fromJson(eventDataJson);
-        numElems++;
-        workflowEvents.add(event);
+        workflowEvents.add(encodedEvent.toEvent());
       } catch (JsonMappingException e) {
-        LOG.error("Could not deserialize json: " + eventDataJson, e);
+        LOG.error("Could not deserialize json: " + encodedEvent.toJson(), e);
+      }
+    }
+
+    PaginatedList<Event> events = new PaginatedList<Event>(workflowEvents);
+    if (!page.isComplete()) {
+      events.setNextPageStart(Integer.toString(page.getLastSequence()));
+    }
+    return events;
+  }
+
+  /**
+   * Returns events as stored in hRaven, without decoding them. Events whose data is not a json
+   * object are skipped.
+   */
+  @Override
+  public List<EncodedEvent> getEncodedEventsSinceId(String workflowId, int eventId, int maxEvents)
+      throws IOException {
+    HRavenEventScanner.Page page =
+        scanEvents(workflowId, eventId, maxEvents > 0 ? maxEvents : DEFAULT_MAX_EVENTS);
+
+    List<EncodedEvent> events = Lists.newArrayListWithCapacity(page.getEvents().size());
+    for (EncodedEvent encodedEvent : page.getEvents()) {
+      // cheap sanity check that the event can be spliced into a json array
+      if (encodedEvent.isJsonObject()) {
+        events.add(encodedEvent);
+      } else {
+        LOG.error("Skipping event which is not a json object: " + encodedEvent.toJson());
       }
     }
+    return events;
+  }
+
+  /**
+   * Reads events from the tail of the workflow if it holds them, or from hRaven otherwise. The
+   * events of a completed workflow can no longer change, so they are always read from hRaven rather
+   * than kept in memory. Whether the workflow is completed is taken from its DAG, which is read
+   * from hRaven's flow queue if it isn't cached.
+   */
+  private HRavenEventScanner.Page scanEvents(String workflowId, int eventId, int maxEvents)
+      throws IOException {
+    if (eventTail != null && !isCompleted(workflowId)) {
+      HRavenEventScanner.Page page = eventTail.get(workflowId, eventId, maxEvents);
+      if (page != null) {
+        return page;
+      }
+    }
+    return eventScanner.scan(toFlowKey(WorkflowId.parseString(workflowId)), eventId, maxEvents);
+  }
 
-    return workflowEvents;
+  private boolean isCompleted(String workflowId) throws IOException {
+    // not a DAG request, so the lookup doesn't skew the cache statistics
+    CachedDag dag = getDag(workflowId, false);
+    return dag == null || dag.completed;
   }
 
   private static FlowKey toFlowKey(WorkflowId id) {
@@ -15,14 +15,15 @@ limitations under the License.
  */
 package com.twitter.ambrose.service.impl.hraven;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -37,6 +38,7 @@ import org.apache.hadoop.hbase.zookeeper.ZKUtil;
 import org.apache.hadoop.mapred.JobConf;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
@@ -78,6 +80,22 @@ import com.twitter.hraven.util.StringUtil;
  *    "hraven.hbase.zookeeper.quorum", (in the format
  *    "quorum peer hostname1[,quorum peer host2,...]:client port:parent znode").  If found, this
  *    value is split and applied to the HBase configuration.
+ *
+ * Events are written to hRaven in batches, rather than one request per event. A batch is written
+ * once it holds "ambrose.hraven.events.batch.size" events (default 100), or
+ * "ambrose.hraven.events.flush.interval.ms" milliseconds (default 1000) after its first event was
+ * pushed, whichever comes first. Both are read from the job configuration.
+ *
+ * If "ambrose.hraven.spool.dir" is set in the job configuration, event batches are first appended
+ * to a durable local spool under that directory, and replayed from there to hRaven in the
+ * background, retrying with exponential backoff while HBase is unavailable. Events still spooled at
+ * shutdown are replayed by the next job which uses the same spool directory.
+ *
+ * Flow queue updates are coalesced: while an update for a FlowQueueKey is waiting to be written, a
+ * later update for the same key replaces it. The DAG JSON stored with the flow is cached. It is
+ * re-serialized for the next update after the DAG is sent or a job starts, finishes or fails, but
+ * after job progress only once the cached JSON is older than the events flush interval, so that a
+ * workflow progress update per progress tick doesn't serialize the DAG each time.
  */
 @SuppressWarnings("rawtypes")
 public class HRavenStatsWriteService implements StatsWriteService {
@@ -86,7 +104,7 @@ public class HRavenStatsWriteService implements StatsWriteService {
   private final Set<String> runningJobs;
   private final Set<String> completedJobs;
   private final Set<String> failedJobs;
-  private final ExecutorService hRavenPool;
+  private final ScheduledThreadPoolExecutor hRavenPool;
 
   private volatile boolean initialized = false;
   private FlowQueueService flowQueueService;
@@ -97,6 +115,20 @@ public class HRavenStatsWriteService implements StatsWriteService {
   private FlowQueueKey flowQueueKey;
   private Map<String, DAGNode<Job>> dagNodeNameMap;
   private JobConf jobConf;
+  private HRavenEventBatcher eventBatcher;
+  private HRavenEventSpool eventSpool;
+
+  /** Latest flow queue update not yet written, by queue key. Guarded by itself. */
+  private final Map<FlowQueueKey, Flow> pendingFlowUpdates = Maps.newHashMap();
+  /** Incremented whenever the DAG changes or one of its jobs starts or completes */
+  private final AtomicInteger dagVersion = new AtomicInteger();
+  /** Incremented whenever one of the DAG's jobs makes progress */
+  private final AtomicInteger dagProgressVersion = new AtomicInteger();
+  private int dagJsonVersion = -1;
+  private int dagJsonProgressVersion = -1;
+  private long dagJsonTime;
+  private long dagProgressRefreshMillis = EVENTS_FLUSH_INTERVAL_MS_DEFAULT;
+  private String dagJson;
 
   private static final int HRAVEN_POOL_SHUTDOWN_SECS = 5;
   /** Environment variable pointing to the configuration directory to use with hRaven */
@@ -106,6 +138,20 @@ public class HRavenStatsWriteService implements StatsWriteService {
   /** Connection information for the hRaven HBase zookeeper quorum,
    * ("quorum peer hostname1[,quorum peer host2,...]:client port:parent znode"). */
   public static final String HRAVEN_ZOOKEEPER_QUORUM = "hraven." + HConstants.ZOOKEEPER_QUORUM;
+  /** Maximum number of events written to hRaven in one request */
+  public static final String EVENTS_BATCH_SIZE = "ambrose.hraven.events.batch.size";
+  public static final int EVENTS_BATCH_SIZE_DEFAULT = 100;
+  /** Maximum time in milliseconds an event waits for its batch to fill before being written */
+  public static final String EVENTS_FLUSH_INTERVAL_MS = "ambrose.hraven.events.flush.interval.ms";
+  public static final long EVENTS_FLUSH_INTERVAL_MS_DEFAULT = 1000;
+  /** Local directory in which to spool events before writing them to hRaven. Unset to disable */
+  public static final String EVENTS_SPOOL_DIR = "ambrose.hraven.spool.dir";
+  /** Size in bytes after which a new spool segment file is started */
+  public static final String EVENTS_SPOOL_SEGMENT_BYTES = "ambrose.hraven.spool.segment.bytes";
+  public static final long EVENTS_SPOOL_SEGMENT_BYTES_DEFAULT = 8 * 1024 * 1024;
+  private static final long SPOOL_RETRY_INITIAL_MS = 1000;
+  private static final long SPOOL_RETRY_MAX_MS = 60 * 1000;
+  private static final long SPOOL_ORPHAN_GRACE_MS = 60 * 1000;
 
   public HRavenStatsWriteService() {
     this.runningJobs = Sets.newHashSet();
@@ -114,7 +160,9 @@ public class HRavenStatsWriteService implements StatsWriteService {
     this.username = System.getProperty("user.name");
 
     // queue hRaven requests up and fire them asynchronously
-    this.hRavenPool = Executors.newFixedThreadPool(1);
+    this.hRavenPool = new ScheduledThreadPoolExecutor(1);
+    // pending event batches are flushed explicitly on shutdown
+    this.hRavenPool.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
 
     // we try to shut down gracefully, but this exists if we can't
     Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -155,40 +203,18 @@ public class HRavenStatsWriteService implements StatsWriteService {
     return hbaseConf;
   }
 
-  private static final class HRavenEventRunnable implements Runnable {
-
-    private final FlowEventService flowEventService;
-    private final FlowEvent flowEvent;
-
-    private HRavenEventRunnable(FlowEventService flowEventService, FlowEvent flowEvent) {
-      this.flowEventService = flowEventService;
-      this.flowEvent = flowEvent;
-    }
-
-    @Override
-    public void run() {
-      try {
-        LOG.info("Submitting flowEvent to hRaven: " + flowEvent.getFlowEventKey().getSequence());
-        flowEventService.addEvent(flowEvent);
-      } catch (Exception e) {
-        LOG.warn("Error making request to HRaven FlowEventService for event flowEventKey: "
-            + flowEvent.getFlowEventKey(), e);
-      }
-    }
-  }
-
   private final class HRavenQueueRunnable implements Runnable {
     private final FlowQueueService flowQueueService;
     private final FlowQueueKey flowQueueKey;
     private final FlowQueueKey newQueueKey;
-    private final Flow flow;
 
+    /**
+     * Writes the latest pending update for flowQueueKey.
+     */
     private HRavenQueueRunnable(FlowQueueService flowQueueService,
-      FlowQueueKey flowQueueKey,
-      Flow flow) {
+      FlowQueueKey flowQueueKey) {
       this.flowQueueService = flowQueueService;
       this.flowQueueKey = flowQueueKey;
-      this.flow = flow;
       this.newQueueKey = null;
     }
 
@@ -198,11 +224,16 @@ public class HRavenStatsWriteService implements StatsWriteService {
       this.flowQueueService = flowQueueService;
       this.flowQueueKey = flowQueueKey;
       this.newQueueKey = newQueueKey;
-      this.flow = null;
     }
 
     @Override
     public void run() {
+      Flow flow = null;
+      if (newQueueKey == null) {
+        synchronized (pendingFlowUpdates) {
+          flow = pendingFlowUpdates.remove(flowQueueKey);
+        }
+      }
       try {
         if (flow != null) {
           LOG.debug("Submitting update to flowQueue to hRaven: " + flowQueueKey.getFlowId());
@@ -250,6 +281,9 @@ public class HRavenStatsWriteService implements StatsWriteService {
       }
     }
 
+    if (eventBatcher != null) {
+      eventBatcher.flushAsync();
+    }
     hRavenPool.shutdown();
     try {
       LOG.info(String.format(
@@ -260,6 +294,14 @@ public class HRavenStatsWriteService implements StatsWriteService {
     } catch (InterruptedException e) {
       LOG.error("Was not able to await termination for hRavenPool", e);
     }
+    if (eventBatcher != null) {
+      LOG.info(String.format("Wrote %d flowEvents to %s in %d requests",
+          eventBatcher.getEventCount(), eventSpool != null ? "the spool" : "hRaven",
+          eventBatcher.getRequestCount()));
+    }
+    if (eventSpool != null) {
+      eventSpool.close(TimeUnit.SECONDS.toMillis(HRAVEN_POOL_SHUTDOWN_SECS));
+    }
   }
 
   private void changeFlowQueueStatus(Flow.Status status) throws IOException {
@@ -294,6 +336,25 @@ public class HRavenStatsWriteService implements StatsWriteService {
     } catch (IOException e) {
       throw new RuntimeException("Could not instantiate hRaven FlowEventService", e);
     }
+    HRavenEventBatcher.EventWriter eventWriter =
+        HRavenEventBatcher.forFlowEventService(flowEventService);
+    String spoolDir = jobConf.get(EVENTS_SPOOL_DIR);
+    if (spoolDir != null && !spoolDir.isEmpty()) {
+      try {
+        eventSpool = new HRavenEventSpool(new File(spoolDir), eventWriter,
+            jobConf.getLong(EVENTS_SPOOL_SEGMENT_BYTES, EVENTS_SPOOL_SEGMENT_BYTES_DEFAULT),
+            SPOOL_RETRY_INITIAL_MS, SPOOL_RETRY_MAX_MS, SPOOL_ORPHAN_GRACE_MS);
+        eventWriter = eventSpool;
+      } catch (IOException e) {
+        LOG.error("Couldn't open hRaven event spool in " + spoolDir
+            + ", writing events directly to hRaven", e);
+      }
+    }
+    // job progress reaches hRaven no more often than events are flushed, so neither does the DAG's
+    dagProgressRefreshMillis =
+        jobConf.getLong(EVENTS_FLUSH_INTERVAL_MS, EVENTS_FLUSH_INTERVAL_MS_DEFAULT);
+    eventBatcher = new HRavenEventBatcher(eventWriter, hRavenPool,
+        jobConf.getInt(EVENTS_BATCH_SIZE, EVENTS_BATCH_SIZE_DEFAULT), dagProgressRefreshMillis);
 
     // make sure hRavenClusters.properties file is on the classpath
     // this file stores mapping between jobtracker host and cluster name
@@ -348,7 +409,11 @@ public class HRavenStatsWriteService implements StatsWriteService {
   public void sendDagNodeNameMap(String workflowId,
     Map dagNodeMap) throws IOException {
     Preconditions.checkNotNull(dagNodeMap);
-    this.dagNodeNameMap = dagNodeMap;
+    synchronized (this) {
+      // copied, since nodes are replaced by those of job events
+      this.dagNodeNameMap = Maps.newLinkedHashMap(dagNodeMap);
+    }
+    dagVersion.incrementAndGet();
     updateFlowQueue(flowQueueKey);
   }
 
@@ -361,10 +426,15 @@ public class HRavenStatsWriteService implements StatsWriteService {
       updateWorkflowProgress((Map<Event.WorkflowProgressField, String>) event.getPayload());
       break;
     case JOB_STARTED:
+      updateDagNode((DAGNode) event.getPayload(), dagVersion);
       updateJobStarted((DAGNode) event.getPayload());
       break;
+    case JOB_PROGRESS:
+      updateDagNode((DAGNode) event.getPayload(), dagProgressVersion);
+      break;
     case JOB_FAILED:
     case JOB_FINISHED:
+      updateDagNode((DAGNode) event.getPayload(), dagVersion);
       updateJobComplete((DAGNode) event.getPayload(), event.getType());
       break;
     default:
@@ -383,7 +453,7 @@ public class HRavenStatsWriteService implements StatsWriteService {
       flowEvent.setEventDataJSON(eventDataJson);
     }
 
-    hRavenPool.submit(new HRavenEventRunnable(flowEventService, flowEvent));
+    eventBatcher.add(flowEvent);
   }
 
   private void updateFlowQueue(FlowQueueKey key) throws IOException {
@@ -398,8 +468,49 @@ public class HRavenStatsWriteService implements StatsWriteService {
     flow.setQueueKey(key);
     flow.setFlowName(appId);
     flow.setUserName(username);
-    flow.setJobGraphJSON(JSONUtil.toJson(dagNodeNameMap));
-    hRavenPool.submit(new HRavenQueueRunnable(flowQueueService, flowQueueKey, flow));
+    flow.setJobGraphJSON(getDagJson());
+
+    boolean pending;
+    synchronized (pendingFlowUpdates) {
+      pending = pendingFlowUpdates.put(key, flow) != null;
+    }
+    // an update for this key is already queued and will pick up this flow when it runs
+    if (!pending) {
+      hRavenPool.submit(new HRavenQueueRunnable(flowQueueService, key));
+    }
+  }
+
+  /**
+   * Returns the DAG as JSON, serializing it only if the DAG changed or one of its jobs started or
+   * completed since the last call, or if its jobs made progress and the cached JSON is older than
+   * dagProgressRefreshMillis.
+   */
+  private synchronized String getDagJson() throws IOException {
+    int version = dagVersion.get();
+    int progressVersion = dagProgressVersion.get();
+    long now = System.currentTimeMillis();
+    if (dagJson == null || dagJsonVersion != version || (dagJsonProgressVersion != progressVersion
+        && now - dagJsonTime >= dagProgressRefreshMillis)) {
+      dagJson = JSONUtil.toJson(dagNodeNameMap);
+      dagJsonVersion = version;
+      dagJsonProgressVersion = progressVersion;
+      dagJsonTime = now;
+    }
+    return dagJson;
+  }
+
+  /**
+   * Replaces the DAG node of a job event's node name with the event's node, which holds the
+   * current state of the job. The node may be a copy, rather than the one sent with the DAG, if
+   * events are written asynchronously.
+   *
+   * @param version version to increment, invalidating the cached DAG JSON.
+   */
+  private synchronized void updateDagNode(DAGNode node, AtomicInteger version) {
+    if (dagNodeNameMap != null && dagNodeNameMap.containsKey(node.getName())) {
+      dagNodeNameMap.put(node.getName(), node);
+    }
+    version.incrementAndGet();
   }
 
   private void updateWorkflowProgress(Map<Event.WorkflowProgressField, String> progressMap)
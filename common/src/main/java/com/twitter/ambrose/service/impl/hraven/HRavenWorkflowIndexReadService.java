@@ -17,14 +17,31 @@ package com.twitter.ambrose.service.impl.hraven;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
 
+import com.google.common.base.Objects;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.sun.jersey.core.util.Base64;
@@ -41,11 +58,103 @@ import com.twitter.hraven.rest.PaginatedResult;
 
 /**
  * Implementaton of WorkflowIndexReadService that knows how to read workflow info from HRaven.
+ * <p/>
+ * The cluster map is loaded once. Pages of workflows are cached so that the landing page can be
+ * rendered from memory however many people view it: the first page of each combination of
+ * cluster, status and user which has been requested recently is refreshed in the background, and
+ * the page following any page returned is prefetched. Later pages are only kept for the refresh
+ * interval, since their start keys may no longer match the first page once it's refreshed. The
+ * cache is configured with the following system properties:
+ * <pre>
+ *   <ul>
+ *     <li><code>{@value #WORKFLOWS_CACHE_REFRESH_MS_PARAM}</code> - time in milliseconds between
+ *     refreshes of first pages. Defaults to {@value #WORKFLOWS_CACHE_REFRESH_MS_DEFAULT}.</li>
+ *     <li><code>{@value #WORKFLOWS_CACHE_IDLE_MS_PARAM}</code> - time in milliseconds after which
+ *     a first page no longer requested stops being refreshed. Defaults to
+ *     {@value #WORKFLOWS_CACHE_IDLE_MS_DEFAULT}.</li>
+ *   </ul>
+ * </pre>
+ * Cached pages are shared between callers and must not be modified.
  */
 public class HRavenWorkflowIndexReadService implements WorkflowIndexReadService {
+  private static final Log LOG = LogFactory.getLog(HRavenWorkflowIndexReadService.class);
+
+  /**
+   * Name of system property used to configure how often cached first pages are refreshed.
+   */
+  public static final String WORKFLOWS_CACHE_REFRESH_MS_PARAM =
+      "ambrose.hraven.workflows.cache.refresh.ms";
+  /**
+   * Name of system property used to configure when first pages no longer requested are dropped.
+   */
+  public static final String WORKFLOWS_CACHE_IDLE_MS_PARAM =
+      "ambrose.hraven.workflows.cache.idle.ms";
+  public static final long WORKFLOWS_CACHE_REFRESH_MS_DEFAULT = 10000;
+  public static final long WORKFLOWS_CACHE_IDLE_MS_DEFAULT = 300000;
+  private static final int WORKFLOWS_CACHE_MAX_SIZE = 1000;
 
   private FlowQueueService flowQueueService;
 
+  private final Supplier<Map<String, String>> clusters =
+      Suppliers.memoize(new Supplier<Map<String, String>>() {
+        @Override
+        public Map<String, String> get() {
+          return loadClusters();
+        }
+      });
+  private final ScheduledExecutorService executor;
+  /** first pages, refreshed in the background */
+  private final LoadingCache<PageKey, PaginatedList<WorkflowSummary>> firstPages;
+  /** later pages, kept for the refresh interval */
+  private final Cache<PageKey, PaginatedList<WorkflowSummary>> laterPages;
+
+  /**
+   * Parameters of a getWorkflows request.
+   */
+  private static final class PageKey {
+    private final String cluster;
+    private final Status status;
+    private final String username;
+    private final int numResults;
+    private final byte[] startKey;
+
+    private PageKey(String cluster, Status status, String username, int numResults,
+        byte[] startKey) {
+      this.cluster = cluster;
+      this.status = status;
+      this.username = username;
+      this.numResults = numResults;
+      this.startKey = startKey;
+    }
+
+    private PageKey withStartKey(byte[] startKey) {
+      return new PageKey(cluster, status, username, numResults, startKey);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof PageKey)) {
+        return false;
+      }
+      PageKey other = (PageKey) obj;
+      return Objects.equal(cluster, other.cluster) && status == other.status
+          && Objects.equal(username, other.username) && numResults == other.numResults
+          && Arrays.equals(startKey, other.startKey);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * Objects.hashCode(cluster, status, username, numResults)
+          + Arrays.hashCode(startKey);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("cluster=%s, status=%s, user=%s, numResults=%d", cluster, status,
+          username, numResults);
+    }
+  }
+
   /**
    * Creates a HRavenWorkflowIndexReadService
    */
@@ -57,10 +166,50 @@ public class HRavenWorkflowIndexReadService implements WorkflowIndexReadService
     } catch (IOException e) {
       throw new RuntimeException("Could not instantiate hRaven FlowQueueService", e);
     }
+
+    long refreshMillis =
+        Long.getLong(WORKFLOWS_CACHE_REFRESH_MS_PARAM, WORKFLOWS_CACHE_REFRESH_MS_DEFAULT);
+    firstPages = CacheBuilder.newBuilder()
+        .maximumSize(WORKFLOWS_CACHE_MAX_SIZE)
+        .expireAfterAccess(
+            Long.getLong(WORKFLOWS_CACHE_IDLE_MS_PARAM, WORKFLOWS_CACHE_IDLE_MS_DEFAULT),
+            TimeUnit.MILLISECONDS)
+        .build(new CacheLoader<PageKey, PaginatedList<WorkflowSummary>>() {
+          @Override
+          public PaginatedList<WorkflowSummary> load(PageKey key) throws IOException {
+            return loadWorkflows(key);
+          }
+        });
+    laterPages = CacheBuilder.newBuilder()
+        .maximumSize(WORKFLOWS_CACHE_MAX_SIZE)
+        .expireAfterWrite(refreshMillis, TimeUnit.MILLISECONDS)
+        .build();
+
+    executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "ambrose-hraven-workflow-index");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        // refresh keeps serving the previous page until the new one is loaded
+        for (PageKey key : firstPages.asMap().keySet()) {
+          firstPages.refresh(key);
+        }
+      }
+    }, refreshMillis, refreshMillis, TimeUnit.MILLISECONDS);
   }
 
   @Override
   public Map<String, String> getClusters() throws IOException {
+    return clusters.get();
+  }
+
+  private static Map<String, String> loadClusters() {
     Map<String, String> clusterMap = Maps.newHashMap();
     //TODO make this an api in hraven
     Properties props = new Properties();
@@ -73,7 +222,11 @@ public class HRavenWorkflowIndexReadService implements WorkflowIndexReadService
         throw new RuntimeException(filename
             + " for mapping clusters to cluster identifiers in hRaven does not exist");
       }
-      props.load(inp);
+      try {
+        props.load(inp);
+      } finally {
+        inp.close();
+      }
       for (Entry<Object, Object> prop : props.entrySet()) {
         String clusterName = String.valueOf(prop.getValue());
         clusterMap.put(clusterName.replace("@", "_"), clusterName);
@@ -82,17 +235,63 @@ public class HRavenWorkflowIndexReadService implements WorkflowIndexReadService
       throw new RuntimeException(" Could not load properties file " + filename
           + " for mapping clusters to cluster identifiers in hRaven");
     }
-    return clusterMap;
+    return ImmutableMap.copyOf(clusterMap);
   }
 
   @Override
   public PaginatedList<WorkflowSummary> getWorkflows(String cluster, Status status,
       String username, int numResults, byte[] nextPageStart) throws IOException {
+    PageKey key = new PageKey(cluster, status, username, numResults, nextPageStart);
+    PaginatedList<WorkflowSummary> page;
+    if (nextPageStart == null) {
+      try {
+        page = firstPages.get(key);
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+        throw Throwables.propagate(e.getCause());
+      }
+    } else {
+      page = laterPages.getIfPresent(key);
+      if (page == null) {
+        page = loadWorkflows(key);
+        laterPages.put(key, page);
+      }
+    }
+    prefetchNextPage(key, page);
+    return page;
+  }
+
+  /**
+   * Asynchronously loads the page following the given one, unless it's already cached.
+   */
+  private void prefetchNextPage(PageKey key, PaginatedList<WorkflowSummary> page) {
+    if (page.getNextPageStart() == null) {
+      return;
+    }
+    final PageKey nextKey = key.withStartKey(Base64.decode(page.getNextPageStart()));
+    if (laterPages.getIfPresent(nextKey) != null) {
+      return;
+    }
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        if (laterPages.getIfPresent(nextKey) != null) {
+          return;
+        }
+        try {
+          laterPages.put(nextKey, loadWorkflows(nextKey));
+        } catch (Exception e) {
+          LOG.warn("Could not prefetch workflows for " + nextKey, e);
+        }
+      }
+    });
+  }
 
+  private PaginatedList<WorkflowSummary> loadWorkflows(PageKey key) throws IOException {
     List<WorkflowSummary> workflowSummaryList = Lists.newArrayList();
     PaginatedResult<Flow> flows =
-        flowQueueService.getPaginatedFlowsForStatus(cluster, convertStatus(status), numResults,
-            username, nextPageStart);
+        flowQueueService.getPaginatedFlowsForStatus(key.cluster, convertStatus(key.status),
+            key.numResults, key.username, key.startKey);
 
     for (Flow flow : flows.getValues()) {
       workflowSummaryList.add(toWorkflowSummary(flow));
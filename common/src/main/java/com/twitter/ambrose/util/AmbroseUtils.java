@@ -15,6 +15,8 @@ limitations under the License.
 */
 package com.twitter.ambrose.util;
 
+import java.io.Closeable;
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.Map;
 
@@ -59,6 +61,42 @@ public final class AmbroseUtils {
     }
   }
 
+  /**
+   * Handle and ignore any IOException while flushing statsWriteService. Does nothing unless
+   * statsWriteService buffers writes, such as an
+   * {@link com.twitter.ambrose.service.impl.AsyncStatsWriteService}.
+   * @param statsWriteService to flush
+   */
+  public static void flush(StatsWriteService statsWriteService) {
+    if (!(statsWriteService instanceof Flushable)) {
+      return;
+    }
+    try {
+      ((Flushable) statsWriteService).flush();
+    } catch (IOException e) {
+      log.error("Couldn't flush StatsWriteService", e);
+    }
+  }
+
+  /**
+   * Flushes then closes statsWriteService, handling and ignoring any IOException. Does nothing
+   * unless statsWriteService holds resources of its own, such as the writer thread of an
+   * {@link com.twitter.ambrose.service.impl.AsyncStatsWriteService}. Call this once the workflow
+   * is complete.
+   * @param statsWriteService to close
+   */
+  public static void close(StatsWriteService statsWriteService) {
+    if (!(statsWriteService instanceof Closeable)) {
+      return;
+    }
+    flush(statsWriteService);
+    try {
+      ((Closeable) statsWriteService).close();
+    } catch (IOException e) {
+      log.error("Couldn't close StatsWriteService", e);
+    }
+  }
+
   /**
    * Send workflow progress event
    * @param statsWriteService
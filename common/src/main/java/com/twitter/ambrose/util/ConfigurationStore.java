@@ -0,0 +1,308 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Content-addressed store of job configurations, so that jobs which share a configuration, such as
+ * all jobs of a Pig script, or whose configurations barely differ, such as the jobs of a Hive
+ * query, are written with a reference to one stored configuration instead of a copy of it.
+ * <p/>
+ * {@link #put} returns a {@link Reference} made of the hash of a stored configuration and a diff to
+ * apply to it. A configuration already stored is referenced by its hash with an empty diff. A new
+ * configuration whose diff against the most recently stored one has at most a tenth as many
+ * entries as the configuration is referenced by that configuration's hash and the diff. Any other
+ * configuration is stored, and referenced by its own hash. Hashes are the hex SHA-1 of the sorted
+ * entries of a configuration.
+ * <p/>
+ * The store is meant to be shared by all jobs and workflows served by a process. It holds at most
+ * maxSize configurations, evicting the least recently referenced ones, except that a configuration
+ * pinned by {@link #putAndRetain} or {@link #retain} is not evicted until each pin is
+ * {@link #release released}. Holders of encoded events pin the configurations those events
+ * reference for as long as they serve them, so their references never dangle; the store exceeds
+ * maxSize while more configurations than that are pinned. The reference of a configuration object
+ * is cached until the object is garbage collected or its contents change, so the same
+ * configuration set on many jobs is only hashed once.
+ * <p/>
+ * Instances are thread safe.
+ */
+public class ConfigurationStore {
+  /**
+   * Name of system property used to configure the maximum number of stored configurations.
+   */
+  public static final String MAX_SIZE_PARAM = "ambrose.configuration.store.max.size";
+  public static final int MAX_SIZE_DEFAULT = 1000;
+
+  /**
+   * A diff is used if the configuration has at least this many times as many entries.
+   */
+  private static final int MIN_ENTRIES_PER_DIFF_ENTRY = 10;
+
+  /**
+   * Reference to a configuration: the hash of a stored configuration, and the entries to set on it
+   * to obtain the referenced configuration. Entries whose value is null are removed.
+   */
+  public static final class Reference {
+    private final String hash;
+    private final Map<String, String> diff;
+
+    private Reference(String hash, Map<String, String> diff) {
+      this.hash = hash;
+      this.diff = diff;
+    }
+
+    public String getHash() {
+      return hash;
+    }
+
+    public Map<String, String> getDiff() {
+      return diff;
+    }
+  }
+
+  /**
+   * Cached reference of a configuration object, with the size and hash code it had then.
+   */
+  private static final class CachedReference {
+    private final Reference reference;
+    private final int size;
+    private final int hashCode;
+
+    private CachedReference(Reference reference, int size, int hashCode) {
+      this.reference = reference;
+      this.size = size;
+      this.hashCode = hashCode;
+    }
+  }
+
+  /**
+   * Stored configuration with the number of pins held on it.
+   */
+  private static final class StoredConfiguration {
+    private final SortedMap<String, String> configuration;
+    private int pins;
+
+    private StoredConfiguration(SortedMap<String, String> configuration) {
+      this.configuration = configuration;
+    }
+  }
+
+  private final int maxSize;
+  // iterates from the least to the most recently referenced configuration
+  private final Map<String, StoredConfiguration> configurations =
+      new LinkedHashMap<String, StoredConfiguration>(16, 0.75f, true);
+  // weak keys are compared by identity
+  private final Cache<Properties, CachedReference> references =
+      CacheBuilder.newBuilder().weakKeys().build();
+  private String latestHash;
+
+  /**
+   * Creates a new ConfigurationStore whose maximum size is configured from system properties.
+   */
+  public ConfigurationStore() {
+    this(Integer.getInteger(MAX_SIZE_PARAM, MAX_SIZE_DEFAULT));
+  }
+
+  /**
+   * Creates a new ConfigurationStore.
+   *
+   * @param maxSize maximum number of stored configurations.
+   */
+  public ConfigurationStore(int maxSize) {
+    checkArgument(maxSize > 0, "maxSize must be positive");
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Stores a configuration unless it, or a configuration it can be diffed against, is stored.
+   *
+   * @param configuration configuration to store.
+   * @return reference to the configuration.
+   */
+  public synchronized Reference put(Properties configuration) {
+    checkNotNull(configuration);
+    int size = configuration.size();
+    int hashCode = configuration.hashCode();
+    CachedReference cached = references.getIfPresent(configuration);
+    if (cached != null && cached.size == size && cached.hashCode == hashCode
+        && configurations.get(cached.reference.getHash()) != null) {
+      return cached.reference;
+    }
+    Reference reference = newReference(toSortedMap(configuration));
+    references.put(configuration, new CachedReference(reference, size, hashCode));
+    return reference;
+  }
+
+  /**
+   * Stores a configuration like {@link #put}, and pins the stored configuration the returned
+   * reference refers to, so it can't be evicted before the reference is written out and pinned by
+   * its holder.
+   *
+   * @param configuration configuration to store.
+   * @return reference to the configuration, whose hash must be {@link #release released} once the
+   * reference is no longer served.
+   */
+  public synchronized Reference putAndRetain(Properties configuration) {
+    Reference reference = put(configuration);
+    retain(reference.getHash());
+    return reference;
+  }
+
+  /**
+   * Pins a stored configuration, so that it is not evicted until released.
+   *
+   * @param hash hash of a stored configuration.
+   * @return true if the configuration is stored and was pinned, false if no configuration with
+   * this hash is stored.
+   */
+  public synchronized boolean retain(String hash) {
+    StoredConfiguration stored = configurations.get(hash);
+    if (stored == null) {
+      return false;
+    }
+    stored.pins++;
+    return true;
+  }
+
+  /**
+   * Releases a pin taken by {@link #putAndRetain} or {@link #retain}. Once all of its pins are
+   * released, a configuration may be evicted again by a later {@link #put}.
+   *
+   * @param hash hash of a pinned configuration.
+   */
+  public synchronized void release(String hash) {
+    StoredConfiguration stored = configurations.get(hash);
+    if (stored == null || stored.pins == 0) {
+      return;
+    }
+    stored.pins--;
+  }
+
+  /**
+   * @param hash hash of a stored configuration.
+   * @return the configuration, or null if no configuration with this hash is stored.
+   */
+  public synchronized SortedMap<String, String> get(String hash) {
+    StoredConfiguration stored = configurations.get(hash);
+    return stored == null ? null : stored.configuration;
+  }
+
+  /**
+   * @return number of stored configurations.
+   */
+  public synchronized long size() {
+    return configurations.size();
+  }
+
+  private Reference newReference(SortedMap<String, String> configuration) {
+    Map<String, String> noDiff = Collections.emptyMap();
+    String hash = hash(configuration);
+    if (configurations.get(hash) != null) {
+      return new Reference(hash, noDiff);
+    }
+    SortedMap<String, String> latest = latestHash == null ? null : get(latestHash);
+    if (latest != null) {
+      Map<String, String> diff =
+          diff(latest, configuration, configuration.size() / MIN_ENTRIES_PER_DIFF_ENTRY);
+      if (diff != null) {
+        return new Reference(latestHash, diff);
+      }
+    }
+    configurations.put(hash, new StoredConfiguration(configuration));
+    latestHash = hash;
+    evict(hash);
+    return new Reference(hash, noDiff);
+  }
+
+  /**
+   * Evicts the least recently referenced configurations which aren't pinned until at most maxSize
+   * are stored, or only pinned ones and keep remain.
+   *
+   * @param keep hash of a configuration not to evict.
+   */
+  private void evict(String keep) {
+    Iterator<Map.Entry<String, StoredConfiguration>> iterator =
+        configurations.entrySet().iterator();
+    while (configurations.size() > maxSize && iterator.hasNext()) {
+      Map.Entry<String, StoredConfiguration> entry = iterator.next();
+      if (entry.getValue().pins == 0 && !entry.getKey().equals(keep)) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private static SortedMap<String, String> toSortedMap(Properties configuration) {
+    ImmutableSortedMap.Builder<String, String> builder = ImmutableSortedMap.naturalOrder();
+    for (Map.Entry<Object, Object> entry : configuration.entrySet()) {
+      builder.put(String.valueOf(entry.getKey()), String.valueOf(entry.getValue()));
+    }
+    return builder.build();
+  }
+
+  private static String hash(SortedMap<String, String> configuration) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Map.Entry<String, String> entry : configuration.entrySet()) {
+      hasher.putString(entry.getKey(), Charsets.UTF_8).putByte((byte) 0);
+      hasher.putString(entry.getValue(), Charsets.UTF_8).putByte((byte) 0);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * Computes the entries to set on base to obtain configuration, with null values for entries to
+   * remove.
+   *
+   * @return the diff, or null if it would have more than maxSize entries.
+   */
+  private static Map<String, String> diff(SortedMap<String, String> base,
+      SortedMap<String, String> configuration, int maxSize) {
+    Map<String, String> diff = Maps.newTreeMap();
+    for (Map.Entry<String, String> entry : configuration.entrySet()) {
+      if (!entry.getValue().equals(base.get(entry.getKey()))) {
+        diff.put(entry.getKey(), entry.getValue());
+        if (diff.size() > maxSize) {
+          return null;
+        }
+      }
+    }
+    for (String key : base.keySet()) {
+      if (!configuration.containsKey(key)) {
+        diff.put(key, null);
+        if (diff.size() > maxSize) {
+          return null;
+        }
+      }
+    }
+    return Collections.unmodifiableMap(diff);
+  }
+}
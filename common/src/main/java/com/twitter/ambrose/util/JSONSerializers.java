@@ -0,0 +1,478 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.util;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.SerializationConfig;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.BeanPropertyWriter;
+import com.fasterxml.jackson.databind.ser.BeanSerializerModifier;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowGraph;
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.CounterInfo;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+/**
+ * Streaming serializers for the types written with every event, which would otherwise be
+ * introspected by the mapper. They write the same properties in the same order as the mapper does
+ * for these types, omitting null values as JSONUtil's mapper is configured to. Properties of other
+ * types, such as the polymorphic {@link com.twitter.ambrose.model.Job} of a DAGNode, are still
+ * written by the mapper.
+ * <p/>
+ * A {@link WorkflowGraph} is written as the array of the DAGNodes it was built from, and an
+ * {@link EncodedEvent} as the JSON it holds.
+ * <p/>
+ * When a {@link ConfigurationStore} is set as the {@link #CONFIGURATION_STORE_ATTRIBUTE} attribute
+ * of the writer, the configuration of a {@link Job} is put in the store and written as its
+ * reference: a <code>configurationHash</code> property and, if it isn't empty, a
+ * <code>configurationDiff</code> property in which null values mark removed entries. When a
+ * collection is also set as the {@link #RETAINED_CONFIGURATION_HASHES_ATTRIBUTE} attribute, the
+ * referenced configurations are pinned in the store and their hashes added to the collection.
+ * <p/>
+ * MapReduceJobState and CounterGroup also have streaming deserializers. Events and DAGNodes are
+ * still deserialized by the mapper, which resolves their subtypes and the subtypes of their jobs.
+ */
+final class JSONSerializers {
+  private JSONSerializers() {}
+
+  /**
+   * Writer attribute holding the ConfigurationStore into which job configurations are written.
+   */
+  static final Object CONFIGURATION_STORE_ATTRIBUTE = ConfigurationStore.class;
+
+  /**
+   * Writer attribute holding the collection to which the hashes of configurations pinned in the
+   * ConfigurationStore are added.
+   */
+  static final Object RETAINED_CONFIGURATION_HASHES_ATTRIBUTE = ConfigurationStore.Reference.class;
+
+  /**
+   * @return module registering the serializers and deserializers.
+   */
+  static Module module() {
+    SimpleModule module = new SimpleModule("ambrose", Version.unknownVersion());
+    module.addSerializer(Event.class, new EventSerializer());
+    module.addSerializer(DAGNode.class, new DAGNodeSerializer());
+    module.addSerializer(WorkflowGraph.class, new WorkflowGraphSerializer());
+    module.addSerializer(EncodedEvent.class, new EncodedEventSerializer());
+    module.addSerializer(MapReduceJobState.class, new MapReduceJobStateSerializer());
+    module.addSerializer(CounterGroup.class, new CounterGroupSerializer());
+    module.addDeserializer(MapReduceJobState.class, new MapReduceJobStateDeserializer());
+    module.addDeserializer(CounterGroup.class, new CounterGroupDeserializer());
+    module.setSerializerModifier(new JobSerializerModifier());
+    return module;
+  }
+
+  /**
+   * Writes an Event and its subclasses. The type property is written by the type serializer.
+   */
+  @SuppressWarnings("rawtypes")
+  static final class EventSerializer extends StdSerializer<Event> {
+    EventSerializer() {
+      super(Event.class);
+    }
+
+    @Override
+    public void serialize(Event event, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      gen.writeStartObject();
+      writeFields(event, gen, provider);
+      gen.writeEndObject();
+    }
+
+    @Override
+    public void serializeWithType(Event event, JsonGenerator gen, SerializerProvider provider,
+        TypeSerializer typeSer) throws IOException {
+      typeSer.writeTypePrefixForObject(event, gen);
+      writeFields(event, gen, provider);
+      typeSer.writeTypeSuffixForObject(event, gen);
+    }
+
+    private static void writeFields(Event event, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      Object payload = event.getPayload();
+      if (payload != null) {
+        gen.writeFieldName("payload");
+        provider.defaultSerializeValue(payload, gen);
+      }
+      gen.writeNumberField("id", event.getId());
+      gen.writeNumberField("timestamp", event.getTimestamp());
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  static final class DAGNodeSerializer extends StdSerializer<DAGNode> {
+    DAGNodeSerializer() {
+      super(DAGNode.class);
+    }
+
+    @Override
+    public void serialize(DAGNode node, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      gen.writeStartObject();
+      writeStringField(gen, "name", node.getName());
+      if (node.getJob() != null) {
+        gen.writeFieldName("job");
+        // written by the mapper, which adds the runtime type property of the job
+        provider.defaultSerializeValue(node.getJob(), gen);
+      }
+      Collection<String> successorNames = node.getSuccessorNames();
+      if (successorNames != null) {
+        gen.writeArrayFieldStart("successorNames");
+        for (String successorName : successorNames) {
+          gen.writeString(successorName);
+        }
+        gen.writeEndArray();
+      }
+      gen.writeEndObject();
+    }
+  }
+
+  /**
+   * Writes a WorkflowGraph as the array of DAGNodes it was built from.
+   */
+  @SuppressWarnings("rawtypes")
+  static final class WorkflowGraphSerializer extends StdSerializer<WorkflowGraph> {
+    WorkflowGraphSerializer() {
+      super(WorkflowGraph.class);
+    }
+
+    @Override
+    public void serialize(WorkflowGraph graph, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      gen.writeStartArray();
+      for (int id = 0; id < graph.size(); id++) {
+        gen.writeStartObject();
+        writeStringField(gen, "name", graph.getName(id));
+        if (graph.getJob(id) != null) {
+          gen.writeFieldName("job");
+          provider.defaultSerializeValue(graph.getJob(id), gen);
+        }
+        if (graph.hasSuccessorNames(id)) {
+          gen.writeArrayFieldStart("successorNames");
+          for (int i = 0; i < graph.getSuccessorCount(id); i++) {
+            gen.writeString(graph.getName(graph.getSuccessor(id, i)));
+          }
+          gen.writeEndArray();
+        }
+        gen.writeEndObject();
+      }
+      gen.writeEndArray();
+    }
+  }
+
+  /**
+   * Writes an EncodedEvent as its already encoded JSON.
+   */
+  static final class EncodedEventSerializer extends StdSerializer<EncodedEvent> {
+    EncodedEventSerializer() {
+      super(EncodedEvent.class);
+    }
+
+    @Override
+    public void serialize(EncodedEvent event, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      gen.writeRawValue(event.toJson());
+    }
+  }
+
+  /**
+   * Replaces the writer of the configuration property of Job and its subclasses with a {@link
+   * ConfigurationPropertyWriter}.
+   */
+  static final class JobSerializerModifier extends BeanSerializerModifier {
+    @Override
+    public List<BeanPropertyWriter> changeProperties(SerializationConfig config,
+        BeanDescription beanDesc, List<BeanPropertyWriter> beanProperties) {
+      if (!Job.class.isAssignableFrom(beanDesc.getBeanClass())) {
+        return beanProperties;
+      }
+      for (int i = 0; i < beanProperties.size(); i++) {
+        BeanPropertyWriter writer = beanProperties.get(i);
+        if ("configuration".equals(writer.getName())) {
+          beanProperties.set(i, new ConfigurationPropertyWriter(writer));
+        }
+      }
+      return beanProperties;
+    }
+  }
+
+  /**
+   * Writes the configuration of a job as a reference into the writer's ConfigurationStore, or as is
+   * if the writer has none.
+   */
+  static final class ConfigurationPropertyWriter extends BeanPropertyWriter {
+    ConfigurationPropertyWriter(BeanPropertyWriter base) {
+      super(base);
+    }
+
+    @Override
+    public void serializeAsField(Object bean, JsonGenerator gen, SerializerProvider provider)
+        throws Exception {
+      ConfigurationStore store =
+          (ConfigurationStore) provider.getAttribute(CONFIGURATION_STORE_ATTRIBUTE);
+      if (store == null) {
+        super.serializeAsField(bean, gen, provider);
+        return;
+      }
+      Properties configuration = (Properties) get(bean);
+      if (configuration == null) {
+        return;
+      }
+      @SuppressWarnings("unchecked")
+      Collection<String> retainedHashes =
+          (Collection<String>) provider.getAttribute(RETAINED_CONFIGURATION_HASHES_ATTRIBUTE);
+      ConfigurationStore.Reference reference;
+      if (retainedHashes == null) {
+        reference = store.put(configuration);
+      } else {
+        reference = store.putAndRetain(configuration);
+        retainedHashes.add(reference.getHash());
+      }
+      gen.writeStringField("configurationHash", reference.getHash());
+      if (!reference.getDiff().isEmpty()) {
+        gen.writeObjectFieldStart("configurationDiff");
+        for (Map.Entry<String, String> entry : reference.getDiff().entrySet()) {
+          // a null value is written as null, marking a removed entry
+          gen.writeStringField(entry.getKey(), entry.getValue());
+        }
+        gen.writeEndObject();
+      }
+    }
+  }
+
+  static final class MapReduceJobStateSerializer extends StdSerializer<MapReduceJobState> {
+    MapReduceJobStateSerializer() {
+      super(MapReduceJobState.class);
+    }
+
+    @Override
+    public void serialize(MapReduceJobState state, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      gen.writeStartObject();
+      writeStringField(gen, "jobId", state.getJobId());
+      writeStringField(gen, "jobName", state.getJobName());
+      writeStringField(gen, "trackingURL", state.getTrackingURL());
+      gen.writeNumberField("mapProgress", state.getMapProgress());
+      gen.writeNumberField("reduceProgress", state.getReduceProgress());
+      gen.writeNumberField("jobStartTime", state.getJobStartTime());
+      gen.writeNumberField("jobLastUpdateTime", state.getJobLastUpdateTime());
+      gen.writeNumberField("totalMappers", state.getTotalMappers());
+      gen.writeNumberField("finishedMappersCount", state.getFinishedMappersCount());
+      gen.writeNumberField("totalReducers", state.getTotalReducers());
+      gen.writeNumberField("finishedReducersCount", state.getFinishedReducersCount());
+      gen.writeBooleanField("complete", state.isComplete());
+      gen.writeBooleanField("successful", state.isSuccessful());
+      gen.writeEndObject();
+    }
+  }
+
+  static final class CounterGroupSerializer extends StdSerializer<CounterGroup> {
+    CounterGroupSerializer() {
+      super(CounterGroup.class);
+    }
+
+    @Override
+    public void serialize(CounterGroup group, JsonGenerator gen, SerializerProvider provider)
+        throws IOException {
+      gen.writeStartObject();
+      writeStringField(gen, "groupName", group.getGroupName());
+      writeStringField(gen, "groupDisplayName", group.getGroupDisplayName());
+      Map<String, CounterInfo> counterInfoMap = group.getCounterInfoMap();
+      if (counterInfoMap != null) {
+        gen.writeObjectFieldStart("counterInfoMap");
+        for (Map.Entry<String, CounterInfo> entry : counterInfoMap.entrySet()) {
+          CounterInfo counterInfo = entry.getValue();
+          if (counterInfo == null) {
+            gen.writeNullField(entry.getKey());
+            continue;
+          }
+          gen.writeObjectFieldStart(entry.getKey());
+          writeStringField(gen, "name", counterInfo.getName());
+          writeStringField(gen, "displayName", counterInfo.getDisplayName());
+          gen.writeNumberField("value", counterInfo.getValue());
+          gen.writeEndObject();
+        }
+        gen.writeEndObject();
+      }
+      gen.writeEndObject();
+    }
+  }
+
+  static final class MapReduceJobStateDeserializer extends StdDeserializer<MapReduceJobState> {
+    MapReduceJobStateDeserializer() {
+      super(MapReduceJobState.class);
+    }
+
+    @Override
+    public MapReduceJobState deserialize(JsonParser parser, DeserializationContext context)
+        throws IOException {
+      MapReduceJobState state = new MapReduceJobState();
+      for (JsonToken next = firstField(parser, context); next == JsonToken.FIELD_NAME;
+          next = parser.nextToken()) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NULL) {
+          continue;
+        }
+        if (field.equals("jobId")) {
+          state.setJobId(parser.getText());
+        } else if (field.equals("jobName")) {
+          state.setJobName(parser.getText());
+        } else if (field.equals("trackingURL")) {
+          state.setTrackingURL(parser.getText());
+        } else if (field.equals("mapProgress")) {
+          state.setMapProgress(parser.getFloatValue());
+        } else if (field.equals("reduceProgress")) {
+          state.setReduceProgress(parser.getFloatValue());
+        } else if (field.equals("jobStartTime")) {
+          state.setJobStartTime(parser.getLongValue());
+        } else if (field.equals("jobLastUpdateTime")) {
+          state.setJobLastUpdateTime(parser.getLongValue());
+        } else if (field.equals("totalMappers")) {
+          state.setTotalMappers(parser.getIntValue());
+        } else if (field.equals("finishedMappersCount")) {
+          state.setFinishedMappersCount(parser.getIntValue());
+        } else if (field.equals("totalReducers")) {
+          state.setTotalReducers(parser.getIntValue());
+        } else if (field.equals("finishedReducersCount")) {
+          state.setFinishedReducersCount(parser.getIntValue());
+        } else if (field.equals("complete")) {
+          state.setComplete(parser.getBooleanValue());
+        } else if (field.equals("successful")) {
+          state.setSuccessful(parser.getBooleanValue());
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return state;
+    }
+  }
+
+  static final class CounterGroupDeserializer extends StdDeserializer<CounterGroup> {
+    CounterGroupDeserializer() {
+      super(CounterGroup.class);
+    }
+
+    @Override
+    public CounterGroup deserialize(JsonParser parser, DeserializationContext context)
+        throws IOException {
+      String groupName = null;
+      String groupDisplayName = null;
+      Map<String, CounterInfo> counterInfoMap = null;
+      for (JsonToken next = firstField(parser, context); next == JsonToken.FIELD_NAME;
+          next = parser.nextToken()) {
+        String field = parser.getCurrentName();
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.VALUE_NULL) {
+          continue;
+        }
+        if (field.equals("groupName")) {
+          groupName = parser.getText();
+        } else if (field.equals("groupDisplayName")) {
+          groupDisplayName = parser.getText();
+        } else if (field.equals("counterInfoMap")) {
+          counterInfoMap = readCounterInfoMap(parser, context);
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return new CounterGroup(groupName, groupDisplayName, counterInfoMap);
+    }
+
+    private static Map<String, CounterInfo> readCounterInfoMap(JsonParser parser,
+        DeserializationContext context) throws IOException {
+      Map<String, CounterInfo> counterInfoMap = Maps.newHashMap();
+      for (JsonToken entry = firstField(parser, context); entry == JsonToken.FIELD_NAME;
+          entry = parser.nextToken()) {
+        String key = parser.getCurrentName();
+        if (parser.nextToken() == JsonToken.VALUE_NULL) {
+          counterInfoMap.put(key, null);
+          continue;
+        }
+        String name = null;
+        String displayName = null;
+        long value = 0;
+        for (JsonToken next = firstField(parser, context); next == JsonToken.FIELD_NAME;
+            next = parser.nextToken()) {
+          String field = parser.getCurrentName();
+          JsonToken token = parser.nextToken();
+          if (token == JsonToken.VALUE_NULL) {
+            continue;
+          }
+          if (field.equals("name")) {
+            name = parser.getText();
+          } else if (field.equals("displayName")) {
+            displayName = parser.getText();
+          } else if (field.equals("value")) {
+            value = parser.getLongValue();
+          } else {
+            parser.skipChildren();
+          }
+        }
+        counterInfoMap.put(key, new CounterInfo(name, displayName, value));
+      }
+      return counterInfoMap;
+    }
+  }
+
+  private static void writeStringField(JsonGenerator gen, String name, String value)
+      throws IOException {
+    if (value != null) {
+      gen.writeStringField(name, value);
+    }
+  }
+
+  /**
+   * Moves the parser from the start of an object to its first field.
+   *
+   * @return the token of the first field, or the end of the object if it has no fields.
+   */
+  private static JsonToken firstField(JsonParser parser, DeserializationContext context)
+      throws IOException {
+    JsonToken token = parser.getCurrentToken();
+    if (token == JsonToken.START_OBJECT) {
+      return parser.nextToken();
+    }
+    if (token != JsonToken.FIELD_NAME && token != JsonToken.END_OBJECT) {
+      throw new JsonMappingException("Expected start of object but found " + token,
+          parser.getCurrentLocation());
+    }
+    return token;
+  }
+}
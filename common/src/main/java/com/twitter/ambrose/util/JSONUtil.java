@@ -15,22 +15,25 @@ limitations under the License.
 */
 package com.twitter.ambrose.util;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.net.URL;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Set;
 
-import org.reflections.Reflections;
-
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParseException;
@@ -38,20 +41,32 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import com.google.common.reflect.Reflection;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
 import com.twitter.ambrose.model.Job;
 
 /**
  * Helper method for dealing with JSON in a common way.
+ * <p/>
+ * Subclasses of {@link Job} are registered with the mapper by listing their fully qualified names
+ * in a {@value #JOB_SUBTYPES_RESOURCE} resource, one per line, in the jar which contains them.
+ * This is the file format of {@link java.util.ServiceLoader}, but classes listed are only loaded,
+ * not instantiated.
  *
  * @author billg
  */
 public class JSONUtil {
-  
+  /**
+   * Resource listing subclasses of {@link Job} to register.
+   */
+  public static final String JOB_SUBTYPES_RESOURCE =
+      "META-INF/services/com.twitter.ambrose.model.Job";
+
   private JSONUtil() {}
   /**
-   * Writes object to the writer as JSON using Jackson and adds a new-line before flushing.
+   * Writes object to the writer as indented JSON using Jackson and adds a new-line before flushing.
    *
    * @param writer the writer to write the JSON to
    * @param object the object to write as JSON
@@ -61,6 +76,32 @@ public class JSONUtil {
     mapper.writeValue(writer, object);
   }
 
+  /**
+   * Writes object to the writer as compact (non-indented) JSON, for responses sent over the wire.
+   *
+   * @param writer the writer to write the JSON to
+   * @param object the object to write as JSON
+   * @throws IOException if the object can't be serialized as JSON or written to the writer
+   */
+  public static void writeCompactJson(Writer writer, Object object) throws IOException {
+    compactWriter.writeValue(writer, object);
+  }
+
+  /**
+   * Writes object to the writer as compact JSON, writing the configurations of jobs as references
+   * into store.
+   *
+   * @param writer the writer to write the JSON to
+   * @param object the object to write as JSON
+   * @param store store into which job configurations are written
+   * @throws IOException if the object can't be serialized as JSON or written to the writer
+   */
+  public static void writeCompactJson(Writer writer, Object object, ConfigurationStore store)
+      throws IOException {
+    compactWriter.withAttribute(JSONSerializers.CONFIGURATION_STORE_ATTRIBUTE, store)
+        .writeValue(writer, object);
+  }
+
   public static void writeJson(String fileName, Object object) throws IOException {
     Writer writer = new PrintWriter(fileName);
     try {
@@ -83,6 +124,49 @@ public class JSONUtil {
     return writer.toString();
   }
 
+  /**
+   * Serializes object to compact (non-indented) UTF-8 encoded JSON.
+   *
+   * @param object object to serialize.
+   * @return json bytes.
+   * @throws IOException
+   */
+  public static byte[] toJsonBytes(Object object) throws IOException {
+    return compactWriter.writeValueAsBytes(object);
+  }
+
+  /**
+   * Serializes object to compact UTF-8 encoded JSON, writing the configurations of jobs as
+   * references into store.
+   *
+   * @param object object to serialize.
+   * @param store store into which job configurations are written.
+   * @return json bytes.
+   * @throws IOException
+   */
+  public static byte[] toJsonBytes(Object object, ConfigurationStore store) throws IOException {
+    return compactWriter.withAttribute(JSONSerializers.CONFIGURATION_STORE_ATTRIBUTE, store)
+        .writeValueAsBytes(object);
+  }
+
+  /**
+   * Serializes object to compact UTF-8 encoded JSON, writing the configurations of jobs as
+   * references into store and pinning the configurations they refer to.
+   *
+   * @param object object to serialize.
+   * @param store store into which job configurations are written.
+   * @param retainedHashes collection to which the hash of each configuration pinned in store is
+   * added. The caller must release each of them.
+   * @return json bytes.
+   * @throws IOException
+   */
+  public static byte[] toJsonBytes(Object object, ConfigurationStore store,
+      Collection<String> retainedHashes) throws IOException {
+    return compactWriter.withAttribute(JSONSerializers.CONFIGURATION_STORE_ATTRIBUTE, store)
+        .withAttribute(JSONSerializers.RETAINED_CONFIGURATION_HASHES_ATTRIBUTE, retainedHashes)
+        .writeValueAsBytes(object);
+  }
+
   /**
    * Parse JSON string to object.
    *
@@ -116,6 +200,8 @@ public class JSONUtil {
   }
 
   private static final ObjectMapper mapper = newMapper();
+  private static final ObjectWriter compactWriter =
+      mapper.writer().without(SerializationFeature.INDENT_OUTPUT);
 
   private static ObjectMapper newMapper() {
     ObjectMapper mapper = new ObjectMapper();
@@ -127,10 +213,44 @@ public class JSONUtil {
     mapper.disable(SerializationFeature.CLOSE_CLOSEABLE);
     mapper.disable(SerializationFeature.FAIL_ON_EMPTY_BEANS);
     mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    mapper.registerModule(JSONSerializers.module());
 
-    Reflections reflections = new Reflections("com.twitter.ambrose");
-    Set<Class<? extends Job>> jobSubTypes = reflections.getSubTypesOf(Job.class);
+    Set<Class<? extends Job>> jobSubTypes = loadJobSubtypes();
     mapper.registerSubtypes(jobSubTypes.toArray(new Class<?>[jobSubTypes.size()]));
     return mapper;
   }
+
+  /**
+   * Loads the classes listed in all {@value #JOB_SUBTYPES_RESOURCE} resources on the classpath.
+   */
+  static Set<Class<? extends Job>> loadJobSubtypes() {
+    ClassLoader classLoader = JSONUtil.class.getClassLoader();
+    Set<Class<? extends Job>> jobSubTypes = Sets.newLinkedHashSet();
+    try {
+      Enumeration<URL> resources = classLoader.getResources(JOB_SUBTYPES_RESOURCE);
+      while (resources.hasMoreElements()) {
+        URL resource = resources.nextElement();
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(resource.openStream(), Charsets.UTF_8));
+        try {
+          String line;
+          while ((line = reader.readLine()) != null) {
+            int comment = line.indexOf('#');
+            String className = (comment < 0 ? line : line.substring(0, comment)).trim();
+            if (!className.isEmpty()) {
+              jobSubTypes.add(Class.forName(className, false, classLoader).asSubclass(Job.class));
+            }
+          }
+        } finally {
+          reader.close();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException("Could not read " + JOB_SUBTYPES_RESOURCE, e);
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException(
+          "Could not load job subtype listed in " + JOB_SUBTYPES_RESOURCE, e);
+    }
+    return jobSubTypes;
+  }
 }
@@ -41,6 +41,10 @@ define(['lib/jquery', 'lib/uri', './core'], function($, URI, Ambrose) {
       var workflowsUri = 'workflows';
       var jobsUri = 'dag';
       var eventsUri = 'events';
+      var stateUri = 'state';
+      var criticalPathUri = 'criticalPath';
+      var ratesUri = 'rates';
+      var configUri = 'config';
 
       if (baseUri == null) {
         // look for 'localdata' param in current href
@@ -51,6 +55,13 @@ define(['lib/jquery', 'lib/uri', './core'], function($, URI, Ambrose) {
           workflowsUri = 'data/workflows.json';
           jobsUri = 'data/jobs.json';
           eventsUri = 'data/events.json';
+          // demo data is replayed from its events
+          stateUri = null;
+          // demo data has no critical path analysis or counter rates
+          criticalPathUri = null;
+          ratesUri = null;
+          // demo data holds job configurations inline
+          configUri = null;
         }
       } else {
         // resolve relative paths given base uri
@@ -59,12 +70,20 @@ define(['lib/jquery', 'lib/uri', './core'], function($, URI, Ambrose) {
         workflowsUri = new URI(workflowsUri).absoluteTo(uri);
         jobsUri = new URI(jobsUri).absoluteTo(uri);
         eventsUri = new URI(eventsUri).absoluteTo(uri);
+        stateUri = new URI(stateUri).absoluteTo(uri);
+        criticalPathUri = new URI(criticalPathUri).absoluteTo(uri);
+        ratesUri = new URI(ratesUri).absoluteTo(uri);
+        configUri = new URI(configUri).absoluteTo(uri);
       }
 
       this.clustersUri = new URI(clustersUri);
       this.workflowsUri = new URI(workflowsUri);
       this.jobsUri = new URI(jobsUri);
       this.eventsUri = new URI(eventsUri);
+      this.stateUri = stateUri == null ? null : new URI(stateUri);
+      this.criticalPathUri = criticalPathUri == null ? null : new URI(criticalPathUri);
+      this.ratesUri = ratesUri == null ? null : new URI(ratesUri);
+      this.configUri = configUri == null ? null : new URI(configUri);
     },
 
     /**
@@ -122,15 +141,69 @@ define(['lib/jquery', 'lib/uri', './core'], function($, URI, Ambrose) {
      * @param workflowId id of workflow for which to retrieve events.
      * @param lastEventId retrieve events which occurred after the event associated with this id. If
      * null, defaults to -1.
+     * @param maxEvents maximum number of events to retrieve.
+     * @param waitMillis if defined, ask the server to hold the request for up to this many ms until
+     * new events exist. Servers which don't support this respond immediately.
      * @return a jQuery Promise on which success and error callbacks may be registered.
      */
-    getEvents: function(workflowId, lastEventId, maxEvents) {
+    getEvents: function(workflowId, lastEventId, maxEvents, waitMillis) {
       if (lastEventId == null) lastEventId = -1;
-      return this.sendRequest(this.eventsUri, {
+      var params = {
         workflowId: workflowId,
         lastEventId: lastEventId,
         maxEvents: maxEvents
-      });
+      };
+      if (waitMillis != null) params.waitMillis = waitMillis;
+      return this.sendRequest(this.eventsUri, params);
+    },
+
+    /**
+     * Submits asynchronous request for the current state of a workflow from server.
+     *
+     * @param workflowId id of workflow for which to retrieve state.
+     * @return a jQuery Promise on which success and error callbacks may be registered, or null if
+     * state isn't available from the data source in use.
+     */
+    getState: function(workflowId) {
+      if (this.stateUri == null) return null;
+      return this.sendRequest(this.stateUri, { workflowId: workflowId });
+    },
+
+    /**
+     * Submits asynchronous request for the critical path analysis of a workflow from server.
+     *
+     * @param workflowId id of workflow for which to retrieve the critical path.
+     * @return a jQuery Promise on which success and error callbacks may be registered, or null if
+     * the critical path isn't available from the data source in use.
+     */
+    getCriticalPath: function(workflowId) {
+      if (this.criticalPathUri == null) return null;
+      return this.sendRequest(this.criticalPathUri, { workflowId: workflowId });
+    },
+
+    /**
+     * Submits asynchronous request for the counter rates of a job from server.
+     *
+     * @param workflowId id of workflow containing the job.
+     * @param jobName name of the job's node.
+     * @return a jQuery Promise on which success and error callbacks may be registered, or null if
+     * counter rates aren't available from the data source in use.
+     */
+    getCounterRates: function(workflowId, jobName) {
+      if (this.ratesUri == null) return null;
+      return this.sendRequest(this.ratesUri, { workflowId: workflowId, jobName: jobName });
+    },
+
+    /**
+     * Submits asynchronous request for a job configuration from server.
+     *
+     * @param hash hash of the configuration, as found in a job's configurationHash field.
+     * @return a jQuery Promise on which success and error callbacks may be registered, or null if
+     * configurations aren't available from the data source in use.
+     */
+    getConfiguration: function(hash) {
+      if (this.configUri == null) return null;
+      return this.sendRequest(this.configUri, { hash: hash });
     },
   };
 
@@ -16,9 +16,31 @@ limitations under the License.
 
 /**
  * This module defines the Node-Popover view which generates a popover for each job node.
- * The popover toggles on click.
+ * The popover toggles on click, and charts the job's byte rates when the server samples counters.
  */
-define(['lib/jquery', '../core', './core'], function($, Ambrose, View) {
+define(['lib/jquery', 'lib/d3', '../core', './core'], function($, d3, Ambrose, View) {
+  // Counters whose rates are charted, with their legend labels
+  var RATE_COUNTERS = {
+    HDFS_BYTES_READ: 'HDFS read',
+    HDFS_BYTES_WRITTEN: 'HDFS written',
+    REDUCE_SHUFFLE_BYTES: 'Shuffled',
+  };
+
+  // Dimensions of the rate chart (px)
+  var RATE_CHART_WIDTH = 200;
+  var RATE_CHART_HEIGHT = 60;
+
+  // formats a rate in bytes per second
+  function formatByteRate(rate) {
+    var units = ['B', 'KB', 'MB', 'GB', 'TB'];
+    var i = 0;
+    while (rate >= 1024 && i < units.length - 1) {
+      rate /= 1024;
+      i++;
+    }
+    return rate.toFixed(rate < 10 && i > 0 ? 1 : 0) + ' ' + units[i] + '/s';
+  }
+
   // GraphNodePopover ctor
   var GraphNodePopover = View.GraphNodePopover = function(workflow, graphView) {
     return new View.GraphNodePopover.fn.init(workflow, graphView);
@@ -51,6 +73,55 @@ define(['lib/jquery', '../core', './core'], function($, Ambrose, View) {
       workflow.on('jobSelected', function(event, job, prev) {
         self.show(job);
       });
+
+      // refresh the rates of the selected job as it progresses
+      workflow.on('jobProgress jobComplete jobFailed', function(event, job) {
+        if (job === workflow.current.selected) workflow.loadCounterRates(job);
+      });
+      workflow.on('counterRatesLoaded', function(event, job, rates) {
+        self.renderRates(job, rates);
+      });
+    },
+
+    /**
+     * Charts the rates of a job's counters in its popover, if the popover is shown.
+     */
+    renderRates: function(job, rates) {
+      var container = $('.ambrose-view-graph-popover-rates').filter(function() {
+        return $(this).data('job-name') == job.name;
+      });
+      if (container.length == 0) return;
+      container.empty();
+
+      var series = [];
+      $.each(RATE_COUNTERS, function(name, label) {
+        var values = rates.rates[name];
+        if (values && values.length > 0) series.push({ label: label, values: values });
+      });
+      var times = rates.times;
+      if (series.length == 0 || times.length == 0) return;
+
+      var max = d3.max(series, function(s) { return d3.max(s.values); }) || 1;
+      var x = d3.scale.linear()
+        .domain([rates.startTime, times[times.length - 1]])
+        .range([0, RATE_CHART_WIDTH]);
+      var y = d3.scale.linear().domain([0, max]).range([RATE_CHART_HEIGHT, 1]);
+      var svg = d3.select(container.get(0)).append('svg:svg')
+        .attr('width', RATE_CHART_WIDTH)
+        .attr('height', RATE_CHART_HEIGHT);
+      var list = $('<dl>').appendTo(container);
+      $.each(series, function(i, s) {
+        // each rate holds over the interval from the previous sample to its own
+        var points = [];
+        var start = rates.startTime;
+        $.each(s.values, function(j, value) {
+          points.push([x(start), y(value)], [x(times[j]), y(value)]);
+          start = times[j];
+        });
+        svg.append('svg:path').attr('class', 'rate-' + i).attr('d', 'M' + points.join('L'));
+        $('<dt>').appendTo(list).addClass('rate-' + i).text(s.label);
+        $('<dd>').appendTo(list).text(formatByteRate(s.values[s.values.length - 1]));
+      });
     },
 
     getNodeTriggers: function() {
@@ -130,6 +201,11 @@ define(['lib/jquery', '../core', './core'], function($, Ambrose, View) {
           if (mrJobState.totalReducers) addItem('Reducers', mrJobState.totalReducers);
         }
 
+        // rates are charted once loaded
+        $('<div class="ambrose-view-graph-popover-rates">').data('job-name', data.name)
+          .appendTo(body);
+        self.workflow.loadCounterRates(data);
+
         return body;
       }
 
@@ -208,6 +208,9 @@ define([
       workflow.on('jobSelected jobMouseOver', function(event, job, prev) {
         self.handleMouseInteraction(_.reject([prev, job], _.isNull));
       });
+      workflow.on('criticalPathLoaded', function(event, criticalPath) {
+        self.handleCriticalPathLoaded(criticalPath);
+      });
     },
 
     getEdgeMetricFunction: function() {
@@ -377,6 +380,9 @@ define([
       self.removeNodeGroups(g);
       self.createNodeGroups(g);
       self.updateNodeGroups(g);
+      if (self.workflow.criticalPath != null) {
+        self.handleCriticalPathLoaded(self.workflow.criticalPath);
+      }
 
       // trigger event
       // TODO: Trigger on self, not workflow
@@ -392,6 +398,28 @@ define([
       this.rescaleEdges();
     },
 
+    /**
+     * Highlights the nodes on the critical path and the edges between consecutive ones.
+     */
+    handleCriticalPathLoaded: function(criticalPath) {
+      if (this.svg == null) return;
+      var path = criticalPath.path || [];
+      var onPath = {};
+      var criticalEdges = {};
+      _.each(path, function(name, i) {
+        onPath[name] = true;
+        if (i > 0) criticalEdges[path[i - 1] + '\n' + name] = true;
+      });
+      this.svg.selectAll('g.node circle.trigger').classed('critical', function(node) {
+        return onPath[node.data.name] === true;
+      });
+      this.svg.selectAll('path.edge').classed('critical', function(d) {
+        var sourceData = d.source.pseudo ? d.source.source.data : d.source.data;
+        var targetData = d.target.pseudo ? d.target.target.data : d.target.data;
+        return criticalEdges[sourceData.name + '\n' + targetData.name] === true;
+      });
+    },
+
     handleMouseInteraction: function(jobs) {
       var nodes = jobs.map(function(j) { return j.node; });
       this.updateNodeGroupsFill(this.selectNodeGroups(nodes));
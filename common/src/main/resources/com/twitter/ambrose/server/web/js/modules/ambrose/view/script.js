@@ -45,22 +45,90 @@ define(['lib/jquery', '../core', './core', 'lib/jquery-ui'], function($, Ambrose
         }
       });
 
-      // Handle mouse interaction.
+      // Fetch the configuration of the first pig job which starts, since it holds the script.
+      workflow.on('jobStarted', function(event, job) {
+        self.loadScriptConfiguration(workflow, [job]);
+      });
+
+      // A loaded state only replays the latest event of each job, which for jobs that started
+      // earlier isn't a 'jobStarted' event, so fetch the configuration of its first pig job.
+      workflow.on('stateLoaded', function(event, state) {
+        self.loadScriptConfiguration(workflow, workflow.jobs);
+      });
+
+      // Show the script once a pig job's configuration has been fetched from the server.
+      workflow.on('jobConfigurationLoaded', function(event, job) {
+        if (job.runtime == "pig") {
+          self.showScriptAction.toggleClass("hidden", false);
+          self.updateScript({ job: job });
+        }
+      });
+
+      // Handle mouse interaction, once the configurations of the jobs involved are loaded.
       workflow.on('jobMouseOver', function(event, job, prev) {
-        self.unhighlightScript();
         if ((job && job.runtime == "pig") || (prev && prev.runtime == "pig")) {
-          self.highlightScript(job, 'mouseOver', false);
-          self.highlightScript(workflow.current.selected, 'mouseClick', false);
+          self.loadConfigurations(workflow, [job, workflow.current.selected]).done(function() {
+            if (workflow.current.mouseover != job) return;
+            self.unhighlightScript();
+            self.highlightScript(job, 'mouseOver', false);
+            self.highlightScript(workflow.current.selected, 'mouseClick', false);
+          });
+        } else {
+          self.unhighlightScript();
         }
       });
 
       workflow.on('jobSelected', function(event, job, prev) {
-        self.unhighlightScript();
         if ((job && job.runtime == "pig") || (prev && prev.runtime == "pig")) {
-          self.highlightScript(workflow.current.mouseover, 'mouseOver', false);
-          self.highlightScript(job, 'mouseClick', true);
+          self.loadConfigurations(workflow, [workflow.current.mouseover, job]).done(function() {
+            if (workflow.current.selected != job) return;
+            self.unhighlightScript();
+            self.highlightScript(workflow.current.mouseover, 'mouseOver', false);
+            self.highlightScript(job, 'mouseClick', true);
+          });
+        } else {
+          self.unhighlightScript();
+        }
+      });
+    },
+
+    /**
+     * Shows the script held by the configuration of the first pig job among jobs which has one,
+     * loading the configuration if it was sent as a reference, unless the script is already shown.
+     *
+     * @param workflow the Workflow the jobs belong to.
+     * @param jobs jobs from which to pick the pig job.
+     */
+    loadScriptConfiguration : function(workflow, jobs) {
+      if (this.scriptDiv.find('.scriptLoaded').length > 0) return;
+      for (var i = 0; i < jobs.length; i++) {
+        var job = jobs[i];
+        if (!job || job.runtime != "pig") continue;
+        if (job.configuration != null) {
+          this.showScriptAction.toggleClass("hidden", false);
+          this.updateScript({ job: job });
+          return;
+        }
+        if (job.configurationHash != null) {
+          workflow.loadConfiguration(job);
+          return;
         }
+      }
+    },
+
+    /**
+     * Loads the configurations of jobs which were sent as references.
+     *
+     * @param workflow the Workflow the jobs belong to.
+     * @param jobs jobs for which to load configurations, which may include null.
+     * @return Promise resolved once all configurations are loaded or failed to load.
+     */
+    loadConfigurations : function(workflow, jobs) {
+      var requests = [];
+      $.each(jobs, function(i, job) {
+        if (job) requests.push(workflow.loadConfiguration(job));
       });
+      return $.when.apply($, requests);
     },
 
     /**
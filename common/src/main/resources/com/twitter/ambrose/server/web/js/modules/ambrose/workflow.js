@@ -28,6 +28,18 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
   // Maximum number of events to request at once
   var MAX_EVENTS = 10;
 
+  // HTTP status returned when events after lastEventId have been evicted by the server
+  var HTTP_GONE = 410;
+
+  // Time the server is asked to hold each long poll request open waiting for new events (ms)
+  var LONG_POLL_WAIT_MILLIS = 25000;
+
+  // Response header set by servers which support long polling
+  var LONG_POLL_HEADER = 'X-Ambrose-Long-Poll';
+
+  // Minimum time between critical path requests while events arrive (ms)
+  var CRITICAL_PATH_MIN_INTERVAL = 5000;
+
   // return data.job, throwing error if it's undefined
   function getJob(data) {
     var job = data.job;
@@ -67,6 +79,9 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
       this.jobsByName = {};
       this.jobsById = {};
       this.lastEventId = -1;
+      this.criticalPath = null;
+      this.criticalPathLoadedAt = 0;
+      this.configurationsByHash = {};
       this.current = {
         selected: null,
         mouseover: null,
@@ -135,6 +150,8 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
           if (job.mapReduceJobState) { job.mapReduceJobState = null; }
           if (job.counterGroupMap) { job.counterGroupMap = null; }
           if (job.configuration) { job.configuration = null; }
+          if (job.configurationHash) { job.configurationHash = null; }
+          if (job.configurationDiff) { job.configurationDiff = null; }
           if (job.metrics) { job.metrics = null; }
 
           jobs.push(job);
@@ -204,24 +221,52 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
     },
 
     /**
-     * Starts event polling if not already started.
+     * Starts event polling if not already started. If the server supports long polling, each
+     * request is held open by the server until new events exist and the next request is sent as
+     * soon as the previous one completes. Otherwise events are polled at the given frequency.
      *
-     * @param frequency poll events at this frequency (ms). Defaults to 1000.
+     * @param frequency poll events at this frequency (ms). Defaults to 1000. When long polling,
+     * this is the delay before the next request while there is a backlog of more than maxEvents
+     * events, or after a failed request.
      * @param maxEvents max number of events to process on each request. Defaults to MAX_EVENTS.
      * @return this.
      */
     startEventPolling: function(frequency, maxEvents) {
       var self = this;
-      if (self.eventPollingIntervalId != null) return;
+      if (self.eventPolling) return;
       if (frequency == null) frequency = 1000;
       if (maxEvents == null) maxEvents = MAX_EVENTS;
       console.info('Starting event polling');
+      self.eventPolling = true;
+      self.eventPollingFrequency = frequency;
+      self.eventPollingMaxEvents = maxEvents;
       self.clientFailureCount = 0;
       var pollEvents = function() { self.pollEvents(maxEvents); };
-      self.eventPollingIntervalId = setInterval(pollEvents, frequency);
+      var longPoll = function() {
+        self.eventPollingTimeoutId = null;
+        if (!self.eventPolling) return;
+        var request = self.pollEvents(maxEvents, LONG_POLL_WAIT_MILLIS);
+        if (request == null) return;
+        request
+          .success(function(data, textStatus, jqXHR) {
+            if (!self.eventPolling) return;
+            if (!jqXHR.getResponseHeader(LONG_POLL_HEADER)) {
+              // server answers immediately; fall back to polling at a fixed frequency
+              console.info('Long polling unsupported; polling events every ' + frequency + 'ms');
+              self.eventPollingIntervalId = setInterval(pollEvents, frequency);
+              return;
+            }
+            var backlog = data != null && data.length >= maxEvents;
+            self.eventPollingTimeoutId = setTimeout(longPoll, backlog ? frequency : 0);
+          })
+          .error(function() {
+            if (!self.eventPolling) return;
+            self.eventPollingTimeoutId = setTimeout(longPoll, frequency);
+          });
+      };
       self.trigger('eventPollingStarted');
       // poll once right now to kick things off
-      pollEvents();
+      longPoll();
       return this;
     },
 
@@ -231,10 +276,17 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
      * @return this.
      */
     stopEventPolling: function() {
-      if (this.eventPollingIntervalId == null) return;
+      if (!this.eventPolling) return;
       console.info('Stopping event polling');
-      clearInterval(this.eventPollingIntervalId);
-      this.eventPollingIntervalId = null;
+      this.eventPolling = false;
+      if (this.eventPollingIntervalId != null) {
+        clearInterval(this.eventPollingIntervalId);
+        this.eventPollingIntervalId = null;
+      }
+      if (this.eventPollingTimeoutId != null) {
+        clearTimeout(this.eventPollingTimeoutId);
+        this.eventPollingTimeoutId = null;
+      }
       this.trigger('eventPollingStopped');
       return this;
     },
@@ -248,16 +300,19 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
      * 'jobComplete', 'jobFailed'}.
      *
      * @param maxEvents max number of events to process. Defaults to MAX_EVENTS
+     * @param waitMillis if defined, ask the server to hold the request open for up to this many ms
+     * until new events exist.
      * @return Promise configured with error and success callbacks which update state of this
-     * Workflow and trigger events.
+     * Workflow and trigger events, or undefined if the Workflow is complete.
      */
-    pollEvents: function(maxEvents) {
+    pollEvents: function(maxEvents, waitMillis) {
       if (maxEvents == null) maxEvents = MAX_EVENTS;
 
       // stop polling if all jobs are done
       if (this.isComplete()) {
         console.info('Workflow complete');
         this.stopEventPolling();
+        this.loadCriticalPath(true);
         this.trigger('workflowComplete');
         return;
       }
@@ -306,71 +361,275 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
           // update state
           self.lastEventId = id;
           eventsProcessed++;
+          self.processEvent(event);
+        });
+
+        // update state and trigger event
+        self.trigger('eventsPolled', [data, textStatus, null]);
+
+        // refresh critical path now that job times have changed
+        if (eventsProcessed > 0) self.loadCriticalPath();
+      };
 
-          // check for workflow event
-          if (type == 'WORKFLOW_PROGRESS') {
-            self.setProgress(data.workflowProgress);
+      // initiate request
+      return this.client.getEvents(this.id, this.lastEventId, maxEvents, waitMillis)
+        .error(function(jqXHR, textStatus, errorThrown) {
+          if (jqXHR.status == HTTP_GONE) {
+            // server no longer holds all events since lastEventId; start over from current state
+            console.warn('Events evicted since last event id; resyncing:', self.lastEventId);
+            self.resync();
             return;
           }
+          handleError(textStatus, errorThrown);
+        })
+        .success(function(data, textStatus, jqXHR) {
+          handleSuccess(data, textStatus);
+        });
+    },
 
-          // collect job data
-          var node = data;
-          var job = node.job;
-          job.name = node.name;
+    /**
+     * Applies a single valid event to this Workflow, triggering one of the events in set
+     * {'workflowProgress', 'jobStarted', 'jobProgress', 'jobComplete', 'jobFailed'}.
+     *
+     * @param event the event to apply.
+     * @throws Error if no job with the event's node name exists.
+     */
+    processEvent: function(event) {
+      var type = event.type;
+      var data = event.payload;
 
-          // retrieve and update job with new data
-          job = self.updateJob(job);
-          self.jobsById[job.id] = job;
+      // check for workflow event
+      if (type == 'WORKFLOW_PROGRESS') {
+        this.setProgress(data.workflowProgress);
+        return;
+      }
 
-          // process job event
-          switch (type) {
-          case 'JOB_STARTED':
-            console.info('Job started:', job);
-            job.status = 'RUNNING';
-            break;
-          case 'JOB_PROGRESS':
-            console.info('Job progress:', job);
-            if (job.isComplete == 'true') {
-              if (job.isSuccessful == 'true') {
-                job.status = 'COMPLETE';
-              } else {
-                job.status = 'FAILED';
-              }
-            }
-            break;
-          case 'JOB_FINISHED':
-            // TODO(Andy Schlaikjer): rename JOB_FINISHED to JOB_COMPLETE in server
-            type = 'JOB_COMPLETE';
-            console.info('Job complete:', job);
+      // collect job data
+      var node = data;
+      var job = node.job;
+      job.name = node.name;
+
+      // a configuration reference replaces the configuration loaded for a previous one
+      if (job.configurationHash != null) {
+        job.configuration = null;
+        job.configurationDiff = job.configurationDiff || null;
+      }
+
+      // retrieve and update job with new data
+      job = this.updateJob(job);
+      this.jobsById[job.id] = job;
+
+      // process job event
+      switch (type) {
+      case 'JOB_STARTED':
+        console.info('Job started:', job);
+        job.status = 'RUNNING';
+        break;
+      case 'JOB_PROGRESS':
+        console.info('Job progress:', job);
+        if (job.isComplete == 'true') {
+          if (job.isSuccessful == 'true') {
             job.status = 'COMPLETE';
-            break;
-          case 'JOB_FAILED':
-            console.info('Job failed:', job);
+          } else {
             job.status = 'FAILED';
-            break;
-          default:
-            console.error("Unsupported event type '" + type + "':", self, event);
-            return;
           }
+        }
+        break;
+      case 'JOB_FINISHED':
+        // TODO(Andy Schlaikjer): rename JOB_FINISHED to JOB_COMPLETE in server
+        type = 'JOB_COMPLETE';
+        console.info('Job complete:', job);
+        job.status = 'COMPLETE';
+        break;
+      case 'JOB_FAILED':
+        console.info('Job failed:', job);
+        job.status = 'FAILED';
+        break;
+      default:
+        console.error("Unsupported event type '" + type + "':", this, event);
+        return;
+      }
 
-          // update state and trigger event
-          self.trigger(type.toLowerCase().camelCase(), [job, event]);
+      // update state and trigger event
+      this.trigger(type.toLowerCase().camelCase(), [job, event]);
+    },
+
+    /**
+     * Initiates asynchronous request for the current state of this Workflow, which holds the latest
+     * event of each job, so that event polling can start after the last event the state reflects
+     * instead of replaying all events. On success the state is applied and 'stateLoaded' event is
+     * triggered. Failures are logged and otherwise ignored, leaving events to be replayed.
+     *
+     * @return Promise which is resolved once the request completes, successfully or not.
+     */
+    loadState: function() {
+      var self = this;
+      var request = self.client.getState(self.id);
+      if (request == null) return $.Deferred().resolve().promise();
+      var done = $.Deferred();
+      request
+        .error(function(jqXHR, textStatus, errorThrown) {
+          console.info('Workflow state unavailable; replaying events:', textStatus, errorThrown);
+        })
+        .success(function(data, textStatus, jqXHR) {
+          if (data != null) self.applyState(data);
+        })
+        .always(function() {
+          done.resolve();
         });
+      return done.promise();
+    },
 
-        // update state and trigger event
-        self.trigger('eventsPolled', [data, textStatus, null]);
-      };
+    /**
+     * Applies the current state of this Workflow, as returned by the server.
+     *
+     * @param state object holding the latest workflow progress event, the status and latest event
+     * of each job, and the id of the last event the state reflects.
+     * @return this.
+     */
+    applyState: function(state) {
+      var self = this;
+      if (state.workflowProgress) self.processEvent(state.workflowProgress);
+      $.each(state.nodes || [], function(i, node) {
+        var job = self.jobsByName[node.name];
+        if (job == null) {
+          console.error("No job with name '" + node.name + "' exists", self);
+          return;
+        }
+        // set status first; the job's event may refine it
+        job.status = node.status;
+        self.processEvent(node.event);
+      });
+      if (state.lastEventId > self.lastEventId) self.lastEventId = state.lastEventId;
+      self.trigger('stateLoaded', [state]);
+      return self;
+    },
 
-      // initiate request
-      return this.client.getEvents(this.id, this.lastEventId, maxEvents)
+    /**
+     * Initiates asynchronous request for the critical path of this Workflow, unless one is already
+     * pending or, unless forced, the last one was sent less than CRITICAL_PATH_MIN_INTERVAL ms ago.
+     * On success, 'criticalPathLoaded' event is triggered. Failures are logged and otherwise
+     * ignored, since servers may not support critical path analysis.
+     *
+     * @param force if true, ignore CRITICAL_PATH_MIN_INTERVAL.
+     * @return Promise configured with error and success callbacks, or undefined if no request was
+     * sent.
+     */
+    loadCriticalPath: function(force) {
+      var self = this;
+      if (self.criticalPathLoading) return;
+      var now = new Date().getTime();
+      if (!force && now - self.criticalPathLoadedAt < CRITICAL_PATH_MIN_INTERVAL) return;
+      var request = self.client.getCriticalPath(self.id);
+      if (request == null) return;
+      self.criticalPathLoading = true;
+      self.criticalPathLoadedAt = now;
+      return request
         .error(function(jqXHR, textStatus, errorThrown) {
-          handleError(textStatus, errorThrown);
+          console.warn('Failed to load critical path:', textStatus, errorThrown);
         })
         .success(function(data, textStatus, jqXHR) {
-          handleSuccess(data, textStatus);
+          if (data != null) self.setCriticalPath(data);
+        })
+        .always(function() {
+          self.criticalPathLoading = false;
+        });
+    },
+
+    /**
+     * Sets this Workflow's critical path, updates 'critical' and 'slack' fields of its jobs and
+     * triggers 'criticalPathLoaded' event.
+     *
+     * @param criticalPath critical path analysis returned by the server.
+     * @return this.
+     */
+    setCriticalPath: function(criticalPath) {
+      var jobsByName = this.jobsByName;
+      $.each(criticalPath.nodes || [], function(i, node) {
+        var job = jobsByName[node.name];
+        if (job == null) return;
+        job.critical = node.critical;
+        job.slack = node.slack;
+      });
+      this.criticalPath = criticalPath;
+      this.trigger('criticalPathLoaded', [criticalPath]);
+      return this;
+    },
+
+    /**
+     * Initiates asynchronous request for the counter rates of a job. On success,
+     * 'counterRatesLoaded' event is triggered. Failures are logged and otherwise ignored, since
+     * servers may not sample counters, and jobs have no rates until they've made progress.
+     *
+     * @param job job for which to load counter rates.
+     * @return Promise configured with error and success callbacks, or undefined if counter rates
+     * aren't available.
+     */
+    loadCounterRates: function(job) {
+      var self = this;
+      var request = self.client.getCounterRates(self.id, job.name);
+      if (request == null) return;
+      return request
+        .error(function(jqXHR, textStatus, errorThrown) {
+          console.debug('No counter rates for job:', job.name, textStatus, errorThrown);
+        })
+        .success(function(data, textStatus, jqXHR) {
+          if (data != null) self.trigger('counterRatesLoaded', [job, data]);
         });
     },
 
+    /**
+     * Loads the configuration of a job, if the server sent a reference to it instead: the hash of a
+     * configuration held by the server, which is requested once per hash, and the entries in which
+     * the job's configuration differs from it, null values marking removed entries. On success the
+     * configuration is set as the job's configuration field and 'jobConfigurationLoaded' event is
+     * triggered.
+     *
+     * @param job job for which to load the configuration.
+     * @return Promise resolved with the job's configuration, or with undefined if it has none.
+     */
+    loadConfiguration: function(job) {
+      var self = this;
+      var hash = job.configurationHash;
+      if (job.configuration != null || hash == null) {
+        return $.Deferred().resolve(job.configuration).promise();
+      }
+      var request = self.configurationsByHash[hash];
+      if (request == null) {
+        request = self.client.getConfiguration(hash);
+        if (request == null) return $.Deferred().resolve().promise();
+        request.error(function(jqXHR, textStatus, errorThrown) {
+          // allow a later attempt
+          delete self.configurationsByHash[hash];
+        });
+        self.configurationsByHash[hash] = request;
+      }
+      var done = $.Deferred();
+      request
+        .success(function(data, textStatus, jqXHR) {
+          // the job may have received a reference to another configuration meanwhile
+          if (job.configurationHash != hash) {
+            done.resolve(job.configuration);
+            return;
+          }
+          var configuration = $.extend({}, data);
+          $.each(job.configurationDiff || {}, function(key, value) {
+            if (value == null) {
+              delete configuration[key];
+            } else {
+              configuration[key] = value;
+            }
+          });
+          job.configuration = configuration;
+          self.trigger('jobConfigurationLoaded', [job]);
+          done.resolve(configuration);
+        })
+        .error(function() {
+          done.resolve();
+        });
+      return done.promise();
+    },
+
     /**
      * @return true if this Workflow is complete, false otherwise.
      */
@@ -495,13 +754,33 @@ define(['lib/jquery', 'lib/uri', './core', './client', './graph'], function(
     },
 
     /**
-     * Reload jobs and poll for as many events as possible.
+     * Reload jobs and their current state, then resume event polling as it was. Used when the
+     * server no longer holds the events following the last one processed, since applying the
+     * events it still holds to the current jobs would move their statuses backwards.
+     */
+    resync: function() {
+      var self = this;
+      var frequency = self.eventPollingFrequency;
+      var maxEvents = self.eventPollingMaxEvents;
+      self.stopEventPolling();
+      self.lastEventId = -1;
+      self.loadJobs().done(function() {
+        self.loadState().done(function() {
+          self.startEventPolling(frequency, maxEvents);
+        });
+      });
+    },
+
+    /**
+     * Reload jobs and their current state, then poll for as many events as possible.
      */
     jumpToEnd: function() {
       var self = this;
       self.stopEventPolling();
       self.loadJobs().done(function() {
-        self.startEventPolling(1000, MAX_EVENTS);
+        self.loadState().done(function() {
+          self.startEventPolling(1000, MAX_EVENTS);
+        });
       });
     },
   };
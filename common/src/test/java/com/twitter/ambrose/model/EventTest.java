@@ -4,12 +4,14 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Properties;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Maps;
 
 import org.junit.Test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -63,4 +65,19 @@ public class EventTest {
     assertEquals("job_local_0001", job.getId());
     assertEquals(111, job.getMetrics().get("somemetrics"));
   }
+
+  private static EncodedEvent encoded(String json) {
+    return new EncodedEvent(1, null, null, json.getBytes(Charsets.UTF_8));
+  }
+
+  @Test
+  public void testEncodedEventIsJsonObject() {
+    assertTrue(encoded("{\"id\":1}").isJsonObject());
+    assertTrue(encoded(" \n{\"name\":\"\u00e9\"}\r\n").isJsonObject());
+    assertFalse(encoded("[{}]").isJsonObject());
+    assertFalse(encoded("{\"id\":1").isJsonObject());
+    assertFalse(encoded("\"{}\"").isJsonObject());
+    assertFalse(encoded(" { ").isJsonObject());
+    assertFalse(encoded("").isJsonObject());
+  }
 }
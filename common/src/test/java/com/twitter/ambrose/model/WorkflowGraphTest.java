@@ -0,0 +1,149 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link WorkflowGraph}.
+ */
+public class WorkflowGraphTest {
+  /**
+   * Builds a DAG node map from "name:successor,successor" specs. Nodes without a colon have no
+   * successors set.
+   */
+  private static Map<String, DAGNode<Job>> dag(String... specs) {
+    Map<String, DAGNode<Job>> nodes = Maps.newLinkedHashMap();
+    for (String spec : specs) {
+      String name = spec.split(":")[0];
+      nodes.put(name, new DAGNode<Job>(name, new Job(name + "-job", null, null)));
+    }
+    for (String spec : specs) {
+      String[] parts = spec.split(":");
+      if (parts.length == 1 && !spec.endsWith(":")) {
+        continue;
+      }
+      List<DAGNode<? extends Job>> successors = Lists.newArrayList();
+      if (parts.length > 1) {
+        for (String successorName : parts[1].split(",")) {
+          successors.add(nodes.get(successorName));
+        }
+      }
+      nodes.get(parts[0]).setSuccessors(successors);
+    }
+    return nodes;
+  }
+
+  private static List<String> successors(WorkflowGraph<?> graph, String name) {
+    int id = graph.getId(name);
+    List<String> names = Lists.newArrayList();
+    for (int i = 0; i < graph.getSuccessorCount(id); i++) {
+      names.add(graph.getName(graph.getSuccessor(id, i)));
+    }
+    return names;
+  }
+
+  private static List<String> predecessors(WorkflowGraph<?> graph, String name) {
+    int id = graph.getId(name);
+    List<String> names = Lists.newArrayList();
+    for (int i = 0; i < graph.getPredecessorCount(id); i++) {
+      names.add(graph.getName(graph.getPredecessor(id, i)));
+    }
+    return names;
+  }
+
+  @Test
+  public void testEdges() {
+    WorkflowGraph<Job> graph = WorkflowGraph.of(dag("a:b,c", "b:d", "c:d", "d:"));
+    assertEquals(4, graph.size());
+    assertEquals(4, graph.getEdgeCount());
+    assertEquals(0, graph.getId("a"));
+    assertEquals(-1, graph.getId("e"));
+    assertEquals("c", graph.getName(2));
+    assertEquals("c-job", graph.getJob(2).getId());
+    assertEquals(2, successors(graph, "a").size());
+    assertTrue(successors(graph, "a").containsAll(Arrays.asList("b", "c")));
+    assertEquals(Arrays.asList("d"), successors(graph, "b"));
+    assertEquals(Arrays.asList(), successors(graph, "d"));
+    assertEquals(Arrays.asList(), predecessors(graph, "a"));
+    assertEquals(Arrays.asList("a"), predecessors(graph, "b"));
+    assertEquals(Arrays.asList("b", "c"), predecessors(graph, "d"));
+  }
+
+  @Test
+  public void testIgnoresUnknownSuccessors() {
+    Map<String, DAGNode<Job>> nodes = dag("a:b", "b:");
+    nodes.remove("b");
+    WorkflowGraph<Job> graph = WorkflowGraph.of(nodes);
+    assertEquals(1, graph.size());
+    assertEquals(0, graph.getEdgeCount());
+    assertTrue(graph.hasSuccessorNames(0));
+  }
+
+  @Test
+  public void testTopologicalOrder() {
+    WorkflowGraph<Job> graph = WorkflowGraph.of(dag("d:", "c:d", "b:d", "a:b,c"));
+    int[] order = graph.getTopologicalOrder();
+    assertEquals(4, order.length);
+    int[] position = new int[order.length];
+    for (int i = 0; i < order.length; i++) {
+      position[order[i]] = i;
+    }
+    for (int id = 0; id < graph.size(); id++) {
+      for (int i = 0; i < graph.getSuccessorCount(id); i++) {
+        assertTrue(position[id] < position[graph.getSuccessor(id, i)]);
+      }
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testTopologicalOrderOfCycle() {
+    WorkflowGraph.of(dag("a:b", "b:a")).getTopologicalOrder();
+  }
+
+  @Test
+  public void testEmpty() throws IOException {
+    WorkflowGraph<Job> graph = WorkflowGraph.of(ImmutableMap.<String, DAGNode<Job>>of());
+    assertEquals(0, graph.size());
+    assertEquals(0, graph.getTopologicalOrder().length);
+    assertEquals("[]", JSONUtil.toJson(graph).replaceAll("\\s", ""));
+  }
+
+  @Test
+  public void testSerializesAsDagNodes() throws IOException {
+    Map<String, DAGNode<Job>> nodes = dag("a:b,c", "b:d", "c:d", "d:", "e");
+    Collection<DAGNode<Job>> values = nodes.values();
+    WorkflowGraph<Job> graph = WorkflowGraph.of(nodes);
+    assertFalse(graph.hasSuccessorNames(graph.getId("e")));
+    assertEquals(JSONUtil.toJson(values.toArray(new DAGNode[values.size()])),
+        JSONUtil.toJson(graph));
+  }
+}
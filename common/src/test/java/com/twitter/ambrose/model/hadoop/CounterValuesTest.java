@@ -0,0 +1,98 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model.hadoop;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for CounterValues and the metrics MapReduceJob derives from them.
+ */
+public class CounterValuesTest {
+  private static CounterGroup group(String groupName, Object... namesAndValues) {
+    Map<String, CounterInfo> counterInfoMap = Maps.newHashMap();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      String name = (String) namesAndValues[i];
+      long value = ((Number) namesAndValues[i + 1]).longValue();
+      counterInfoMap.put(name, new CounterInfo(name, null, value));
+    }
+    return new CounterGroup(groupName, null, counterInfoMap);
+  }
+
+  private static Map<String, CounterGroup> groups(CounterGroup... counterGroups) {
+    Map<String, CounterGroup> counterGroupMap = Maps.newLinkedHashMap();
+    for (CounterGroup counterGroup : counterGroups) {
+      counterGroupMap.put(counterGroup.getGroupName(), counterGroup);
+    }
+    return counterGroupMap;
+  }
+
+  @Test
+  public void testReadsCommonCounters() {
+    CounterValues values = CounterValues.of(groups(
+        group("FileSystemCounters", "HDFS_BYTES_READ", 42, "HDFS_BYTES_WRITTEN", 0),
+        group("org.apache.hadoop.mapreduce.TaskCounter", "MAP_INPUT_RECORDS", 7, "CUSTOM", 1),
+        group("custom", "HDFS_BYTES_WRITTEN", 5, "MAP_OUTPUT_RECORDS", 3)));
+    assertEquals(3, values.size());
+    assertEquals(42, values.get(CounterId.HDFS_BYTES_READ));
+    assertTrue(values.contains(CounterId.HDFS_BYTES_WRITTEN));
+    assertEquals(0, values.get(CounterId.HDFS_BYTES_WRITTEN));
+    assertEquals(7, values.get(CounterId.MAP_INPUT_RECORDS));
+    assertFalse(values.contains(CounterId.MAP_OUTPUT_RECORDS));
+  }
+
+  private static void assertPrecedence(CounterValues values) {
+    assertEquals(2, values.get(CounterId.TOTAL_LAUNCHED_MAPS));
+    assertFalse(values.contains(CounterId.DATA_LOCAL_MAPS));
+  }
+
+  @Test
+  public void testFirstGroupNameTakesPrecedence() {
+    CounterGroup current =
+        group("org.apache.hadoop.mapreduce.JobCounter", "TOTAL_LAUNCHED_MAPS", 2);
+    CounterGroup deprecated = group("org.apache.hadoop.mapred.JobInProgress$Counter",
+        "TOTAL_LAUNCHED_MAPS", 1, "DATA_LOCAL_MAPS", 1);
+    assertPrecedence(CounterValues.of(groups(current, deprecated)));
+    assertPrecedence(CounterValues.of(groups(deprecated, current)));
+    assertEquals(1, CounterValues.of(groups(deprecated)).get(CounterId.DATA_LOCAL_MAPS));
+  }
+
+  @Test
+  public void testJobMetrics() {
+    MapReduceJobState state = new MapReduceJobState();
+    state.setTotalMappers(10);
+    state.setTotalReducers(2);
+    MapReduceJob job = new MapReduceJob();
+    job.setMapReduceJobState(state);
+    assertEquals(ImmutableMap.<String, Number>of("MAP_TASK_COUNT", 10, "REDUCE_TASK_COUNT", 2),
+        job.getMetrics());
+    assertNull(job.getCounterValue(CounterId.HDFS_BYTES_READ));
+
+    job.setCounterGroupMap(groups(group("FileSystemCounters", "HDFS_BYTES_READ", 42)));
+    assertEquals(ImmutableMap.<String, Number>of(
+        "MAP_TASK_COUNT", 10, "REDUCE_TASK_COUNT", 2, "HDFS_BYTES_READ", 42L), job.getMetrics());
+    assertEquals(Long.valueOf(42), job.getCounterValue(CounterId.HDFS_BYTES_READ));
+  }
+}
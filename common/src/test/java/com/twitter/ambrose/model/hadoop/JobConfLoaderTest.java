@@ -0,0 +1,127 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model.hadoop;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for JobConfLoader.
+ */
+public class JobConfLoaderTest {
+  private static final List<String> ALL = Collections.emptyList();
+  private static final String JOB_CONF = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+      + "<configuration>\n"
+      + "<property><name>mapred.job.name</name><value>PigLatin:demo.pig</value></property>\n"
+      + "<property><name>pig.script</name><value>a = load 'x';</value></property>\n"
+      + "<property><name>pig.alias</name><value>a</value><final>true</final></property>\n"
+      + "<property><name>io.sort.mb</name><value>100</value></property>\n"
+      + "<property><name>io.sort.mb</name><value>200</value></property>\n"
+      + "<property><name>empty</name><value></value></property>\n"
+      + "</configuration>\n";
+
+  private static InputStream stream(String xml) {
+    return new ByteArrayInputStream(xml.getBytes(Charsets.UTF_8));
+  }
+
+  private static String newJobFile(String xml) throws IOException {
+    File file = File.createTempFile("job", ".xml");
+    file.deleteOnExit();
+    Files.write(xml, file, Charsets.UTF_8);
+    return "file:" + file.getAbsolutePath();
+  }
+
+  @Test
+  public void testParseKeepsAllProperties() throws IOException {
+    Properties properties = JobConfLoader.parse(stream(JOB_CONF), ALL);
+    assertEquals(5, properties.size());
+    assertEquals("PigLatin:demo.pig", properties.getProperty("mapred.job.name"));
+    assertEquals("a = load 'x';", properties.getProperty("pig.script"));
+    assertEquals("a", properties.getProperty("pig.alias"));
+    assertEquals("200", properties.getProperty("io.sort.mb"));
+    assertEquals("", properties.getProperty("empty"));
+  }
+
+  @Test
+  public void testParseKeepsAllowedPrefixes() throws IOException {
+    Properties properties =
+        JobConfLoader.parse(stream(JOB_CONF), ImmutableList.of("pig.", "mapred.job.name"));
+    assertEquals(3, properties.size());
+    assertEquals("PigLatin:demo.pig", properties.getProperty("mapred.job.name"));
+    assertEquals("a", properties.getProperty("pig.alias"));
+    assertNull(properties.getProperty("io.sort.mb"));
+  }
+
+  @Test
+  public void testParseRejectsMalformedXml() {
+    try {
+      JobConfLoader.parse(stream("<configuration><property>"), ALL);
+      fail();
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testLoadsEachJobFileOnce() throws IOException {
+    JobConfLoader loader = new JobConfLoader(new Configuration(), 10, ALL);
+    String jobFile = newJobFile(JOB_CONF);
+    Properties properties = loader.getJobConf(jobFile);
+    properties.setProperty("io.sort.mb", "300");
+    assertEquals("200", loader.getJobConf(jobFile).getProperty("io.sort.mb"));
+    assertEquals(1, loader.getLoadCount());
+    assertEquals(1, loader.size());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws IOException {
+    JobConfLoader loader = new JobConfLoader(new Configuration(), 2, ALL);
+    String first = newJobFile(JOB_CONF);
+    String second = newJobFile(JOB_CONF);
+    String third = newJobFile(JOB_CONF);
+    loader.getJobConf(first);
+    loader.getJobConf(second);
+    loader.getJobConf(first);
+    loader.getJobConf(third);
+    assertEquals(3, loader.getLoadCount());
+    loader.getJobConf(first);
+    assertEquals(3, loader.getLoadCount());
+    loader.getJobConf(second);
+    assertEquals(4, loader.getLoadCount());
+  }
+
+  @Test(expected = IOException.class)
+  public void testMissingJobFile() throws IOException {
+    JobConfLoader loader = new JobConfLoader(new Configuration(), 10, ALL);
+    loader.getJobConf(newJobFile(JOB_CONF) + ".missing");
+  }
+}
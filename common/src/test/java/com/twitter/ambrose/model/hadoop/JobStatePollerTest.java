@@ -0,0 +1,230 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.model.hadoop;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.mapred.Counters;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for JobStatePoller, using a local stand-in for the jobtracker.
+ */
+public class JobStatePollerTest {
+  private static final String JOB_ID = "job_201401010000_0001";
+  private final JobStatePoller poller = new JobStatePoller(10, 50, 2, 100);
+
+  /**
+   * Stand-in for the jobtracker, which reports the configured progress and counts polls.
+   */
+  private static class FakeSource implements JobStatePoller.JobStateSource {
+    private final AtomicInteger polls = new AtomicInteger();
+    private final AtomicInteger taskReportPolls = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private volatile float progress;
+    private volatile boolean complete;
+    private volatile boolean failing;
+    private volatile Counters counters;
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Override
+    public MapReduceJobState getJobState(String jobId, MapReduceJobState previous,
+        boolean fetchTaskReports) throws Exception {
+      int current = running.incrementAndGet();
+      int max;
+      do {
+        max = maxRunning.get();
+      } while (current > max && !maxRunning.compareAndSet(max, current));
+      try {
+        release.await();
+        polls.incrementAndGet();
+        if (fetchTaskReports) {
+          taskReportPolls.incrementAndGet();
+        }
+        if (failing) {
+          throw new Exception("jobtracker unavailable");
+        }
+        MapReduceJobState state = newState(jobId, progress, complete);
+        state.setCounters(counters);
+        return state;
+      } finally {
+        running.decrementAndGet();
+      }
+    }
+  }
+
+  private static MapReduceJobState newState(String jobId, float mapProgress, boolean complete) {
+    MapReduceJobState state = new MapReduceJobState();
+    state.setJobId(jobId);
+    state.setMapProgress(mapProgress);
+    state.setComplete(complete);
+    return state;
+  }
+
+  private static void waitFor(AtomicInteger count, int atLeast) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (count.get() < atLeast && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(count.get() >= atLeast);
+  }
+
+  @After
+  public void tearDown() {
+    poller.close();
+  }
+
+  @Test
+  public void testPollsUntilComplete() throws Exception {
+    FakeSource source = new FakeSource();
+    source.progress = 0.5f;
+    poller.watch(JOB_ID, source);
+    waitFor(source.polls, 3);
+    assertEquals(0.5f, poller.getJobState(JOB_ID).getMapProgress(), 0);
+
+    source.complete = true;
+    long deadline = System.currentTimeMillis() + 5000;
+    while (!poller.getJobState(JOB_ID).isComplete() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertTrue(poller.getJobState(JOB_ID).isComplete());
+    int polls = source.polls.get();
+    Thread.sleep(200);
+    assertEquals(polls, source.polls.get());
+    assertEquals(1, poller.size());
+  }
+
+  @Test
+  public void testUnwatchForgetsState() throws Exception {
+    FakeSource source = new FakeSource();
+    poller.watch(JOB_ID, source);
+    poller.watch(JOB_ID, source);
+    waitFor(source.polls, 1);
+    poller.unwatch(JOB_ID);
+    assertNull(poller.getJobState(JOB_ID));
+    assertEquals(0, poller.size());
+    int polls = source.polls.get();
+    Thread.sleep(200);
+    assertTrue(source.polls.get() <= polls + 1);
+    assertNull(poller.getJobState(JOB_ID));
+  }
+
+  @Test
+  public void testFailedPollsKeepRetrying() throws Exception {
+    FakeSource source = new FakeSource();
+    source.failing = true;
+    poller.watch(JOB_ID, source);
+    waitFor(source.polls, 2);
+    assertNull(poller.getJobState(JOB_ID));
+    assertTrue(poller.getFailedPollCount() >= 2);
+
+    source.failing = false;
+    waitFor(source.polls, source.polls.get() + 2);
+    assertEquals(JOB_ID, poller.getJobState(JOB_ID).getJobId());
+  }
+
+  @Test
+  public void testBoundedParallelism() throws Exception {
+    FakeSource source = new FakeSource();
+    source.release = new CountDownLatch(1);
+    for (int i = 0; i < 6; i++) {
+      poller.watch(JOB_ID + i, source);
+    }
+    waitFor(source.running, 2);
+    Thread.sleep(50);
+    assertEquals(2, source.running.get());
+    source.release.countDown();
+    waitFor(source.polls, 6);
+    for (int i = 0; i < 6; i++) {
+      assertEquals(JOB_ID + i, poller.getJobState(JOB_ID + i).getJobId());
+    }
+    assertEquals(2, source.maxRunning.get());
+  }
+
+  @Test
+  public void testTaskReportsFetchedAtInterval() throws Exception {
+    FakeSource source = new FakeSource();
+    source.progress = 0.99f;
+    poller.watch(JOB_ID, source);
+    waitFor(source.polls, 1);
+    assertEquals(1, source.taskReportPolls.get());
+    // polled every 10ms, with task reports every 100ms
+    Thread.sleep(250);
+    int polls = source.polls.get();
+    int taskReportPolls = source.taskReportPolls.get();
+    assertTrue(taskReportPolls >= 2);
+    assertTrue(taskReportPolls <= 4);
+    assertTrue(polls > 2 * taskReportPolls);
+    assertEquals(taskReportPolls, poller.getTaskReportsPollCount());
+  }
+
+  @Test
+  public void testTaskReportsOnlyFetchedOnFirstPoll() throws Exception {
+    JobStatePoller firstOnly = new JobStatePoller(10, 50, 2, -1);
+    try {
+      FakeSource source = new FakeSource();
+      source.progress = 0.99f;
+      firstOnly.watch(JOB_ID, source);
+      waitFor(source.polls, 5);
+      assertEquals(1, source.taskReportPolls.get());
+    } finally {
+      firstOnly.close();
+    }
+  }
+
+  @Test
+  public void testPolledCountersAreSetOnJob() throws Exception {
+    FakeSource source = new FakeSource();
+    source.counters = new Counters();
+    source.counters.incrCounter("FileSystemCounters", "HDFS_BYTES_READ", 42);
+    poller.watch(JOB_ID, source);
+    waitFor(source.polls, 1);
+    long deadline = System.currentTimeMillis() + 5000;
+    while (poller.getJobState(JOB_ID) == null && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+
+    MapReduceJob job = new MapReduceJob();
+    job.setId(JOB_ID);
+    assertTrue(new MapReduceHelper().setPolledMapReduceJobState(job, poller));
+    assertEquals(Long.valueOf(42), job.getCounterValue(CounterId.HDFS_BYTES_READ));
+  }
+
+  @Test
+  public void testNextDelayAdaptsToProgress() {
+    long minutes = TimeUnit.MINUTES.toMillis(1);
+    // a third of the way through after ten minutes leaves twenty, polled every two minutes
+    assertEquals(2 * minutes, JobStatePoller.nextDelay(
+        newState(JOB_ID, 1 / 3f, false), 0, 10 * minutes, 1000, 10 * minutes), 1000);
+    // long-running maps are polled at the maximum interval
+    assertEquals(30000, JobStatePoller.nextDelay(
+        newState(JOB_ID, 0.1f, false), 0, 60 * minutes, 1000, 30000));
+    // jobs close to completion are polled at the minimum interval
+    assertEquals(1000, JobStatePoller.nextDelay(
+        newState(JOB_ID, 0.99f, false), 0, 10 * minutes, 1000, 30000));
+    // a job without progress is assumed to take as long again
+    assertEquals(6000, JobStatePoller.nextDelay(
+        newState(JOB_ID, 0, false), 0, minutes, 1000, 30000));
+  }
+}
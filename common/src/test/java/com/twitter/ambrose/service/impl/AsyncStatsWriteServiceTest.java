@@ -0,0 +1,191 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.impl.AsyncStatsWriteService.OverflowPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for AsyncStatsWriteService.
+ */
+public class AsyncStatsWriteServiceTest {
+  private final String workflowId = "id1";
+  private final RecordingService recorder = new RecordingService();
+  private AsyncStatsWriteService<Job> service;
+
+  /**
+   * Records events, optionally blocking until released to simulate a stalled backend.
+   */
+  private static class RecordingService implements StatsWriteService<Job> {
+    private final List<Event> events = Lists.newCopyOnWriteArrayList();
+    private volatile Map<String, DAGNode<Job>> dagNodeNameMap;
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Override
+    public void initWriteService(Properties properties) {}
+
+    @Override
+    public void sendDagNodeNameMap(String workflowId, Map<String, DAGNode<Job>> dagNodeNameMap) {
+      this.dagNodeNameMap = dagNodeNameMap;
+    }
+
+    @Override
+    public void pushEvent(String workflowId, Event event) throws IOException {
+      blocked.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      events.add(event);
+    }
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    recorder.release.countDown();
+    if (service != null) {
+      service.close();
+    }
+  }
+
+  private static DAGNode<Job> node(String name) {
+    return new DAGNode<Job>(name, null);
+  }
+
+  /**
+   * Blocks the writer thread inside the delegate, so subsequent events stay queued.
+   */
+  private void stallWriter() throws Exception {
+    recorder.release = new CountDownLatch(1);
+    service.pushEvent(workflowId, new Event.JobStartedEvent(node("stall")));
+    recorder.blocked.await();
+  }
+
+  private List<Integer> recordedIds() {
+    List<Integer> ids = Lists.newArrayList();
+    for (Event event : recorder.events) {
+      ids.add(event.getId());
+    }
+    return ids;
+  }
+
+  @Test
+  public void testFlushWritesEventsInOrder() throws Exception {
+    service = new AsyncStatsWriteService<Job>(recorder, 100, 10, OverflowPolicy.BLOCK);
+    List<Integer> expected = Lists.newArrayList();
+    for (int i = 0; i < 50; i++) {
+      Event event = new Event.JobProgressEvent(node("a"));
+      service.pushEvent(workflowId, event);
+      expected.add(event.getId());
+    }
+    service.flush();
+    assertEquals(expected, recordedIds());
+    assertEquals(0, service.getQueueSize());
+  }
+
+  @Test
+  public void testCoalesceKeepsLatestProgressPerNode() throws Exception {
+    service = new AsyncStatsWriteService<Job>(recorder, 2, 10, OverflowPolicy.COALESCE);
+    stallWriter();
+    Event a1 = new Event.JobProgressEvent(node("a"));
+    Event b1 = new Event.JobProgressEvent(node("b"));
+    Event a2 = new Event.JobProgressEvent(node("a"));
+    service.pushEvent(workflowId, a1);
+    service.pushEvent(workflowId, b1);
+    service.pushEvent(workflowId, a2);
+
+    recorder.release.countDown();
+    service.flush();
+    List<Integer> ids = recordedIds();
+    assertEquals(Lists.newArrayList(b1.getId(), a2.getId()), ids.subList(1, ids.size()));
+    assertEquals(1, service.getCoalescedCount());
+  }
+
+  @Test
+  public void testTerminalEventsNeverDropped() throws Exception {
+    service = new AsyncStatsWriteService<Job>(
+        recorder, 2, 10, OverflowPolicy.DROP_OLDEST_PROGRESS);
+    stallWriter();
+    List<Integer> terminalIds = Lists.newArrayList();
+    for (int i = 0; i < 10; i++) {
+      service.pushEvent(workflowId, new Event.JobProgressEvent(node("job" + i)));
+      Event finished = new Event.JobFinishedEvent(node("job" + i));
+      service.pushEvent(workflowId, finished);
+      terminalIds.add(finished.getId());
+    }
+
+    recorder.release.countDown();
+    service.flush();
+    List<Integer> ids = recordedIds();
+    assertTrue(ids.containsAll(terminalIds));
+    assertEquals(9, service.getDroppedCount());
+  }
+
+  @Test
+  public void testEventsFrozenAtPushTime() throws Exception {
+    service = new AsyncStatsWriteService<Job>(recorder, 100, 10, OverflowPolicy.BLOCK);
+    stallWriter();
+    Job job = new Job("job_1", null, null);
+    service.pushEvent(workflowId, new Event.JobProgressEvent(new DAGNode<Job>("a", job)));
+    job.setId("job_2");
+
+    recorder.release.countDown();
+    service.flush();
+    DAGNode<?> node = (DAGNode<?>) recorder.events.get(1).getPayload();
+    assertEquals("job_1", node.getJob().getId());
+  }
+
+  @Test
+  public void testDagSuccessorsRestored() throws Exception {
+    service = new AsyncStatsWriteService<Job>(recorder, 100, 10, OverflowPolicy.BLOCK);
+    DAGNode<Job> a = new DAGNode<Job>("a", new Job("job_a", null, null));
+    DAGNode<Job> b = new DAGNode<Job>("b", new Job("job_b", null, null));
+    a.setSuccessors(Lists.<DAGNode<? extends Job>>newArrayList(b));
+    Map<String, DAGNode<Job>> dagNodeNameMap = Maps.newLinkedHashMap();
+    dagNodeNameMap.put("a", a);
+    dagNodeNameMap.put("b", b);
+    service.sendDagNodeNameMap(workflowId, dagNodeNameMap);
+    a.setSuccessors(null);
+
+    service.flush();
+    Map<String, DAGNode<Job>> written = recorder.dagNodeNameMap;
+    assertEquals(Lists.newArrayList("a", "b"), Lists.newArrayList(written.keySet()));
+    DAGNode<?> successor = written.get("a").getSuccessors().iterator().next();
+    assertSame(written.get("b"), successor);
+    assertNull(written.get("b").getSuccessors());
+  }
+}
@@ -0,0 +1,137 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.CounterId;
+import com.twitter.ambrose.model.hadoop.CounterInfo;
+import com.twitter.ambrose.model.hadoop.CounterRates;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CounterTimeSeriesStore}.
+ */
+public class CounterTimeSeriesStoreTest {
+  private static final double DELTA = 1e-9;
+  private int nextEventId;
+
+  private Event<?> jobEvent(String name, long time, long bytesRead, long bytesWritten) {
+    Map<String, CounterInfo> counterInfoMap = Maps.newHashMap();
+    counterInfoMap.put("HDFS_BYTES_READ", new CounterInfo("HDFS_BYTES_READ", null, bytesRead));
+    if (bytesWritten >= 0) {
+      counterInfoMap.put("HDFS_BYTES_WRITTEN",
+          new CounterInfo("HDFS_BYTES_WRITTEN", null, bytesWritten));
+    }
+    MapReduceJob job = new MapReduceJob(null, ImmutableMap.of("FileSystemCounters",
+        new CounterGroup("FileSystemCounters", null, counterInfoMap)));
+    return new Event<DAGNode<Job>>(nextEventId++, Event.Type.JOB_PROGRESS, time,
+        new DAGNode<Job>(name, job));
+  }
+
+  private static CounterTimeSeriesStore newStore(int capacity, long minIntervalMillis) {
+    return new CounterTimeSeriesStore(
+        ImmutableList.of(CounterId.HDFS_BYTES_READ, CounterId.HDFS_BYTES_WRITTEN,
+            CounterId.MAP_INPUT_RECORDS), capacity, minIntervalMillis);
+  }
+
+  @Test
+  public void testRates() {
+    CounterTimeSeriesStore store = newStore(16, 0);
+    store.update(jobEvent("a", 1000, 0, 0));
+    assertNull(store.getCounterRates("a"));
+    store.update(jobEvent("a", 2000, 100, -1));
+    store.update(jobEvent("a", 4000, 500, 50));
+    store.update(jobEvent("b", 4000, 1, 1));
+
+    CounterRates rates = store.getCounterRates("a");
+    assertEquals("a", rates.getJobName());
+    assertEquals(1000, rates.getStartTime());
+    assertArrayEquals(new long[] { 2000, 4000 }, rates.getTimes());
+    assertEquals(ImmutableList.of("HDFS_BYTES_READ", "HDFS_BYTES_WRITTEN"),
+        ImmutableList.copyOf(rates.getRates().keySet()));
+    assertArrayEquals(new double[] { 100, 200 }, rates.getRates().get("HDFS_BYTES_READ"), DELTA);
+    // missing values are carried forward
+    assertArrayEquals(new double[] { 0, 25 }, rates.getRates().get("HDFS_BYTES_WRITTEN"), DELTA);
+    assertNull(store.getCounterRates("b"));
+    assertNull(store.getCounterRates("c"));
+  }
+
+  @Test
+  public void testIgnoresJobsWithoutCounters() {
+    CounterTimeSeriesStore store = newStore(16, 0);
+    store.update(new Event.JobStartedEvent(new DAGNode<Job>("a", new MapReduceJob())));
+    store.update(new Event.JobStartedEvent(new DAGNode<Job>("a", null)));
+    assertEquals(0, store.getEncodedSize());
+  }
+
+  @Test
+  public void testReplacesSamplesWithinMinInterval() {
+    CounterTimeSeriesStore store = newStore(16, 1000);
+    store.update(jobEvent("a", 0, 0, 0));
+    store.update(jobEvent("a", 400, 40, 0));
+    store.update(jobEvent("a", 800, 80, 0));
+    store.update(jobEvent("a", 1200, 120, 0));
+    store.update(jobEvent("a", 1300, 150, 0));
+
+    CounterRates rates = store.getCounterRates("a");
+    assertArrayEquals(new long[] { 1200, 1300 }, rates.getTimes());
+    assertArrayEquals(new double[] { 100, 300 }, rates.getRates().get("HDFS_BYTES_READ"), DELTA);
+  }
+
+  @Test
+  public void testDownsamplesToCapacity() {
+    CounterTimeSeriesStore store = newStore(8, 0);
+    for (int i = 0; i <= 1000; i++) {
+      store.update(jobEvent("a", 1000L * i, 10L * i * i, 5L * i));
+    }
+    CounterRates rates = store.getCounterRates("a");
+    long[] times = rates.getTimes();
+    assertTrue(times.length < 8);
+    assertEquals(0, rates.getStartTime());
+    assertEquals(1000000, times[times.length - 1]);
+
+    // rates over any interval of the downsampled series still sum to the counter's growth
+    double[] bytesRead = rates.getRates().get("HDFS_BYTES_READ");
+    double[] bytesWritten = rates.getRates().get("HDFS_BYTES_WRITTEN");
+    double totalRead = 0;
+    double totalWritten = 0;
+    long start = rates.getStartTime();
+    for (int i = 0; i < times.length; i++) {
+      totalRead += bytesRead[i] * (times[i] - start) / 1000;
+      totalWritten += bytesWritten[i] * (times[i] - start) / 1000;
+      assertEquals(5, bytesWritten[i], DELTA);
+      start = times[i];
+    }
+    assertEquals(10000000, totalRead, 1e-3);
+    assertEquals(5000, totalWritten, 1e-3);
+    assertTrue(store.getEncodedSize() < 8 * 4 * 10);
+  }
+}
@@ -0,0 +1,158 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.CriticalPath;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowGraph;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests for {@link CriticalPathAnalyzer}.
+ */
+public class CriticalPathAnalyzerTest {
+  private final Map<String, DAGNode<Job>> nodes = Maps.newLinkedHashMap();
+
+  private void addNode(String name, String... successorNames) {
+    nodes.put(name, new DAGNode<Job>(name, null));
+    List<DAGNode<? extends Job>> successors = Lists.newArrayList();
+    for (String successorName : successorNames) {
+      successors.add(new DAGNode<Job>(successorName, null));
+    }
+    nodes.get(name).setSuccessors(successors);
+  }
+
+  /**
+   * Builds a diamond, where a is followed by b and c, which are both followed by d.
+   */
+  private CriticalPathAnalyzer newDiamondAnalyzer() {
+    addNode("a", "b", "c");
+    addNode("b", "d");
+    addNode("c", "d");
+    addNode("d");
+    return new CriticalPathAnalyzer(WorkflowGraph.of(nodes));
+  }
+
+  private static Event<?> jobEvent(String name, long startTime, long lastUpdateTime) {
+    MapReduceJobState state = new MapReduceJobState();
+    state.setJobStartTime(startTime);
+    state.setJobLastUpdateTime(lastUpdateTime);
+    MapReduceJob job = new MapReduceJob(state, null);
+    return new Event.JobProgressEvent(new DAGNode<Job>(name, job));
+  }
+
+  private static CriticalPath.Node node(CriticalPath criticalPath, String name) {
+    for (CriticalPath.Node node : criticalPath.getNodes()) {
+      if (node.getName().equals(name)) {
+        return node;
+      }
+    }
+    throw new AssertionError("No node " + name);
+  }
+
+  @Test
+  public void testCriticalPath() {
+    CriticalPathAnalyzer analyzer = newDiamondAnalyzer();
+    analyzer.update(jobEvent("a", 1000, 1010));
+    analyzer.update(jobEvent("b", 1010, 1040));
+    analyzer.update(jobEvent("c", 1010, 1020));
+    analyzer.update(jobEvent("d", 1045, 1055));
+
+    CriticalPath criticalPath = analyzer.getCriticalPath();
+    assertEquals(50, criticalPath.getMakespan());
+    assertEquals(55, criticalPath.getElapsed());
+    assertEquals(Arrays.asList("a", "b", "d"), criticalPath.getPath());
+    assertEquals(0, node(criticalPath, "b").getSlack());
+    assertTrue(node(criticalPath, "d").isCritical());
+    assertEquals(40, node(criticalPath, "d").getEarliestStart());
+    assertEquals(20, node(criticalPath, "c").getSlack());
+    assertFalse(node(criticalPath, "c").isCritical());
+    assertEquals(30, node(criticalPath, "c").getLatestStart());
+  }
+
+  @Test
+  public void testUpdatesAsEventsArrive() {
+    CriticalPathAnalyzer analyzer = newDiamondAnalyzer();
+    analyzer.update(jobEvent("a", 1000, 1010));
+    analyzer.update(jobEvent("b", 1010, 1020));
+    analyzer.update(jobEvent("c", 1010, 1015));
+    CriticalPath first = analyzer.getCriticalPath();
+    assertEquals(20, first.getMakespan());
+    assertEquals(Arrays.asList("a", "b"), first.getPath());
+    assertTrue(first == analyzer.getCriticalPath());
+
+    // c keeps running past b
+    analyzer.update(jobEvent("c", 1010, 1050));
+    CriticalPath second = analyzer.getCriticalPath();
+    assertEquals(50, second.getMakespan());
+    assertEquals(Arrays.asList("a", "c"), second.getPath());
+    assertEquals(30, node(second, "b").getSlack());
+  }
+
+  @Test
+  public void testEventTimestamps() {
+    CriticalPathAnalyzer analyzer = newDiamondAnalyzer();
+    analyzer.update(new Event<DAGNode<Job>>(1, Event.Type.JOB_STARTED, 2000, nodes.get("a")));
+    analyzer.update(new Event<DAGNode<Job>>(2, Event.Type.JOB_FINISHED, 2500, nodes.get("a")));
+    analyzer.update(new Event<DAGNode<Job>>(3, Event.Type.JOB_STARTED, 2600,
+        new DAGNode<Job>("e", null)));
+    CriticalPath criticalPath = analyzer.getCriticalPath();
+    assertEquals(500, criticalPath.getMakespan());
+    assertEquals(500, node(criticalPath, "a").getDuration());
+    assertEquals(0, node(criticalPath, "d").getDuration());
+  }
+
+  @Test
+  public void testAddedNodesKeepEarlierTimes() {
+    CriticalPathAnalyzer analyzer = newDiamondAnalyzer();
+    analyzer.update(jobEvent("a", 1000, 1010));
+    analyzer.update(jobEvent("d", 1010, 1020));
+    // e isn't in the graph yet
+    analyzer.update(jobEvent("e", 1020, 1100));
+    analyzer.update(jobEvent("e", 1020, 1120));
+
+    addNode("d", "e");
+    addNode("e");
+    CriticalPathAnalyzer extended = new CriticalPathAnalyzer(WorkflowGraph.of(nodes), analyzer);
+    CriticalPath criticalPath = extended.getCriticalPath();
+    assertEquals(Arrays.asList("a", "b", "d", "e"), criticalPath.getPath());
+    assertEquals(100, node(criticalPath, "e").getDuration());
+    assertEquals(120, criticalPath.getMakespan());
+  }
+
+  @Test
+  public void testCycle() {
+    addNode("a", "b");
+    addNode("b", "a");
+    assertNull(new CriticalPathAnalyzer(WorkflowGraph.of(nodes)).getCriticalPath());
+  }
+}
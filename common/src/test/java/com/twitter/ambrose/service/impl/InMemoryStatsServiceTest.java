@@ -16,17 +16,35 @@ limitations under the License.
 package com.twitter.ambrose.service.impl;
 
 import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+import com.twitter.ambrose.util.ConfigurationStore;
 import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -106,8 +124,138 @@ public class InMemoryStatsServiceTest {
     }
   }
 
+  @Test
+  public void testEventsFrozenAtPushTime() throws IOException {
+    Job job = new Job("job_1", null, null);
+    DAGNode<Job> node = new DAGNode<Job>("node", job);
+    Event pushed = new Event.JobProgressEvent(node);
+    service.pushEvent(workflowId, pushed);
+    job.setId("job_2");
+
+    Event found = (Event) service.getEventsSinceId(workflowId, -1).iterator().next();
+    assertEquals(pushed.getId(), found.getId());
+    assertEquals("job_1", ((DAGNode<?>) found.getPayload()).getJob().getId());
+
+    EncodedEvent encoded =
+        (EncodedEvent) service.getEncodedEventsSinceId(workflowId, -1, 10).iterator().next();
+    assertEquals(pushed.getId(), encoded.getId());
+    assertTrue(encoded.toJson().contains("job_1"));
+  }
+
+  @Test
+  public void testReadsDoNotWaitForWriter() throws Exception {
+    for(Event event : testEvents) {
+      service.pushEvent(workflowId, event);
+    }
+    service.sendDagNodeNameMap(workflowId,
+        ImmutableMap.of("some name", new DAGNode<Job>("some name", null)));
+
+    // simulate a writer stalled in the middle of pushEvent
+    final CountDownLatch writerHoldsMonitor = new CountDownLatch(1);
+    final CountDownLatch releaseWriter = new CountDownLatch(1);
+    Thread writer = new Thread() {
+      @Override
+      public void run() {
+        synchronized (service) {
+          writerHoldsMonitor.countDown();
+          try {
+            releaseWriter.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    writer.start();
+    writerHoldsMonitor.await();
+
+    ExecutorService readers = Executors.newSingleThreadExecutor();
+    try {
+      Future<Integer> read = readers.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          assertNotNull(service.getDagNodeNameMap(workflowId).get("some name"));
+          assertNotNull(service.getWorkflows(null, null, null, 10, null));
+          return service.getEventsSinceId(workflowId, -1, 100).size();
+        }
+      });
+      assertEquals(testEvents.length, read.get(5, TimeUnit.SECONDS).intValue());
+    } finally {
+      releaseWriter.countDown();
+      readers.shutdownNow();
+      writer.join();
+    }
+  }
+
+  @Test
+  public void testConcurrentReadersSeeOrderedEvents() throws Exception {
+    final int numEvents = 2000;
+    final AtomicBoolean writing = new AtomicBoolean(true);
+    ExecutorService readers = Executors.newFixedThreadPool(4);
+    List<Future<Integer>> reads = Lists.newArrayList();
+    try {
+      for (int i = 0; i < 4; i++) {
+        reads.add(readers.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws Exception {
+            int polls = 0;
+            int lastSeenId = -1;
+            while (writing.get()) {
+              Collection<Event> events = service.getEventsSinceId(workflowId, lastSeenId, 10);
+              for (Event event : events) {
+                assertTrue("Events out of order", event.getId() > lastSeenId);
+                lastSeenId = event.getId();
+              }
+              polls++;
+            }
+            return polls;
+          }
+        }));
+      }
+
+      for (int i = 0; i < numEvents; i++) {
+        service.pushEvent(workflowId, new Event.JobStartedEvent(new DAGNode<Job>("job" + i, null)));
+      }
+      writing.set(false);
+
+      for (Future<Integer> read : reads) {
+        assertTrue(read.get(5, TimeUnit.SECONDS) > 0);
+      }
+      assertEquals(numEvents, service.getEventsSinceId(workflowId, -1).size());
+    } finally {
+      readers.shutdownNow();
+    }
+  }
+
   private void assertEqualWorkflows(Event expected, Event found) {
     assertEquals("Wrong eventId found", expected.getId(), found.getId());
     assertEquals("Wrong eventData found", expected.getPayload(), found.getPayload());
   }
+
+  @Test
+  public void testDagConfigurationsArePinned() throws IOException {
+    MapReduceJob job = new MapReduceJob();
+    Properties configuration = new Properties();
+    configuration.setProperty("pig.script", "script");
+    job.setConfiguration(configuration);
+    service.sendDagNodeNameMap(workflowId,
+        ImmutableMap.<String, DAGNode<Job>>of("a", new DAGNode<Job>("a", job)));
+    ConfigurationStore store = service.getConfigurationStore();
+    String hash = store.put(configuration).getHash();
+
+    putConfigurations(store, ConfigurationStore.MAX_SIZE_DEFAULT);
+    assertNotNull(store.get(hash));
+
+    service.sendDagNodeNameMap(workflowId, ImmutableMap.<String, DAGNode<Job>>of());
+    putConfigurations(store, ConfigurationStore.MAX_SIZE_DEFAULT);
+    assertNull(store.get(hash));
+  }
+
+  private static void putConfigurations(ConfigurationStore store, int count) {
+    for (int i = 0; i < count; i++) {
+      Properties configuration = new Properties();
+      configuration.setProperty("key" + i, UUID.randomUUID().toString());
+      store.put(configuration);
+    }
+  }
 }
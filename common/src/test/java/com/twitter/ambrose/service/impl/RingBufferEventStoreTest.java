@@ -0,0 +1,150 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.service.EventsEvictedException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for RingBufferEventStore.
+ */
+public class RingBufferEventStoreTest {
+
+  private static DAGNode<Job> node(String name) {
+    return new DAGNode<Job>(name, null);
+  }
+
+  private static EncodedEvent encode(Event<?> event) throws IOException {
+    return EncodedEvent.encode(event);
+  }
+
+  @Test
+  public void testEvictsSupersededProgressFirst() throws IOException {
+    RingBufferEventStore store = new RingBufferEventStore(10, Long.MAX_VALUE);
+    Event started = new Event.JobStartedEvent(node("a"));
+    store.add(encode(started));
+    Event firstProgress = new Event.JobProgressEvent(node("a"));
+    store.add(encode(firstProgress));
+    Event lastProgress = null;
+    for (int i = 0; i < 20; i++) {
+      lastProgress = new Event.JobProgressEvent(node("a"));
+      store.add(encode(lastProgress));
+    }
+
+    assertTrue("Too many events retained: " + store.size(), store.size() <= 10);
+    List<EncodedEvent> events = store.getEventsSinceId(-1, -1);
+    assertEquals(started.getId(), events.get(0).getId());
+    assertEquals(lastProgress.getId(), events.get(events.size() - 1).getId());
+
+    // only superseded events were dropped, so an old cursor can still catch up
+    events = store.getEventsSinceId(firstProgress.getId(), -1);
+    assertEquals(lastProgress.getId(), events.get(events.size() - 1).getId());
+  }
+
+  @Test
+  public void testNeverEvictsTerminalEvents() throws IOException {
+    RingBufferEventStore store = new RingBufferEventStore(5, 1);
+    for (int i = 0; i < 20; i++) {
+      store.add(encode(new Event.JobStartedEvent(node("job" + i))));
+      store.add(encode(new Event.JobFinishedEvent(node("job" + i))));
+    }
+    assertEquals(40, store.size());
+    assertEquals(40, store.getEventsSinceId(-1, -1).size());
+  }
+
+  @Test
+  public void testLossyEvictionReported() throws IOException {
+    RingBufferEventStore store = new RingBufferEventStore(4, Long.MAX_VALUE);
+    Event first = new Event.JobProgressEvent(node("a"));
+    store.add(encode(first));
+    for (int i = 0; i < 10; i++) {
+      store.add(encode(new Event.JobProgressEvent(node("node" + i))));
+    }
+
+    try {
+      store.getEventsSinceId(first.getId(), -1);
+      fail("Expected EventsEvictedException");
+    } catch (EventsEvictedException e) {
+      assertEquals(first.getId(), e.getRequestedEventId());
+    }
+
+    // a full resync is always possible
+    assertEquals(store.size(), store.getEventsSinceId(-1, -1).size());
+  }
+
+  @Test
+  public void testByteBudget() throws IOException {
+    Event probe = new Event.JobProgressEvent(node("a"));
+    RingBufferEventStore store = new RingBufferEventStore(1000, Long.MAX_VALUE);
+    store.add(encode(probe));
+    long eventBytes = store.getBytes();
+
+    store = new RingBufferEventStore(1000, eventBytes * 5);
+    for (int i = 0; i < 50; i++) {
+      store.add(encode(new Event.JobProgressEvent(node("a"))));
+    }
+    assertTrue("Byte budget exceeded: " + store.getBytes(), store.getBytes() <= eventBytes * 5);
+  }
+
+  @Test
+  public void testOutOfOrderEventsAreSorted() throws IOException {
+    RingBufferEventStore store = new RingBufferEventStore(10, Long.MAX_VALUE);
+    Event early = new Event.JobStartedEvent(node("a"));
+    Event late = new Event.JobStartedEvent(node("b"));
+    store.add(encode(late));
+    store.add(encode(early));
+    List<EncodedEvent> events = store.getEventsSinceId(-1, 1);
+    assertEquals(1, events.size());
+    assertEquals(early.getId(), events.get(0).getId());
+  }
+
+  @Test
+  public void testRemovalListenerToldOfDroppedEvents() throws IOException {
+    RingBufferEventStore store = new RingBufferEventStore(10, Long.MAX_VALUE);
+    final List<Integer> removedIds = Lists.newArrayList();
+    store.setRemovalListener(new EventStore.RemovalListener() {
+      @Override
+      public void onRemoval(EncodedEvent event) {
+        removedIds.add(event.getId());
+      }
+    });
+    for (int i = 0; i < 20; i++) {
+      store.add(encode(new Event.JobProgressEvent(node("a"))));
+    }
+    assertEquals(20 - store.size(), removedIds.size());
+
+    List<Integer> retainedIds = Lists.newArrayList();
+    for (EncodedEvent event : store.getEventsSinceId(-1, -1)) {
+      retainedIds.add(event.getId());
+    }
+    store.clear();
+    removedIds.retainAll(retainedIds);
+    assertEquals(retainedIds, removedIds);
+  }
+}
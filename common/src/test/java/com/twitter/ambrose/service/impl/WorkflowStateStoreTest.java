@@ -0,0 +1,121 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.WorkflowState;
+import com.twitter.ambrose.model.WorkflowState.JobStatus;
+import com.twitter.ambrose.util.JSONUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Unit tests for {@link WorkflowStateStore}.
+ */
+public class WorkflowStateStoreTest {
+  private final WorkflowStateStore store = new WorkflowStateStore();
+  private int nextEventId = 1;
+
+  private Event<?> push(Event.Type type, String name) throws IOException {
+    Event<?> event = new Event<DAGNode<Job>>(nextEventId++, type, 1000, new DAGNode<Job>(name,
+        new Job(name + "-" + nextEventId, null, null)));
+    store.update(event, EncodedEvent.encode(event));
+    return event;
+  }
+
+  private Event<?> pushProgress(int progress) throws IOException {
+    Map<Event.WorkflowProgressField, String> payload = Maps.newHashMap();
+    payload.put(Event.WorkflowProgressField.workflowProgress, Integer.toString(progress));
+    Event<?> event = new Event<Map<Event.WorkflowProgressField, String>>(
+        nextEventId++, Event.Type.WORKFLOW_PROGRESS, 1000, payload);
+    store.update(event, EncodedEvent.encode(event));
+    return event;
+  }
+
+  @Test
+  public void testEmpty() {
+    WorkflowState state = store.getWorkflowState();
+    assertEquals(-1, state.getLastEventId());
+    assertNull(state.getWorkflowProgress());
+    assertEquals(0, state.getNodes().size());
+  }
+
+  @Test
+  public void testKeepsLatestEventOfEachJob() throws IOException {
+    push(Event.Type.JOB_STARTED, "a");
+    push(Event.Type.JOB_STARTED, "b");
+    pushProgress(10);
+    push(Event.Type.JOB_PROGRESS, "a");
+    push(Event.Type.JOB_FINISHED, "a");
+    Event<?> failedB = push(Event.Type.JOB_FAILED, "b");
+    Event<?> progress = pushProgress(50);
+    Event<?> startedC = push(Event.Type.JOB_STARTED, "c");
+    // a late progress event replaces the job's state but not its status
+    Event<?> progressA = push(Event.Type.JOB_PROGRESS, "a");
+
+    WorkflowState state = store.getWorkflowState();
+    assertEquals(progressA.getId(), state.getLastEventId());
+    assertEquals(progress.getId(), state.getWorkflowProgress().getId());
+    assertEquals(3, state.getNodes().size());
+    assertNode(state.getNodes().get(0), "a", JobStatus.COMPLETE, progressA);
+    assertNode(state.getNodes().get(1), "b", JobStatus.FAILED, failedB);
+    assertNode(state.getNodes().get(2), "c", JobStatus.RUNNING, startedC);
+  }
+
+  private static void assertNode(WorkflowState.Node node, String name, JobStatus status,
+      Event<?> event) {
+    assertEquals(name, node.getName());
+    assertEquals(status, node.getStatus());
+    assertEquals(event.getId(), node.getEvent().getId());
+  }
+
+  @Test
+  public void testSnapshotIsStableUntilNextEvent() throws IOException {
+    push(Event.Type.JOB_STARTED, "a");
+    WorkflowState state = store.getWorkflowState();
+    assertEquals(state, store.getWorkflowState());
+    push(Event.Type.JOB_FINISHED, "a");
+    assertEquals(JobStatus.RUNNING, state.getNodes().get(0).getStatus());
+    assertEquals(JobStatus.COMPLETE, store.getWorkflowState().getNodes().get(0).getStatus());
+  }
+
+  @Test
+  public void testJson() throws IOException {
+    Event<?> started = push(Event.Type.JOB_STARTED, "a");
+    pushProgress(20);
+    JsonNode json = new ObjectMapper().readTree(JSONUtil.toJson(store.getWorkflowState()));
+    assertEquals(2, json.get("lastEventId").asInt());
+    assertEquals("20",
+        json.get("workflowProgress").get("payload").get("workflowProgress").asText());
+    JsonNode node = json.get("nodes").get(0);
+    assertEquals("a", node.get("name").asText());
+    assertEquals("RUNNING", node.get("status").asText());
+    assertEquals(new ObjectMapper().readTree(EncodedEvent.encode(started).toJson()),
+        node.get("event"));
+  }
+}
@@ -0,0 +1,149 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl.hraven;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.twitter.hraven.FlowEvent;
+import com.twitter.hraven.FlowEventKey;
+import com.twitter.hraven.FlowKey;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for HRavenEventBatcher, using a local stand-in for hRaven's FlowEventService.
+ */
+public class HRavenEventBatcherTest {
+  private final FlowKey flowKey = new FlowKey("cluster", "user", "app", 1L);
+  private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+
+  /**
+   * Stand-in for FlowEventService which records each request.
+   */
+  private static class RecordingWriter implements HRavenEventBatcher.EventWriter {
+    private final List<List<FlowEvent>> requests = Lists.newCopyOnWriteArrayList();
+
+    @Override
+    public void addEvents(List<FlowEvent> events) throws IOException {
+      requests.add(Lists.newArrayList(events));
+    }
+
+    private List<Integer> sequences() {
+      List<Integer> sequences = Lists.newArrayList();
+      for (List<FlowEvent> request : requests) {
+        for (FlowEvent event : request) {
+          sequences.add(event.getFlowEventKey().getSequence());
+        }
+      }
+      return sequences;
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private FlowEvent event(int sequence) {
+    return new FlowEvent(new FlowEventKey(flowKey, sequence));
+  }
+
+  /**
+   * Occupies the executor until the returned latch is released, as a slow HBase write would.
+   */
+  private CountDownLatch blockExecutor() {
+    final CountDownLatch release = new CountDownLatch(1);
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    return release;
+  }
+
+  private void awaitExecutor() throws InterruptedException {
+    final CountDownLatch latch = new CountDownLatch(1);
+    executor.submit(new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    });
+    assertTrue(latch.await(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testBatchesBySize() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    HRavenEventBatcher batcher = new HRavenEventBatcher(writer, executor, 100, 60000);
+    CountDownLatch release = blockExecutor();
+    List<Integer> expected = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      batcher.add(event(i));
+      expected.add(i);
+    }
+    release.countDown();
+    awaitExecutor();
+
+    // one request per event before batching, at most one per full batch now
+    assertEquals(10, writer.requests.size());
+    assertEquals(expected, writer.sequences());
+    assertEquals(1000, batcher.getEventCount());
+    assertEquals(10, batcher.getRequestCount());
+  }
+
+  @Test
+  public void testFlushesPartialBatchAfterInterval() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    HRavenEventBatcher batcher = new HRavenEventBatcher(writer, executor, 100, 50);
+    for (int i = 0; i < 5; i++) {
+      batcher.add(event(i));
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (writer.requests.isEmpty() && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, writer.requests.size());
+    assertEquals(5, writer.requests.get(0).size());
+  }
+
+  @Test
+  public void testFlushAsyncWritesPendingEvents() throws Exception {
+    RecordingWriter writer = new RecordingWriter();
+    HRavenEventBatcher batcher = new HRavenEventBatcher(writer, executor, 100, 60000);
+    for (int i = 0; i < 150; i++) {
+      batcher.add(event(i));
+    }
+    batcher.flushAsync();
+    awaitExecutor();
+    assertEquals(150, batcher.getEventCount());
+    assertEquals(2, batcher.getRequestCount());
+  }
+}
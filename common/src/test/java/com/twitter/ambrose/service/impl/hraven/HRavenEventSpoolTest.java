@@ -0,0 +1,260 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl.hraven;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.twitter.hraven.FlowEvent;
+import com.twitter.hraven.FlowEventKey;
+import com.twitter.hraven.FlowKey;
+import com.twitter.hraven.Framework;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Tests for HRavenEventSpool, using a local stand-in for hRaven's FlowEventService.
+ */
+public class HRavenEventSpoolTest {
+  private static final long SEGMENT_BYTES = 1024;
+  private final File rootDir = Files.createTempDir();
+  private final FlowKey flowKey = new FlowKey("cluster", "user", "app", 1L);
+
+  /**
+   * Stand-in for FlowEventService which fails its first failures requests.
+   */
+  private static class FlakyWriter implements HRavenEventBatcher.EventWriter {
+    private final List<FlowEvent> events = Lists.newCopyOnWriteArrayList();
+    private final AtomicInteger failures;
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private FlakyWriter(int failures) {
+      this.failures = new AtomicInteger(failures);
+    }
+
+    @Override
+    public void addEvents(List<FlowEvent> batch) throws IOException {
+      attempts.incrementAndGet();
+      if (failures.getAndDecrement() > 0) {
+        throw new IOException("HBase unavailable");
+      }
+      events.addAll(batch);
+    }
+
+    private List<Integer> sequences() {
+      List<Integer> sequences = Lists.newArrayList();
+      for (FlowEvent event : events) {
+        sequences.add(event.getFlowEventKey().getSequence());
+      }
+      return sequences;
+    }
+  }
+
+  @After
+  public void tearDown() {
+    delete(rootDir);
+  }
+
+  private static void delete(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        delete(child);
+      }
+    }
+    file.delete();
+  }
+
+  private FlowEvent event(int sequence) {
+    FlowEvent event = new FlowEvent(new FlowEventKey(flowKey, sequence));
+    event.setTimestamp(1000L + sequence);
+    event.setFramework(Framework.PIG);
+    event.setType("JOB_PROGRESS");
+    event.setEventDataJSON("{\"id\":" + sequence + "}");
+    return event;
+  }
+
+  private List<Integer> addEvents(HRavenEventSpool spool, int count) throws IOException {
+    List<Integer> sequences = Lists.newArrayList();
+    for (int i = 0; i < count; i += 10) {
+      List<FlowEvent> batch = Lists.newArrayList();
+      for (int j = i; j < i + 10; j++) {
+        batch.add(event(j));
+        sequences.add(j);
+      }
+      spool.addEvents(batch);
+    }
+    return sequences;
+  }
+
+  private static void awaitEvents(FlakyWriter writer, int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (writer.events.size() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+
+  private int segmentFileCount() {
+    int count = 0;
+    for (File dir : rootDir.listFiles()) {
+      for (String name : dir.list()) {
+        if (name.endsWith(".log")) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  @Test
+  public void testReplaysEventsInOrder() throws Exception {
+    FlakyWriter writer = new FlakyWriter(0);
+    HRavenEventSpool spool = new HRavenEventSpool(rootDir, writer, SEGMENT_BYTES, 10, 100, 0);
+    List<Integer> expected = addEvents(spool, 100);
+    awaitEvents(writer, expected.size());
+    spool.close(5000);
+
+    assertEquals(expected, writer.sequences());
+    assertEquals(0, rootDir.listFiles().length);
+  }
+
+  @Test
+  public void testRetriesWhileDownstreamFails() throws Exception {
+    FlakyWriter writer = new FlakyWriter(3);
+    HRavenEventSpool spool = new HRavenEventSpool(rootDir, writer, SEGMENT_BYTES, 10, 100, 0);
+    List<Integer> expected = addEvents(spool, 50);
+    awaitEvents(writer, expected.size());
+    spool.close(5000);
+
+    assertEquals(expected, writer.sequences());
+  }
+
+  @Test
+  public void testSpooledEventsReplayedByNextSpool() throws Exception {
+    FlakyWriter down = new FlakyWriter(Integer.MAX_VALUE);
+    HRavenEventSpool spool = new HRavenEventSpool(rootDir, down, SEGMENT_BYTES, 10, 100, 0);
+    List<Integer> expected = addEvents(spool, 100);
+    spool.close(0);
+    assertTrue("Expected spooled segments", segmentFileCount() > 1);
+
+    FlakyWriter writer = new FlakyWriter(0);
+    spool = new HRavenEventSpool(rootDir, writer, SEGMENT_BYTES, 10, 100, 0);
+    awaitEvents(writer, expected.size());
+    spool.close(5000);
+
+    assertEquals(expected, writer.sequences());
+    FlowEvent replayed = writer.events.get(7);
+    FlowEvent original = event(7);
+    assertEquals(original.getTimestamp(), replayed.getTimestamp());
+    assertEquals(original.getFramework(), replayed.getFramework());
+    assertEquals(original.getType(), replayed.getType());
+    assertEquals(original.getEventDataJSON(), replayed.getEventDataJSON());
+    assertEquals(0, segmentFileCount());
+  }
+
+  @Test
+  public void testFailedAppendDoesNotCorruptLaterBatches() throws Exception {
+    FlakyWriter down = new FlakyWriter(Integer.MAX_VALUE);
+    final AtomicInteger writeFailures = new AtomicInteger(1);
+    // large segments, so that all batches are appended to the segment the failed append left
+    HRavenEventSpool spool = new HRavenEventSpool(rootDir, down, 1024 * 1024, 10, 100, 0) {
+      @Override
+      void write(FileOutputStream out, byte[] records) throws IOException {
+        if (writeFailures.getAndDecrement() > 0) {
+          out.write(records, 0, records.length / 2);
+          throw new IOException("Disk full");
+        }
+        super.write(out, records);
+      }
+    };
+    try {
+      // leaves half a record in the segment
+      spool.addEvents(Lists.newArrayList(event(-1)));
+      fail("Expected append to fail");
+    } catch (IOException e) {
+      // expected
+    }
+    List<Integer> expected = addEvents(spool, 50);
+    spool.close(0);
+
+    FlakyWriter writer = new FlakyWriter(0);
+    spool = new HRavenEventSpool(rootDir, writer, SEGMENT_BYTES, 10, 100, 0);
+    awaitEvents(writer, expected.size());
+    spool.close(5000);
+
+    assertEquals(expected, writer.sequences());
+  }
+
+  @Test
+  public void testNewEventsDoNotCutBackoffShort() throws Exception {
+    // fails slowly, so that events are added while a replay is failing
+    FlakyWriter down = new FlakyWriter(Integer.MAX_VALUE) {
+      @Override
+      public void addEvents(List<FlowEvent> batch) throws IOException {
+        try {
+          super.addEvents(batch);
+        } finally {
+          try {
+            Thread.sleep(100);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+      }
+    };
+    HRavenEventSpool spool = new HRavenEventSpool(rootDir, down, SEGMENT_BYTES, 500, 500, 0);
+    addEvents(spool, 10);
+    awaitAttempts(down, 1);
+    for (int i = 0; i < 10; i++) {
+      addEvents(spool, 10);
+      Thread.sleep(20);
+    }
+    assertEquals(1, down.attempts.get());
+    spool.close(0);
+  }
+
+  @Test
+  public void testRecentDirectoriesNotAdopted() throws Exception {
+    File opening = new File(rootDir, "opening");
+    assertTrue(opening.mkdirs());
+    HRavenEventSpool spool =
+        new HRavenEventSpool(rootDir, new FlakyWriter(0), SEGMENT_BYTES, 10, 100, 60000);
+    spool.close(0);
+    assertTrue(opening.isDirectory());
+
+    spool = new HRavenEventSpool(rootDir, new FlakyWriter(0), SEGMENT_BYTES, 10, 100, 0);
+    spool.close(0);
+    assertFalse(opening.exists());
+  }
+
+  private static void awaitAttempts(FlakyWriter writer, int count) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (writer.attempts.get() < count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+  }
+}
@@ -0,0 +1,206 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.service.impl.hraven;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.twitter.ambrose.model.EncodedEvent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for HRavenEventTailCache, using a local stand-in for hRaven's flow event table.
+ */
+public class HRavenEventTailCacheTest {
+  private static final String WORKFLOW_ID = "workflow";
+  private final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1);
+  private final ExecutorService viewers = Executors.newFixedThreadPool(8);
+
+  /**
+   * Stand-in for the flow event table, which blocks scans until released.
+   */
+  private static class FakeSource implements HRavenEventTailCache.EventSource {
+    private final List<EncodedEvent> events = Lists.newCopyOnWriteArrayList();
+    private final AtomicInteger scans = new AtomicInteger();
+    private final AtomicInteger rows = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private void addEvents(int count) {
+      for (int i = 0; i < count; i++) {
+        events.add(new EncodedEvent(events.size(), null, null, "{}".getBytes()));
+      }
+    }
+
+    @Override
+    public HRavenEventScanner.Page scan(String workflowId, int afterSequence, int maxEvents)
+        throws IOException {
+      scans.incrementAndGet();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      int from = Math.min(afterSequence + 1, events.size());
+      int to = Math.min(from + maxEvents, events.size());
+      List<EncodedEvent> page = Lists.newArrayList(events.subList(from, to));
+      rows.addAndGet(page.size());
+      return new HRavenEventScanner.Page(page, to - 1, to == events.size());
+    }
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+    viewers.shutdownNow();
+  }
+
+  private static List<Integer> ids(HRavenEventScanner.Page page) {
+    List<Integer> ids = Lists.newArrayList();
+    for (EncodedEvent event : page.getEvents()) {
+      ids.add(event.getId());
+    }
+    return ids;
+  }
+
+  private static List<Integer> range(int from, int to) {
+    List<Integer> ids = Lists.newArrayList();
+    for (int i = from; i < to; i++) {
+      ids.add(i);
+    }
+    return ids;
+  }
+
+  @Test
+  public void testConcurrentViewersShareOneLoad() throws Exception {
+    final FakeSource source = new FakeSource();
+    source.addEvents(50);
+    final HRavenEventTailCache cache =
+        new HRavenEventTailCache(source, executor, 100, 60000, 60000);
+    List<Future<HRavenEventScanner.Page>> pages = Lists.newArrayList();
+    for (int i = 0; i < 8; i++) {
+      pages.add(viewers.submit(new Callable<HRavenEventScanner.Page>() {
+        @Override
+        public HRavenEventScanner.Page call() throws Exception {
+          return cache.get(WORKFLOW_ID, -1, 1000);
+        }
+      }));
+    }
+    while (source.scans.get() == 0) {
+      Thread.sleep(10);
+    }
+    source.release.countDown();
+    for (Future<HRavenEventScanner.Page> page : pages) {
+      assertEquals(range(0, 50), ids(page.get(5, TimeUnit.SECONDS)));
+    }
+    assertEquals(1, source.scans.get());
+    assertEquals(1, cache.getLoadCount());
+  }
+
+  @Test
+  public void testRefreshReadsNewEvents() throws Exception {
+    FakeSource source = new FakeSource();
+    source.release.countDown();
+    source.addEvents(10);
+    HRavenEventTailCache cache = new HRavenEventTailCache(source, executor, 100, 60000, 60000);
+    assertEquals(range(0, 10), ids(cache.get(WORKFLOW_ID, -1, 1000)));
+
+    source.addEvents(5);
+    int scans = source.scans.get();
+    assertEquals(range(10, 10), ids(cache.get(WORKFLOW_ID, 9, 1000)));
+    cache.refresh();
+    for (int i = 0; i < 5; i++) {
+      assertEquals(range(10, 15), ids(cache.get(WORKFLOW_ID, 9, 1000)));
+    }
+    assertEquals(scans + 1, source.scans.get());
+  }
+
+  @Test
+  public void testPagesThroughTail() throws Exception {
+    FakeSource source = new FakeSource();
+    source.release.countDown();
+    source.addEvents(30);
+    HRavenEventTailCache cache = new HRavenEventTailCache(source, executor, 100, 60000, 60000);
+    HRavenEventScanner.Page page = cache.get(WORKFLOW_ID, -1, 20);
+    assertEquals(range(0, 20), ids(page));
+    assertFalse(page.isComplete());
+    page = cache.get(WORKFLOW_ID, page.getLastSequence(), 20);
+    assertEquals(range(20, 30), ids(page));
+    assertTrue(page.isComplete());
+  }
+
+  @Test
+  public void testViewerBehindTailIsNotServed() throws Exception {
+    FakeSource source = new FakeSource();
+    source.release.countDown();
+    source.addEvents(100);
+    HRavenEventTailCache cache = new HRavenEventTailCache(source, executor, 10, 60000, 60000);
+    // the viewer which loaded the tail is answered with the page scanned for it
+    assertEquals(range(50, 100), ids(cache.get(WORKFLOW_ID, 49, 1000)));
+    assertEquals(1, source.scans.get());
+    // but the tail only holds the last 10 events
+    assertNull(cache.get(WORKFLOW_ID, 49, 1000));
+    assertNull(cache.get(WORKFLOW_ID, 88, 1000));
+    assertEquals(range(90, 100), ids(cache.get(WORKFLOW_ID, 89, 1000)));
+    assertEquals(range(95, 100), ids(cache.get(WORKFLOW_ID, 94, 1000)));
+  }
+
+  @Test
+  public void testColdViewerLoadsOnlyLastEvents() throws Exception {
+    FakeSource source = new FakeSource();
+    source.release.countDown();
+    source.addEvents(100000);
+    HRavenEventTailCache cache = new HRavenEventTailCache(source, executor, 10, 60000, 60000);
+    HRavenEventScanner.Page page = cache.get(WORKFLOW_ID, -1, 20);
+    assertEquals(range(0, 20), ids(page));
+    assertFalse(page.isComplete());
+    // one page, single row probes for the last event, then the last 10 events
+    assertTrue(source.scans.get() < 50);
+    assertTrue(source.rows.get() < 100);
+
+    int scans = source.scans.get();
+    assertEquals(range(99990, 100000), ids(cache.get(WORKFLOW_ID, 99989, 1000)));
+    assertNull(cache.get(WORKFLOW_ID, 99988, 1000));
+    assertEquals(scans, source.scans.get());
+  }
+
+  @Test
+  public void testIdleTailsAreDropped() throws Exception {
+    FakeSource source = new FakeSource();
+    source.release.countDown();
+    HRavenEventTailCache cache = new HRavenEventTailCache(source, executor, 10, 60000, 50);
+    cache.get(WORKFLOW_ID, -1, 1000);
+    assertEquals(1, cache.size());
+    Thread.sleep(100);
+    cache.refresh();
+    assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,207 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.util;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.EncodedEvent;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for ConfigurationStore.
+ */
+public class ConfigurationStoreTest {
+  private final ConfigurationStore store = new ConfigurationStore(10);
+
+  private static Properties newConfiguration(String prefix, int size) {
+    Properties configuration = new Properties();
+    for (int i = 0; i < size; i++) {
+      configuration.setProperty(prefix + i, "value" + i);
+    }
+    return configuration;
+  }
+
+  private static Properties copy(Properties configuration) {
+    Properties copy = new Properties();
+    copy.putAll(configuration);
+    return copy;
+  }
+
+  @Test
+  public void testSharedConfigurationStoredOnce() {
+    Properties configuration = newConfiguration("key", 100);
+    ConfigurationStore.Reference reference = store.put(configuration);
+    assertSame(reference, store.put(configuration));
+    assertTrue(reference.getDiff().isEmpty());
+
+    ConfigurationStore.Reference copyReference = store.put(copy(configuration));
+    assertNotSame(reference, copyReference);
+    assertEquals(reference.getHash(), copyReference.getHash());
+    assertTrue(copyReference.getDiff().isEmpty());
+    assertEquals(1, store.size());
+    assertEquals(configuration, toProperties(store.get(reference.getHash())));
+  }
+
+  @Test
+  public void testStoredConfigurationIsSorted() {
+    Properties configuration = newConfiguration("key", 20);
+    ConfigurationStore.Reference reference = store.put(configuration);
+    assertEquals(Lists.newArrayList(store.get(reference.getHash()).keySet()),
+        Lists.newArrayList(new TreeMap<Object, Object>(configuration).keySet()));
+  }
+
+  @Test
+  public void testSmallDifferenceIsDiffed() {
+    Properties base = newConfiguration("key", 100);
+    ConfigurationStore.Reference baseReference = store.put(base);
+    Properties configuration = copy(base);
+    configuration.setProperty("key1", "changed");
+    configuration.setProperty("added", "value");
+    configuration.remove("key2");
+
+    ConfigurationStore.Reference reference = store.put(configuration);
+    assertEquals(baseReference.getHash(), reference.getHash());
+    Map<String, String> diff = reference.getDiff();
+    assertEquals(3, diff.size());
+    assertEquals("changed", diff.get("key1"));
+    assertEquals("value", diff.get("added"));
+    assertTrue(diff.containsKey("key2"));
+    assertNull(diff.get("key2"));
+    assertEquals(1, store.size());
+  }
+
+  @Test
+  public void testLargeDifferenceIsStored() {
+    ConfigurationStore.Reference first = store.put(newConfiguration("key", 100));
+    ConfigurationStore.Reference second = store.put(newConfiguration("other", 100));
+    assertFalse(first.getHash().equals(second.getHash()));
+    assertTrue(second.getDiff().isEmpty());
+    assertEquals(2, store.size());
+  }
+
+  @Test
+  public void testChangedConfigurationIsRehashed() {
+    Properties configuration = newConfiguration("key", 100);
+    ConfigurationStore.Reference reference = store.put(configuration);
+    configuration.setProperty("key1", "changed");
+    ConfigurationStore.Reference changed = store.put(configuration);
+    assertEquals(reference.getHash(), changed.getHash());
+    assertEquals("changed", changed.getDiff().get("key1"));
+  }
+
+  @Test
+  public void testEvictedConfigurationIsStoredAgain() {
+    ConfigurationStore small = new ConfigurationStore(1);
+    Properties configuration = newConfiguration("key", 100);
+    ConfigurationStore.Reference reference = small.put(configuration);
+    small.put(newConfiguration("other", 100));
+    assertNull(small.get(reference.getHash()));
+
+    ConfigurationStore.Reference stored = small.put(configuration);
+    assertEquals(reference.getHash(), stored.getHash());
+    assertEquals(configuration, toProperties(small.get(stored.getHash())));
+  }
+
+  private static Properties toProperties(Map<String, String> configuration) {
+    Properties properties = new Properties();
+    properties.putAll(configuration);
+    return properties;
+  }
+
+  @Test
+  public void testPinnedConfigurationIsNotEvicted() {
+    ConfigurationStore small = new ConfigurationStore(1);
+    ConfigurationStore.Reference pinned = small.putAndRetain(newConfiguration("key", 100));
+    ConfigurationStore.Reference other = small.put(newConfiguration("other", 100));
+    assertNotNull(small.get(pinned.getHash()));
+    assertNotNull(small.get(other.getHash()));
+    assertEquals(2, small.size());
+
+    // the unpinned configuration is evicted in favor of the next one
+    ConfigurationStore.Reference third = small.put(newConfiguration("third", 100));
+    assertNotNull(small.get(pinned.getHash()));
+    assertNull(small.get(other.getHash()));
+    assertNotNull(small.get(third.getHash()));
+  }
+
+  @Test
+  public void testReleasedConfigurationIsEvicted() {
+    ConfigurationStore small = new ConfigurationStore(1);
+    ConfigurationStore.Reference pinned = small.putAndRetain(newConfiguration("key", 100));
+    assertTrue(small.retain(pinned.getHash()));
+    small.put(newConfiguration("other", 100));
+    small.release(pinned.getHash());
+    small.put(newConfiguration("third", 100));
+    assertNotNull(small.get(pinned.getHash()));
+    assertEquals(2, small.size());
+
+    small.release(pinned.getHash());
+    small.put(newConfiguration("fourth", 100));
+    assertNull(small.get(pinned.getHash()));
+    assertEquals(1, small.size());
+    assertFalse(small.retain(pinned.getHash()));
+  }
+
+  @Test
+  public void testDiffBaseIsPinned() {
+    ConfigurationStore small = new ConfigurationStore(1);
+    Properties base = newConfiguration("key", 100);
+    ConfigurationStore.Reference baseReference = small.put(base);
+    Properties configuration = copy(base);
+    configuration.setProperty("key1", "changed");
+    ConfigurationStore.Reference reference = small.putAndRetain(configuration);
+    assertEquals(baseReference.getHash(), reference.getHash());
+
+    small.put(newConfiguration("other", 100));
+    small.put(newConfiguration("third", 100));
+    assertNotNull(small.get(reference.getHash()));
+  }
+
+  @Test
+  public void testEncodedEventPinsReferencedConfiguration() throws IOException {
+    ConfigurationStore small = new ConfigurationStore(1);
+    MapReduceJob job = new MapReduceJob();
+    job.setConfiguration(newConfiguration("key", 100));
+    EncodedEvent event =
+        EncodedEvent.encode(new Event.JobStartedEvent(new DAGNode<Job>("a", job)), small);
+    assertEquals(1, event.getConfigurationHashes().size());
+    String hash = event.getConfigurationHashes().get(0);
+
+    small.put(newConfiguration("other", 100));
+    small.put(newConfiguration("third", 100));
+    assertEquals(2, small.size());
+    small.release(hash);
+    small.put(newConfiguration("fourth", 100));
+    assertNull(small.get(hash));
+  }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright 2014 Twitter, Inc.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package com.twitter.ambrose.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import com.twitter.ambrose.model.DAGNode;
+import com.twitter.ambrose.model.Event;
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.hadoop.CounterGroup;
+import com.twitter.ambrose.model.hadoop.CounterInfo;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+import com.twitter.ambrose.model.hadoop.MapReduceJobState;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests that the streaming serializers write what the mapper would write without them.
+ */
+public class JSONSerializersTest {
+  private final ObjectMapper reflectiveMapper = newReflectiveMapper();
+
+  private static ObjectMapper newReflectiveMapper() {
+    ObjectMapper mapper = new ObjectMapper();
+    mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+    mapper.registerSubtypes(MapReduceJob.class);
+    return mapper;
+  }
+
+  private static String compactJson(Object object) throws IOException {
+    StringWriter writer = new StringWriter();
+    JSONUtil.writeCompactJson(writer, object);
+    return writer.toString();
+  }
+
+  /**
+   * Compares json trees, since the mapper orders some properties by their getters' declaration
+   * order as reported by the JVM.
+   */
+  private void assertSameJson(Object object) throws IOException {
+    assertEquals(reflectiveMapper.readTree(reflectiveMapper.writeValueAsString(object)),
+        reflectiveMapper.readTree(compactJson(object)));
+  }
+
+  private static MapReduceJobState newJobState() {
+    MapReduceJobState state = new MapReduceJobState();
+    state.setJobId("job_201401010000_0001");
+    state.setJobName("PigLatin:demo.pig");
+    state.setMapProgress(0.5f);
+    state.setReduceProgress(0.25f);
+    state.setJobStartTime(1388534400000L);
+    state.setTotalMappers(10);
+    state.setFinishedMappersCount(5);
+    state.setTotalReducers(4);
+    state.setFinishedReducersCount(1);
+    return state;
+  }
+
+  private static Map<String, CounterGroup> newCounterGroups() {
+    Map<String, CounterInfo> counterInfoMap = Maps.newLinkedHashMap();
+    counterInfoMap.put("HDFS_BYTES_READ",
+        new CounterInfo("HDFS_BYTES_READ", "HDFS bytes read", 42));
+    counterInfoMap.put("HDFS_BYTES_WRITTEN", new CounterInfo("HDFS_BYTES_WRITTEN", null, 7));
+    return ImmutableMap.of("FileSystemCounters",
+        new CounterGroup("FileSystemCounters", "File System Counters", counterInfoMap));
+  }
+
+  private static DAGNode<MapReduceJob> newNode() {
+    DAGNode<MapReduceJob> node = new DAGNode<MapReduceJob>("scope-1",
+        new MapReduceJob(newJobState(), newCounterGroups()));
+    node.setSuccessors(ImmutableList.<DAGNode<? extends Job>>of(
+        new DAGNode<Job>("scope-2", null)));
+    return node;
+  }
+
+  @Test
+  public void testMapReduceJobState() throws IOException {
+    assertSameJson(newJobState());
+    assertSameJson(new MapReduceJobState());
+  }
+
+  @Test
+  public void testCounterGroup() throws IOException {
+    assertSameJson(newCounterGroups());
+  }
+
+  @Test
+  public void testDAGNode() throws IOException {
+    assertSameJson(newNode());
+    assertSameJson(new DAGNode<Job>("scope-3", null));
+  }
+
+  @Test
+  public void testEvents() throws IOException {
+    assertSameJson(new Event.JobStartedEvent(newNode()));
+    Map<Event.WorkflowProgressField, String> progress = Maps.newHashMap();
+    progress.put(Event.WorkflowProgressField.workflowProgress, "50");
+    assertSameJson(new Event.WorkflowProgressEvent(progress));
+    assertSameJson(new Event[] { new Event.JobFinishedEvent(newNode()) });
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Event<?> event = new Event.JobProgressEvent(newNode());
+    String json = compactJson(event);
+    assertFalse(json.contains("\n"));
+    assertEquals(json, compactJson(Event.fromJson(json)));
+  }
+
+  @Test
+  public void testConfigurationReference() throws IOException {
+    DAGNode<MapReduceJob> node = newNode();
+    Properties configuration = new Properties();
+    configuration.setProperty("mapred.job.queue.name", "default");
+    node.getJob().setConfiguration(configuration);
+    assertSameJson(node);
+
+    ConfigurationStore store = new ConfigurationStore();
+    JsonNode job = reflectiveMapper.readTree(JSONUtil.toJsonBytes(node, store)).get("job");
+    assertFalse(job.has("configuration"));
+    assertFalse(job.has("configurationDiff"));
+    String hash = job.get("configurationHash").asText();
+    assertEquals("default", store.get(hash).get("mapred.job.queue.name"));
+    assertTrue(compactJson(node).contains("\"configuration\""));
+  }
+}
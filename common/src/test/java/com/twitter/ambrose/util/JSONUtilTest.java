@@ -2,6 +2,7 @@ package com.twitter.ambrose.util;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Set;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
@@ -9,7 +10,11 @@ import com.google.common.collect.ImmutableMap;
 import org.apache.hadoop.io.DataOutputBuffer;
 import org.junit.Test;
 
+import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.hadoop.MapReduceJob;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit tests for JSONUtil.
@@ -28,4 +33,11 @@ public class JSONUtilTest {
     test("Testing", "\"Testing\"");
     test(ImmutableMap.of("key", "value"), "{\n  \"key\" : \"value\"\n}");
   }
+
+  @Test
+  public void testLoadJobSubtypes() throws Exception {
+    Set<Class<? extends Job>> jobSubTypes = JSONUtil.loadJobSubtypes();
+    assertTrue(jobSubTypes.contains(MapReduceJob.class));
+    assertTrue(jobSubTypes.contains(Class.forName("com.twitter.ambrose.model.ExtendedJob1")));
+  }
 }
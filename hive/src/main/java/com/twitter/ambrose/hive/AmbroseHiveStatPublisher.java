@@ -36,6 +36,8 @@ import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Event.WorkflowProgressField;
 import com.twitter.ambrose.model.Job;
+import com.twitter.ambrose.model.hadoop.JobStatePoller;
+import com.twitter.ambrose.model.hadoop.MapReduceHelper;
 import com.twitter.ambrose.model.hadoop.MapReduceJobState;
 
 import static com.twitter.ambrose.hive.reporter.AmbroseHiveReporterFactory.getEmbeddedProgressReporter;
@@ -59,6 +61,10 @@ public class AmbroseHiveStatPublisher implements ClientStatsPublisher {
   private final JobClient jobClient;
   private RunningJob rj;
   private MapReduceJobState jobProgress;
+  private final MapReduceHelper mapReduceHelper = new MapReduceHelper();
+  private final long taskReportsIntervalMillis = Long.getLong(
+      JobStatePoller.TASK_REPORTS_INTERVAL_PARAM, JobStatePoller.TASK_REPORTS_INTERVAL_DEFAULT);
+  private long taskReportsTime;
 
   private String nodeId;
   private JobID jobId;
@@ -120,6 +126,9 @@ public class AmbroseHiveStatPublisher implements ClientStatsPublisher {
 
         Event<DAGNode<? extends Job>> event = null;
         job.setMapReduceJobState(jobProgress);
+        if (jobProgress.getCounters() != null) {
+          job.setCounters(jobProgress.getCounters());
+        }
         if (jobProgress.isComplete()) {
           event = new Event.JobFinishedEvent(dagNode);
 
@@ -155,32 +164,26 @@ public class AmbroseHiveStatPublisher implements ClientStatsPublisher {
     reporter.pushEvent(queryId, new Event.WorkflowProgressEvent(eventData));
   }
 
+  /**
+   * Polls the state of the job, only fetching its task reports when it starts, when it completes
+   * and at the interval configured with {@value JobStatePoller#TASK_REPORTS_INTERVAL_PARAM}.
+   *
+   * @return true if the state of the job has changed.
+   */
   private boolean updateJobState() throws IOException {
-    if (jobProgress == null) {
-      jobProgress = new MapReduceJobState(
-          rj, jobClient.getMapTaskReports(jobId), jobClient.getReduceTaskReports(jobId));
-      return true;
+    long now = System.currentTimeMillis();
+    boolean fetchTaskReports = MapReduceHelper.shouldFetchTaskReports(
+        jobProgress, taskReportsTime, now, taskReportsIntervalMillis);
+    MapReduceJobState polled =
+        mapReduceHelper.pollMapReduceJobState(rj, jobClient, jobProgress, fetchTaskReports);
+    if (fetchTaskReports) {
+      taskReportsTime = now;
     }
-
-    boolean complete = rj.isComplete();
-    boolean successful = rj.isSuccessful();
-    float mapProgress = rj.mapProgress();
-    float reduceProgress = rj.reduceProgress();
-
-    boolean update = !(
-        jobProgress.isComplete() == complete &&
-        jobProgress.isSuccessful() == successful &&
-        AmbroseHiveUtil.isEqual(jobProgress.getMapProgress(), mapProgress) &&
-        AmbroseHiveUtil.isEqual(jobProgress.getReduceProgress(), reduceProgress)
-    );
-
-    //do progress report only if necessary
-    if (update) {
-      jobProgress = new MapReduceJobState(
-          rj, jobClient.getMapTaskReports(jobId), jobClient.getReduceTaskReports(jobId));
-      jobProgress.setJobLastUpdateTime(System.currentTimeMillis());
+    if (polled == jobProgress) {
+      return false;
     }
-    return update;
+    jobProgress = polled;
+    return true;
   }
 
   private int getJobProgress() {
@@ -32,6 +32,8 @@ import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.impl.AsyncStatsWriteService;
+import com.twitter.ambrose.util.AmbroseUtils;
 
 /**
  * 
@@ -69,7 +71,7 @@ public abstract class AmbroseHiveProgressReporter {
   private StatsWriteService statsWriteService;
 
   AmbroseHiveProgressReporter(StatsWriteService statsWriteService) {
-    this.statsWriteService = statsWriteService;
+    this.statsWriteService = AsyncStatsWriteService.wrapIfEnabled(statsWriteService);
     init();
   }
 
@@ -106,6 +108,7 @@ public abstract class AmbroseHiveProgressReporter {
     init();
     nodeIdToDAGNode = new ConcurrentSkipListMap<String, DAGNode<Job>>();
     sendDagNodeNameMap(null, nodeIdToDAGNode);
+    flush();
     resetAdditionals(); //TODO order?
   }
 
@@ -177,6 +180,14 @@ public abstract class AmbroseHiveProgressReporter {
     }
   }
 
+  /**
+   * Waits until all events and DAGNodes sent so far have been written, if the StatsWriteService
+   * writes asynchronously
+   */
+  public void flush() {
+    AmbroseUtils.flush(statsWriteService);
+  }
+
   public void sendDagNodeNameMap(String queryId, Map<String, DAGNode<Job>> nodeIdToDAGNode) {
     try {
       statsWriteService.sendDagNodeNameMap(queryId, nodeIdToDAGNode);
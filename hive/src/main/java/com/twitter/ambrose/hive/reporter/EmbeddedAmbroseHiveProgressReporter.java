@@ -16,13 +16,11 @@ limitations under the License.
 package com.twitter.ambrose.hive.reporter;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
-import java.util.SortedMap;
+import java.util.Collection;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import com.twitter.ambrose.hive.AmbroseHiveUtil;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.server.ScriptStatusServer;
 import com.twitter.ambrose.service.impl.InMemoryStatsService;
@@ -42,41 +40,31 @@ public class EmbeddedAmbroseHiveProgressReporter extends AmbroseHiveProgressRepo
   private InMemoryStatsService service;
   private ScriptStatusServer server;
 
-  /**
-   * internal eventMap field unfolded from InMemoryStatsService
-   * Needed to be able to save events of workflows and restore all of the
-   * when script is replayed at the end
-   */
-  private SortedMap<Integer, Event<?>> _eventMap;
-
   EmbeddedAmbroseHiveProgressReporter() {
-    super(new InMemoryStatsService());
-    this.service = (InMemoryStatsService) getStatsWriteService();
+    this(new InMemoryStatsService());
+  }
+
+  private EmbeddedAmbroseHiveProgressReporter(InMemoryStatsService service) {
+    super(service);
+    this.service = service;
     this.server = new ScriptStatusServer(service, service);
     this.server.start();
-    initInternal();
-  }
-  
-  @SuppressWarnings("unchecked")
-  private void initInternal() {
-    try {
-      Field eventMapField = AmbroseHiveUtil
-          .getInternalField(InMemoryStatsService.class, "eventMap");
-      _eventMap = (SortedMap<Integer, Event<?>>) eventMapField.get(service);
-    }
-    catch (Exception e) {
-      LOG.fatal("Can't access to eventMap/dagNodeNameMap fields at "
-          + InMemoryStatsService.class.getName() + "!");
-      throw new RuntimeException("Incompatible Hive API found!", e);
-    }
   }
   
   /**
    * Saves events and DAGNodes for a given workflow
    */
+  @SuppressWarnings("unchecked")
   @Override
   public void saveEventStack() {
-    allEvents.putAll(_eventMap);
+    flush();
+    try {
+      for (Event<?> event : (Collection<Event<?>>) service.getEventsSinceId(null, -1)) {
+        allEvents.put(event.getId(), event);
+      }
+    } catch (IOException e) {
+      LOG.warn("Couldn't save events of workflow", e);
+    }
     allDagNodes.putAll(service.getDagNodeNameMap(null));
   }
 
@@ -86,8 +74,13 @@ public class EmbeddedAmbroseHiveProgressReporter extends AmbroseHiveProgressRepo
    */
   @Override
   public void restoreEventStack() {
-    _eventMap.putAll(allEvents);
-    service.getDagNodeNameMap(null).putAll(allDagNodes);
+    flush();
+    try {
+      service.restoreEvents(allEvents.values());
+    } catch (IOException e) {
+      LOG.warn("Couldn't restore events of workflows", e);
+    }
+    service.addDagNodes(allDagNodes);
   }
   
   public void stopServer() {
@@ -106,7 +99,7 @@ public class EmbeddedAmbroseHiveProgressReporter extends AmbroseHiveProgressRepo
 
   @Override
   public void resetAdditionals() {
-    _eventMap.clear();
+    service.clearEvents();
   }
 
 }
@@ -47,8 +47,10 @@ import com.twitter.ambrose.model.DAGNode;
 import com.twitter.ambrose.model.Event;
 import com.twitter.ambrose.model.Job;
 import com.twitter.ambrose.model.Workflow;
+import com.twitter.ambrose.model.hadoop.JobStatePoller;
 import com.twitter.ambrose.model.hadoop.MapReduceHelper;
 import com.twitter.ambrose.service.StatsWriteService;
+import com.twitter.ambrose.service.impl.AsyncStatsWriteService;
 import com.twitter.ambrose.util.AmbroseUtils;
 
 /**
@@ -104,14 +106,17 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
   }
 
   private MapReduceHelper mapReduceHelper = new MapReduceHelper();
+  /** polls the jobs of the running script, created by its first job and closed once it completes */
+  private JobStatePoller jobStatePoller;
 
   /**
-   * Initialize this class with an instance of StatsWriteService to push stats to.
+   * Initialize this class with an instance of StatsWriteService to push stats to. The service is
+   * wrapped in an {@link AsyncStatsWriteService} if asynchronous writes are enabled.
    *
    * @param statsWriteService service to which stats collected from PPNL callbacks are written.
    */
   public AmbrosePigProgressNotificationListener(StatsWriteService statsWriteService) {
-    this.statsWriteService = statsWriteService;
+    this.statsWriteService = AsyncStatsWriteService.wrapIfEnabled(statsWriteService);
   }
 
   protected StatsWriteService getStatsWriteService() { return statsWriteService; }
@@ -235,6 +240,9 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
         PigJob job = node.getJob();
         job.setId(assignedJobId);
         mapReduceHelper.addMapReduceJobState(job, pigConfig.getJobClient());
+        // the job client is resolved here since PigStats is bound to the calling thread
+        getJobStatePoller().watch(assignedJobId,
+            mapReduceHelper.newJobStateSource(pigConfig.getJobClient()));
 
         dagNodeJobIdMap.put(job.getId(), node);
         AmbroseUtils.pushEvent(statsWriteService, scriptId, new Event.JobStartedEvent(node));
@@ -261,6 +269,7 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
       return;
     }
 
+    getJobStatePoller().unwatch(stats.getJobId());
     mapReduceHelper.addMapReduceJobState(node.getJob(), pigConfig.getJobClient());
     addCompletedJobStats(node.getJob(), stats);
     AmbroseUtils.pushEvent(statsWriteService, scriptId, new Event.JobFailedEvent(node));
@@ -280,6 +289,7 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
       return;
     }
 
+    getJobStatePoller().unwatch(stats.getJobId());
     mapReduceHelper.addMapReduceJobState(node.getJob(), pigConfig.getJobClient());
     addCompletedJobStats(node.getJob(), stats);
     AmbroseUtils.pushEvent(statsWriteService, scriptId, new Event.JobFinishedEvent(node));
@@ -294,6 +304,8 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
    */
   @Override
   public void launchCompletedNotification(String scriptId, int numJobsSucceeded) {
+    closeJobStatePoller();
+    AmbroseUtils.close(statsWriteService);
     Workflow workflow = new Workflow(scriptId, workflowVersion, jobs);
     try {
       outputStatsData(workflow);
@@ -326,9 +338,8 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
         continue;
       }
 
-      mapReduceHelper.addMapReduceJobState(node.getJob(), pigConfig.getJobClient());
-
-      if (node.getJob().getMapReduceJobState() != null) {
+      // read the state polled in the background, and only report it when it has changed
+      if (mapReduceHelper.setPolledMapReduceJobState(node.getJob(), getJobStatePoller())) {
         AmbroseUtils.pushEvent(statsWriteService, scriptId, new Event.JobProgressEvent(node));
 
         if (node.getJob().getMapReduceJobState().isComplete()) {
@@ -357,6 +368,20 @@ public class AmbrosePigProgressNotificationListener implements PigProgressNotifi
 
   // Helper methods
 
+  private synchronized JobStatePoller getJobStatePoller() {
+    if (jobStatePoller == null) {
+      jobStatePoller = new JobStatePoller();
+    }
+    return jobStatePoller;
+  }
+
+  private synchronized void closeJobStatePoller() {
+    if (jobStatePoller != null) {
+      jobStatePoller.close();
+      jobStatePoller = null;
+    }
+  }
+
   private void outputStatsData(Workflow workflow) throws IOException {
     if(log.isDebugEnabled()) {
       log.debug("Collected stats for script:\n" + Workflow.toJSON(workflow));
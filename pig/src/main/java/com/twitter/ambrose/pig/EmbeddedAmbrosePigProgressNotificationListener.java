@@ -51,8 +51,12 @@ public class EmbeddedAmbrosePigProgressNotificationListener
   private ScriptStatusServer server;
 
   public EmbeddedAmbrosePigProgressNotificationListener() {
-    super(new InMemoryStatsService<Job>());
-    this.service = (InMemoryStatsService<Job>) getStatsWriteService();
+    this(new InMemoryStatsService<Job>());
+  }
+
+  private EmbeddedAmbrosePigProgressNotificationListener(InMemoryStatsService<Job> service) {
+    super(service);
+    this.service = service;
     this.server = new ScriptStatusServer(service, service);
     this.server.start();
   }
@@ -32,7 +32,6 @@ import org.apache.pig.tools.pigstats.JobStats;
 import org.apache.pig.tools.pigstats.OutputStats;
 import org.apache.pig.tools.pigstats.mapreduce.MRJobStats;
 
-import com.twitter.ambrose.model.hadoop.CounterGroup;
 import com.twitter.ambrose.model.hadoop.MapReduceJob;
 
 /**
@@ -82,7 +81,7 @@ public class PigJob extends MapReduceJob {
     if (stats instanceof MRJobStats) {
       MRJobStats mrStats = (MRJobStats) stats;
 
-      setCounterGroupMap(CounterGroup.counterGroupsByName(mrStats.getHadoopCounters()));
+      setCounters(mrStats.getHadoopCounters());
 
       metrics.put("avgMapTime", mrStats.getAvgMapTime());
 